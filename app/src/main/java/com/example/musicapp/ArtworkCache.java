@@ -0,0 +1,527 @@
+package com.example.musicapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Album-art thumbnails for list rows.
+ *
+ * Embedded art is read with {@link TagReader}, decoded straight at thumbnail size
+ * (inSampleSize, RGB_565) and keyed by a hash of the image bytes, so a whole album
+ * sharing one cover is decoded and stored once. Thumbnails live in a memory LRU sized
+ * in bytes and as small JPEGs on disk; an index of song id -> art hash (valid for the
+ * song's DATE_MODIFIED) lets later lookups skip the tag read altogether, and tracks
+ * without art are remembered so they aren't retried.
+ *
+ * Requests made through {@link #bind} are tied to their ImageView and cancelled when
+ * it is rebound or {@link #cancel}led (e.g. for a recycled ViewHolder). Prefetches
+ * run after visible requests and are replaced by the next {@link #prefetch} call.
+ *
+ * {@link #loadLarge} serves the playback service's media session: the same art at
+ * {@link #LARGE_SIZE_PX}, kept for the last few covers only, ahead of any list request.
+ */
+public class ArtworkCache {
+
+    private static final int THUMB_SIZE_DP = 48;
+    /** Lock screen / car display art; larger is scaled down again by most controllers. */
+    static final int LARGE_SIZE_PX = 320;
+    private static final int LARGE_ENTRIES = 3;
+    private static final int THREADS = 2;
+    private static final int PRIORITY_PLAYBACK = -1;
+    private static final int PRIORITY_VISIBLE = 0;
+    private static final int PRIORITY_PREFETCH = 1;
+
+    private static final long NO_ART = 0;
+    private static final long MAX_DISK_BYTES = 32L * 1024 * 1024;
+    private static final int DISK_TRIM_INTERVAL = 64;
+    private static final long SAVE_DELAY_MS = 5000;
+
+    private static final int INDEX_MAGIC = 0x4D415254; // "MART"
+    private static final int INDEX_VERSION = 1;
+
+    private static ArtworkCache instance;
+
+    public static synchronized ArtworkCache get(Context context) {
+        if (instance == null) instance = new ArtworkCache(context.getApplicationContext());
+        return instance;
+    }
+
+    private final Context appContext;
+    private final int thumbSizePx;
+    private final File dir;
+    private final LruCache<Long, Bitmap> memory;
+    private final LruCache<Long, Bitmap> large = new LruCache<>(LARGE_ENTRIES); // art hash -> bitmap
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "artwork-io"));
+    private final ThreadPoolExecutor pool;
+
+    private final ThreadLocal<TagReader> tagReaders = new ThreadLocal<TagReader>() {
+        @Override
+        protected TagReader initialValue() {
+            return new TagReader();
+        }
+    };
+
+    // song id -> slot in the parallel arrays below. Guarded by "this"
+    private final LongIntMap slots = new LongIntMap(1024);
+    private long[] slotSongId = new long[1024];
+    private long[] slotDateModified = new long[1024];
+    private long[] slotHash = new long[1024];
+    private int slotCount = 0;
+    private boolean indexDirty = false;
+    private boolean indexLoaded = false;
+    private int diskWrites = 0;
+    private long nextSeq = 0;
+
+    public interface Callback {
+        /** Called on a worker thread; {@code bitmap} is null if the track has no artwork. */
+        void onArtwork(Song song, Bitmap bitmap);
+    }
+
+    // Main-thread state
+    private final ArrayList<Request> prefetches = new ArrayList<>();
+
+    private final Runnable scheduleSave = () -> ioExecutor.execute(this::saveIndex);
+
+    private ArtworkCache(Context appContext) {
+        this.appContext = appContext;
+        this.thumbSizePx = Math.round(THUMB_SIZE_DP * appContext.getResources().getDisplayMetrics().density);
+        this.dir = new File(appContext.getCacheDir(), "artwork");
+
+        long maxBytes = Math.min(Runtime.getRuntime().maxMemory() / 16, 16L * 1024 * 1024);
+        memory = new LruCache<Long, Bitmap>((int) maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+
+        pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "artwork-decode");
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+
+        ioExecutor.execute(this::loadIndex);
+    }
+
+    // -----------------------
+    // Requests (main thread)
+    // -----------------------
+
+    /** Thumbnail for {@code song} if it is in memory, else null. */
+    public Bitmap peek(Song song) {
+        long hash = knownHash(song);
+        return (hash == -1 || hash == NO_ART) ? null : memory.get(hash);
+    }
+
+    /**
+     * Shows {@code song}'s artwork in {@code view}: immediately if it is in memory,
+     * otherwise once loaded (the view is cleared meanwhile). Replaces any earlier
+     * request for the same view.
+     */
+    public void bind(ImageView view, Song song) {
+        cancel(view);
+
+        Bitmap cached = peek(song);
+        view.setImageBitmap(cached);
+        if (cached != null || knownHash(song) == NO_ART) return;
+
+        Request r = new Request(song, view, PRIORITY_VISIBLE, nextSeq());
+        view.setTag(r);
+        pool.execute(r);
+    }
+
+    /** Cancels the pending request for {@code view}, if any (e.g. from onViewRecycled). */
+    public void cancel(ImageView view) {
+        Object tag = view.getTag();
+        if (tag instanceof Request) {
+            Request r = (Request) tag;
+            r.cancelled = true;
+            pool.remove(r);
+            view.setTag(null);
+        }
+    }
+
+    /** Warms the caches for rows about to scroll into view; drops the previous prefetch batch. */
+    public void prefetch(List<Song> songs) {
+        for (Request r : prefetches) {
+            r.cancelled = true;
+            pool.remove(r);
+        }
+        prefetches.clear();
+
+        for (Song s : songs) {
+            long hash = knownHash(s);
+            if (hash == NO_ART || (hash != -1 && memory.get(hash) != null)) continue;
+            Request r = new Request(s, null, PRIORITY_PREFETCH, nextSeq());
+            prefetches.add(r);
+            pool.execute(r);
+        }
+    }
+
+    /**
+     * Loads {@code song}'s artwork at {@link #LARGE_SIZE_PX} ahead of list requests.
+     * Any thread; {@code callback} runs on a worker thread.
+     */
+    public void loadLarge(Song song, Callback callback) {
+        pool.execute(new Request(song, callback, nextSeq()));
+    }
+
+    private synchronized long nextSeq() {
+        return nextSeq++;
+    }
+
+    private final class Request implements Runnable, Comparable<Request> {
+        final Song song;
+        final ImageView target;
+        final Callback callback;
+        final int priority;
+        final long seq;
+        volatile boolean cancelled = false;
+
+        Request(Song song, ImageView target, int priority, long seq) {
+            this.song = song;
+            this.target = target;
+            this.callback = null;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        Request(Song song, Callback callback, long seq) {
+            this.song = song;
+            this.target = null;
+            this.callback = callback;
+            this.priority = PRIORITY_PLAYBACK;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Request o) {
+            if (priority != o.priority) return Integer.compare(priority, o.priority);
+            // Visible rows newest first (the ones just scrolled to); prefetches nearest first
+            return (priority == PRIORITY_VISIBLE) ? Long.compare(o.seq, seq) : Long.compare(seq, o.seq);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) return;
+            if (callback != null) {
+                callback.onArtwork(song, loadLarge(song));
+                return;
+            }
+            Bitmap bitmap = load(song);
+            if (target == null || bitmap == null) return;
+
+            mainHandler.post(() -> {
+                if (cancelled || target.getTag() != this) return;
+                target.setTag(null);
+                target.setImageBitmap(bitmap);
+            });
+        }
+    }
+
+    // -----------------------
+    // Loading (worker threads)
+    // -----------------------
+
+    /** Memory, then disk, then the file's own tags. Null if the track has no artwork. */
+    private Bitmap load(Song song) {
+        long hash = knownHash(song);
+        if (hash == NO_ART) return null;
+        if (hash != -1) {
+            Bitmap b = fromMemoryOrDisk(hash);
+            if (b != null) return b;
+        }
+
+        PictureGrabber grabber = readPicture(song);
+        if (grabber == null) return null; // unreadable now; don't record, it may be readable later
+        if (grabber.bytes == null) {
+            remember(song, NO_ART);
+            return null;
+        }
+
+        hash = grabber.hash;
+        Bitmap b = fromMemoryOrDisk(hash);
+        if (b == null) {
+            b = decodeSampled(grabber.bytes, thumbSizePx);
+            if (b == null) {
+                remember(song, NO_ART);
+                return null;
+            }
+            memory.put(hash, b);
+            writeToDisk(hash, b);
+        }
+        remember(song, hash);
+        return b;
+    }
+
+    /**
+     * {@link #load} at {@link #LARGE_SIZE_PX}. Only the large memory tier is checked: the
+     * disk holds thumbnails, so a miss reads the tags again, which is one read per track.
+     */
+    private Bitmap loadLarge(Song song) {
+        long hash = knownHash(song);
+        if (hash == NO_ART) return null;
+        if (hash != -1) {
+            Bitmap b = large.get(hash);
+            if (b != null) return b;
+        }
+
+        PictureGrabber grabber = readPicture(song);
+        if (grabber == null) return null;
+        if (grabber.bytes == null) {
+            remember(song, NO_ART);
+            return null;
+        }
+
+        Bitmap b = large.get(grabber.hash);
+        if (b == null) {
+            b = decodeSampled(grabber.bytes, LARGE_SIZE_PX);
+            if (b == null) return null;
+            large.put(grabber.hash, b);
+        }
+        remember(song, grabber.hash);
+        return b;
+    }
+
+    /** The file's first embedded picture (bytes null if it has none), or null if it can't be read. */
+    private PictureGrabber readPicture(Song song) {
+        PictureGrabber grabber = new PictureGrabber();
+        try (ParcelFileDescriptor pfd = appContext.getContentResolver().openFileDescriptor(song.getUri(), "r");
+             FileInputStream in = new FileInputStream(pfd.getFileDescriptor());
+             FileChannel ch = in.getChannel()) {
+            tagReaders.get().read(ch, grabber);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        return grabber;
+    }
+
+    private Bitmap fromMemoryOrDisk(long hash) {
+        Bitmap b = memory.get(hash);
+        if (b != null) return b;
+
+        File f = fileFor(hash);
+        if (!f.isFile()) return null;
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        b = BitmapFactory.decodeFile(f.getPath(), opts);
+        if (b != null) memory.put(hash, b);
+        return b;
+    }
+
+    /** Decodes at the smallest power-of-two reduction that still covers {@code sizePx}. */
+    private static Bitmap decodeSampled(byte[] data, int sizePx) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) return null;
+
+        int sample = 1;
+        while (opts.outWidth / (sample * 2) >= sizePx && opts.outHeight / (sample * 2) >= sizePx) {
+            sample *= 2;
+        }
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = sample;
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap b = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+        if (b == null) return null;
+
+        // Sampling only gets within 2x; scale the rest of the way so memory holds only what is shown
+        int shortSide = Math.min(b.getWidth(), b.getHeight());
+        if (shortSide > sizePx) {
+            float scale = sizePx / (float) shortSide;
+            Bitmap scaled = Bitmap.createScaledBitmap(b,
+                    Math.max(1, Math.round(b.getWidth() * scale)),
+                    Math.max(1, Math.round(b.getHeight() * scale)), true);
+            if (scaled != b) b.recycle();
+            b = scaled;
+        }
+        return b;
+    }
+
+    /** Keeps the first embedded picture and its content hash (64-bit FNV-1a). */
+    private static final class PictureGrabber implements TagReader.Visitor {
+        byte[] bytes;
+        long hash;
+
+        @Override
+        public void onTextField(int field, CharSequence value) {}
+
+        @Override
+        public void onStreamInfo(long durationMs, int sampleRate, int bitrate) {}
+
+        @Override
+        public void onPicture(String mimeType, ByteBuffer data) {
+            if (bytes != null) return;
+            bytes = new byte[data.remaining()];
+            data.get(bytes);
+
+            long h = 0xcbf29ce484222325L;
+            for (byte b : bytes) {
+                h ^= (b & 0xFF);
+                h *= 0x100000001b3L;
+            }
+            hash = (h == NO_ART || h == -1) ? 1 : h;
+        }
+    }
+
+    // -----------------------
+    // Disk tier
+    // -----------------------
+
+    private File fileFor(long hash) {
+        return new File(dir, Long.toHexString(hash) + ".jpg");
+    }
+
+    private void writeToDisk(long hash, Bitmap b) {
+        ioExecutor.execute(() -> {
+            if (!dir.isDirectory() && !dir.mkdirs()) return;
+            File f = fileFor(hash);
+            File tmp = new File(dir, f.getName() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                b.compress(Bitmap.CompressFormat.JPEG, 85, out);
+            } catch (IOException e) {
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(f)) tmp.delete();
+
+            if (++diskWrites % DISK_TRIM_INTERVAL == 0) trimDisk();
+        });
+    }
+
+    /** Deletes the least recently written thumbnails beyond the disk budget. io thread. */
+    private void trimDisk() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total <= MAX_DISK_BYTES) return;
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : files) {
+            if (total <= MAX_DISK_BYTES * 3 / 4) break;
+            if (f.getName().endsWith(".jpg")) {
+                total -= f.length();
+                f.delete();
+            }
+        }
+    }
+
+    // -----------------------
+    // Song -> artwork index
+    // -----------------------
+
+    /** The art hash recorded for this version of {@code song}: NO_ART, a hash, or -1 if unknown. */
+    private synchronized long knownHash(Song song) {
+        int slot = slots.get(song.id);
+        if (slot == LongIntMap.MISSING || slotDateModified[slot] != song.dateModifiedSeconds) return -1;
+        return slotHash[slot];
+    }
+
+    private void remember(Song song, long hash) {
+        synchronized (this) {
+            put(song.id, song.dateModifiedSeconds, hash);
+            indexDirty = true;
+        }
+        mainHandler.removeCallbacks(scheduleSave);
+        mainHandler.postDelayed(scheduleSave, SAVE_DELAY_MS);
+    }
+
+    // Caller holds the lock
+    private void put(long songId, long dateModified, long hash) {
+        int slot = slots.get(songId);
+        if (slot == LongIntMap.MISSING) {
+            slot = slotCount++;
+            if (slot == slotHash.length) {
+                slotSongId = Arrays.copyOf(slotSongId, slot * 2);
+                slotHash = Arrays.copyOf(slotHash, slot * 2);
+                slotDateModified = Arrays.copyOf(slotDateModified, slot * 2);
+            }
+            slots.put(songId, slot);
+            slotSongId[slot] = songId;
+        }
+        slotDateModified[slot] = dateModified;
+        slotHash[slot] = hash;
+    }
+
+    private void loadIndex() {
+        File f = new File(dir, "index.bin");
+        if (f.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64 * 1024))) {
+                if (in.readInt() == INDEX_MAGIC && in.readInt() == INDEX_VERSION) {
+                    int count = in.readInt();
+                    long[] rows = new long[Math.max(0, count) * 3];
+                    for (int i = 0; i < rows.length; i++) rows[i] = in.readLong();
+                    synchronized (this) {
+                        for (int i = 0; i < rows.length; i += 3) {
+                            // Entries recorded since startup are newer; keep them
+                            if (slots.get(rows[i]) == LongIntMap.MISSING) put(rows[i], rows[i + 1], rows[i + 2]);
+                        }
+                    }
+                }
+            } catch (IOException ignored) {}
+        }
+        synchronized (this) { indexLoaded = true; }
+        saveIndex(); // anything recorded while loading
+    }
+
+    private void saveIndex() {
+        long[] rows;
+        synchronized (this) {
+            if (!indexDirty || !indexLoaded) return;
+            indexDirty = false;
+            rows = new long[slotCount * 3];
+            for (int i = 0; i < slotCount; i++) {
+                rows[i * 3] = slotSongId[i];
+                rows[i * 3 + 1] = slotDateModified[i];
+                rows[i * 3 + 2] = slotHash[i];
+            }
+        }
+
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        File f = new File(dir, "index.bin");
+        File tmp = new File(dir, "index.bin.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(rows.length / 3);
+            for (long v : rows) out.writeLong(v);
+        } catch (IOException e) {
+            tmp.delete();
+            synchronized (this) { indexDirty = true; }
+            return;
+        }
+        if (!tmp.renameTo(f)) tmp.delete();
+    }
+}
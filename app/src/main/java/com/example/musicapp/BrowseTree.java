@@ -0,0 +1,238 @@
+package com.example.musicapp;
+
+import android.content.Context;
+import android.support.v4.media.MediaBrowserCompat.MediaItem;
+import android.support.v4.media.MediaDescriptionCompat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The media browser tree the playback service shows Android Auto, Wear and other
+ * controllers:
+ * <pre>
+ *   root
+ *   ├── songs                 every song, library order
+ *   └── playlists             one browsable item per playlist
+ *       └── playlist:ID       its songs, as playlist:ID/POSITION
+ * </pre>
+ * Songs outside playlists are song:ID. Children are built a page at a time straight from
+ * the library snapshot and the playlists' ids, so however large the library is, no reply
+ * holds more than {@link #MAX_PAGE_SIZE} items and nothing is copied up front.
+ *
+ * Main thread, except {@link #songItems}.
+ */
+final class BrowseTree {
+
+    static final String ROOT = "root";
+    /** The root untrusted browsers get: no children. */
+    static final String EMPTY_ROOT = "empty";
+    static final String SONGS = "songs";
+    static final String PLAYLISTS = "playlists";
+
+    private static final String SONG_PREFIX = "song:";
+    private static final String PLAYLIST_PREFIX = "playlist:";
+
+    /** Items per reply when the client doesn't page, and the most per page: far below the 1 MB Binder limit. */
+    static final int MAX_PAGE_SIZE = 500;
+
+    private final Context context;
+    private final LibraryRepository library;
+    private final MetadataExtractor metadata;
+
+    // Parsed playlists, reused until the saved document changes
+    private String playlistsJson;
+    private PlaylistStore.Contents playlists = new PlaylistStore.Contents();
+
+    BrowseTree(Context context, LibraryRepository library, MetadataExtractor metadata) {
+        this.context = context;
+        this.library = library;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Page {@code page} of {@code parentId}'s children, {@code pageSize} per page (at most
+     * {@link #MAX_PAGE_SIZE}); a negative page means the first {@code MAX_PAGE_SIZE}.
+     * Null if there is no such node.
+     */
+    List<MediaItem> children(String parentId, int page, int pageSize) {
+        int size = pageSize(page, pageSize);
+        long from = pageStart(page, size);
+
+        switch (parentId) {
+            case ROOT:
+                return slice(rootItems(), from, size);
+            case EMPTY_ROOT:
+                return Collections.emptyList();
+            case SONGS: {
+                LibrarySnapshot snapshot = library.getSnapshot();
+                if (from >= snapshot.size()) return Collections.emptyList();
+                int end = (int) Math.min(snapshot.size(), from + size);
+                return songItems(snapshot.subList((int) from, end), null, (int) from);
+            }
+            case PLAYLISTS:
+                return playlistItems(from, size);
+        }
+
+        if (parentId.startsWith(PLAYLIST_PREFIX)) {
+            ArrayList<Long> ids = playlistSongIds(parentId.substring(PLAYLIST_PREFIX.length()));
+            if (ids == null) return null;
+            return playlistSongItems(parentId, ids, from, size);
+        }
+        return null;
+    }
+
+    /** Page {@code page} of search results; {@code hits} are the first {@link #MAX_PAGE_SIZE} matches. */
+    List<MediaItem> searchPage(List<Song> hits, int page, int pageSize) {
+        int size = pageSize(page, pageSize);
+        long from = pageStart(page, size);
+        if (from >= hits.size()) return Collections.emptyList();
+        int end = (int) Math.min(hits.size(), from + size);
+        return songItems(hits.subList((int) from, end), null, 0);
+    }
+
+    /**
+     * Items for {@code songs}: song:ID, or {@code parentId}/POSITION (counting from
+     * {@code firstPosition}) inside a playlist. Any thread.
+     */
+    List<MediaItem> songItems(List<Song> songs, String parentId, int firstPosition) {
+        ArrayList<MediaItem> items = new ArrayList<>(songs.size());
+        for (int i = 0; i < songs.size(); i++) {
+            Song s = songs.get(i);
+            String mediaId = (parentId == null) ? SONG_PREFIX + s.id : parentId + "/" + (firstPosition + i);
+            MediaDescriptionCompat.Builder d = new MediaDescriptionCompat.Builder()
+                    .setMediaId(mediaId)
+                    .setTitle(s.name);
+            TrackMetadata tags = metadata.peek(s);
+            if (tags != null && tags.artist != null) d.setSubtitle(tags.artist);
+            items.add(new MediaItem(d.build(), MediaItem.FLAG_PLAYABLE));
+        }
+        return items;
+    }
+
+    /**
+     * What to queue when {@code mediaId} is played: a playlist from that position to its
+     * end (songs no longer in the library skipped), or a single song. Null if it can't be
+     * resolved.
+     */
+    List<Song> queueFor(String mediaId) {
+        LibrarySnapshot snapshot = library.getSnapshot();
+
+        if (mediaId.startsWith(SONG_PREFIX)) {
+            Long id = parseId(mediaId.substring(SONG_PREFIX.length()));
+            Song s = (id == null) ? null : snapshot.findById(id);
+            return (s == null) ? null : Collections.singletonList(s);
+        }
+
+        int slash = mediaId.lastIndexOf('/');
+        if (!mediaId.startsWith(PLAYLIST_PREFIX) || slash < 0) return null;
+        ArrayList<Long> ids = playlistSongIds(mediaId.substring(PLAYLIST_PREFIX.length(), slash));
+        Long position = parseId(mediaId.substring(slash + 1));
+        if (ids == null || position == null || position < 0 || position >= ids.size()) return null;
+
+        ArrayList<Song> songs = new ArrayList<>(ids.size() - position.intValue());
+        for (int i = position.intValue(); i < ids.size(); i++) {
+            Song s = snapshot.findById(ids.get(i));
+            if (s != null) songs.add(s);
+        }
+        return songs.isEmpty() ? null : songs;
+    }
+
+    // -----------------------
+    // Paging
+    // -----------------------
+
+    /**
+     * Items per page: what the client asked for, at most {@link #MAX_PAGE_SIZE}, or
+     * MAX_PAGE_SIZE if it didn't page. Pages are counted in this size, so a client asking
+     * for more than the maximum gets every row, over more pages than it expected.
+     */
+    static int pageSize(int page, int requested) {
+        if (page < 0 || requested <= 0) return MAX_PAGE_SIZE;
+        return Math.min(requested, MAX_PAGE_SIZE);
+    }
+
+    /** First row of page {@code page}, {@code size} (from {@link #pageSize}) per page. */
+    static long pageStart(int page, int size) {
+        return (page < 0) ? 0 : (long) page * size;
+    }
+
+    // -----------------------
+    // Nodes
+    // -----------------------
+
+    private List<MediaItem> rootItems() {
+        ArrayList<MediaItem> items = new ArrayList<>(2);
+        items.add(browsable(SONGS, "Songs", null));
+        items.add(browsable(PLAYLISTS, "Playlists", null));
+        return items;
+    }
+
+    private List<MediaItem> playlistItems(long from, int size) {
+        List<Playlist> all = loadPlaylists().playlists;
+        if (from >= all.size()) return Collections.emptyList();
+        int end = (int) Math.min(all.size(), from + size);
+
+        ArrayList<MediaItem> items = new ArrayList<>(end - (int) from);
+        for (Playlist p : all.subList((int) from, end)) {
+            ArrayList<Long> ids = playlists.songIds.get(p.id);
+            int count = (ids == null) ? 0 : ids.size();
+            items.add(browsable(PLAYLIST_PREFIX + p.id, p.name, count + (count == 1 ? " song" : " songs")));
+        }
+        return items;
+    }
+
+    /** One page of a playlist; ids no longer in the library are left out but keep their positions. */
+    private List<MediaItem> playlistSongItems(String parentId, ArrayList<Long> ids, long from, int size) {
+        if (from >= ids.size()) return Collections.emptyList();
+        int end = (int) Math.min(ids.size(), from + size);
+
+        LibrarySnapshot snapshot = library.getSnapshot();
+        ArrayList<MediaItem> items = new ArrayList<>(end - (int) from);
+        for (int i = (int) from; i < end; i++) {
+            Song s = snapshot.findById(ids.get(i));
+            if (s != null) items.addAll(songItems(Collections.singletonList(s), parentId, i));
+        }
+        return items;
+    }
+
+    private static MediaItem browsable(String mediaId, String title, String subtitle) {
+        return new MediaItem(new MediaDescriptionCompat.Builder()
+                .setMediaId(mediaId)
+                .setTitle(title)
+                .setSubtitle(subtitle)
+                .build(), MediaItem.FLAG_BROWSABLE);
+    }
+
+    private static List<MediaItem> slice(List<MediaItem> items, long from, int size) {
+        if (from >= items.size()) return Collections.emptyList();
+        return items.subList((int) from, (int) Math.min(items.size(), from + size));
+    }
+
+    // -----------------------
+    // Playlists
+    // -----------------------
+
+    private PlaylistStore.Contents loadPlaylists() {
+        String json = PlaylistStore.read(context);
+        if (json == null ? playlistsJson != null : !json.equals(playlistsJson)) {
+            playlists = PlaylistStore.parse(json);
+            playlistsJson = json;
+        }
+        return playlists;
+    }
+
+    private ArrayList<Long> playlistSongIds(String playlistId) {
+        Long id = parseId(playlistId);
+        return (id == null) ? null : loadPlaylists().songIds.get(id);
+    }
+
+    private static Long parseId(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.musicapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ID3v2.2/2.3/2.4 and ID3v1 tags, plus the first MPEG audio frame (and its Xing/Info
+ * or VBRI header) for duration and bitrate. Used by {@link TagReader}.
+ */
+final class Id3TagParser {
+
+    private static final int V1_SIZE = 128;
+    private static final int MPEG_SCAN_LIMIT = 64 * 1024;
+
+    private Id3TagParser() {}
+
+    // -----------------------
+    // ID3v2
+    // -----------------------
+
+    /** Parses the ID3v2 tag at offset 0; returns the offset just past it, or -1 if invalid. */
+    static long readV2(TagReader r, FileChannel ch, TagReader.Visitor v) throws IOException {
+        ByteBuffer h = r.readAt(ch, 0, 10);
+        if (h == null) return -1;
+
+        int major = TagReader.u8(h, 3);
+        int flags = TagReader.u8(h, 5);
+        int size = syncsafe(h, 6);
+        if (major < 2 || major > 4 || size < 0) return -1;
+
+        boolean footer = (major == 4) && (flags & 0x10) != 0;
+        long tagEnd = 10L + size + (footer ? 10 : 0);
+
+        ByteBuffer b = r.map(ch, 10, size);
+        // v2.2/2.3 unsynchronisation applies to the whole tag; v2.4 flags it per frame
+        if (major < 4 && (flags & 0x80) != 0) b = unsync(b, 0, b.limit());
+
+        int pos = 0;
+        int end = b.limit();
+        if (major >= 3 && (flags & 0x40) != 0) {
+            // Extended header: v2.4 size includes itself (syncsafe), v2.3 doesn't
+            if (end < 4) return tagEnd;
+            pos = (major == 4) ? syncsafe(b, 0) : (int) TagReader.u32be(b, 0) + 4;
+        }
+
+        int headerLen = (major == 2) ? 6 : 10;
+        while (pos + headerLen <= end) {
+            if (b.get(pos) == 0) break; // padding
+
+            int frameSize;
+            int frameFlags = 0;
+            if (major == 2) {
+                frameSize = (TagReader.u8(b, pos + 3) << 16) | TagReader.u16be(b, pos + 4);
+            } else {
+                frameSize = (major == 4) ? syncsafe(b, pos + 4) : (int) TagReader.u32be(b, pos + 4);
+                frameFlags = TagReader.u16be(b, pos + 8);
+            }
+            int dataStart = pos + headerLen;
+            if (frameSize <= 0 || frameSize > end - dataStart) break;
+
+            int field = fieldFor(b, pos, major);
+            boolean picture = isPicture(b, pos, major);
+            if (field != 0 || picture) {
+                visitFrame(r, b, major, frameFlags, dataStart, frameSize, field, picture, v);
+            }
+            pos = dataStart + frameSize;
+        }
+        return tagEnd;
+    }
+
+    private static void visitFrame(TagReader r, ByteBuffer b, int major, int frameFlags,
+                                   int start, int len, int field, boolean picture,
+                                   TagReader.Visitor v) {
+        if (major == 3 && (frameFlags & 0x00C0) != 0) return; // compressed or encrypted
+        if (major == 4 && (frameFlags & 0x000C) != 0) return;
+        if (major == 3 && (frameFlags & 0x0020) != 0) { start++; len--; } // group id
+        if (major == 4 && (frameFlags & 0x0040) != 0) { start++; len--; }
+        if (major == 4 && (frameFlags & 0x0001) != 0) { start += 4; len -= 4; } // data length
+        if (len <= 0) return;
+
+        if (major == 4 && (frameFlags & 0x0002) != 0) {
+            b = unsync(b, start, len);
+            start = 0;
+            len = b.limit();
+        }
+
+        if (picture) visitPicture(r, b, major, start, len, v);
+        else visitText(r, b, start, len, field, v);
+    }
+
+    private static void visitText(TagReader r, ByteBuffer b, int start, int len, int field, TagReader.Visitor v) {
+        int enc = TagReader.u8(b, start);
+        Charset cs = charsetFor(enc);
+        int from = start + 1;
+        int to = terminator(b, from, start + len, enc);
+        if (to <= from) return;
+        v.onTextField(field, r.decode(b, from, to - from, cs));
+    }
+
+    private static void visitPicture(TagReader r, ByteBuffer b, int major, int start, int len, TagReader.Visitor v) {
+        int end = start + len;
+        int enc = TagReader.u8(b, start);
+        int pos = start + 1;
+        String mime;
+        if (major == 2) {
+            // Three-letter image format instead of a MIME type
+            if (pos + 3 > end) return;
+            mime = TagReader.matches(b, pos, "PNG") ? "image/png" : "image/jpeg";
+            pos += 3;
+        } else {
+            int mimeEnd = terminator(b, pos, end, 0);
+            mime = (mimeEnd > pos) ? r.decode(b, pos, mimeEnd - pos, StandardCharsets.ISO_8859_1).toString() : "image/jpeg";
+            pos = mimeEnd + 1;
+        }
+        pos++; // picture type
+        int descEnd = terminator(b, pos, end, enc);
+        pos = descEnd + ((enc == 1 || enc == 2) ? 2 : 1);
+        if (pos >= end) return;
+
+        ByteBuffer data = b.duplicate();
+        data.limit(end).position(pos);
+        v.onPicture(mime, data);
+    }
+
+    private static int fieldFor(ByteBuffer b, int pos, int major) {
+        if (major == 2) {
+            if (TagReader.matches(b, pos, "TT2")) return TagReader.FIELD_TITLE;
+            if (TagReader.matches(b, pos, "TP1")) return TagReader.FIELD_ARTIST;
+            if (TagReader.matches(b, pos, "TAL")) return TagReader.FIELD_ALBUM;
+            if (TagReader.matches(b, pos, "TP2")) return TagReader.FIELD_ALBUM_ARTIST;
+            if (TagReader.matches(b, pos, "TRK")) return TagReader.FIELD_TRACK;
+            if (TagReader.matches(b, pos, "TYE")) return TagReader.FIELD_YEAR;
+            if (TagReader.matches(b, pos, "TCO")) return TagReader.FIELD_GENRE;
+            return 0;
+        }
+        if (TagReader.matches(b, pos, "TIT2")) return TagReader.FIELD_TITLE;
+        if (TagReader.matches(b, pos, "TPE1")) return TagReader.FIELD_ARTIST;
+        if (TagReader.matches(b, pos, "TALB")) return TagReader.FIELD_ALBUM;
+        if (TagReader.matches(b, pos, "TPE2")) return TagReader.FIELD_ALBUM_ARTIST;
+        if (TagReader.matches(b, pos, "TRCK")) return TagReader.FIELD_TRACK;
+        if (TagReader.matches(b, pos, "TYER") || TagReader.matches(b, pos, "TDRC")) return TagReader.FIELD_YEAR;
+        if (TagReader.matches(b, pos, "TCON")) return TagReader.FIELD_GENRE;
+        return 0;
+    }
+
+    private static boolean isPicture(ByteBuffer b, int pos, int major) {
+        return (major == 2) ? TagReader.matches(b, pos, "PIC") : TagReader.matches(b, pos, "APIC");
+    }
+
+    private static Charset charsetFor(int enc) {
+        switch (enc) {
+            case 1: return StandardCharsets.UTF_16;
+            case 2: return StandardCharsets.UTF_16BE;
+            case 3: return StandardCharsets.UTF_8;
+            default: return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    /**
+     * End of the first string in [from, end): its null terminator (two zero bytes on a
+     * two-byte boundary for UTF-16), or {@code end}. v2.4 multi-value frames keep only
+     * the first value.
+     */
+    private static int terminator(ByteBuffer b, int from, int end, int enc) {
+        if (enc == 1 || enc == 2) {
+            for (int i = from; i + 1 < end; i += 2) {
+                if (b.get(i) == 0 && b.get(i + 1) == 0) return i;
+            }
+            return end - ((end - from) & 1);
+        }
+        for (int i = from; i < end; i++) {
+            if (b.get(i) == 0) return i;
+        }
+        return end;
+    }
+
+    /**
+     * Undoes unsynchronisation (0xFF 0x00 -> 0xFF). Rare in practice, so this copies
+     * rather than sharing the reader's scratch buffer, which text decoding reuses.
+     */
+    private static ByteBuffer unsync(ByteBuffer src, int start, int len) {
+        byte[] out = new byte[len];
+        int n = 0;
+        for (int i = start; i < start + len; i++) {
+            byte c = src.get(i);
+            out[n++] = c;
+            if (c == (byte) 0xFF && i + 1 < start + len && src.get(i + 1) == 0) i++;
+        }
+        return ByteBuffer.wrap(out, 0, n).slice();
+    }
+
+    private static int syncsafe(ByteBuffer b, int pos) {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = TagReader.u8(b, pos + i);
+            if ((c & 0x80) != 0) return -1;
+            v = (v << 7) | c;
+        }
+        return v;
+    }
+
+    // -----------------------
+    // ID3v1
+    // -----------------------
+
+    /**
+     * Checks for an ID3v1 tag in the last 128 bytes and reports its fields to {@code v}
+     * (pass null to only detect it, e.g. when an ID3v2 tag already supplied them).
+     */
+    static boolean readV1(TagReader r, FileChannel ch, TagReader.Visitor v) throws IOException {
+        long size = ch.size();
+        if (size < V1_SIZE) return false;
+        ByteBuffer h = r.readAt(ch, size - V1_SIZE, 3);
+        if (h == null || !TagReader.matches(h, 0, "TAG")) return false;
+        if (v == null) return true;
+
+        ByteBuffer b = r.map(ch, size - V1_SIZE, V1_SIZE);
+        v1Text(r, b, 3, 30, TagReader.FIELD_TITLE, v);
+        v1Text(r, b, 33, 30, TagReader.FIELD_ARTIST, v);
+        v1Text(r, b, 63, 30, TagReader.FIELD_ALBUM, v);
+        v1Text(r, b, 93, 4, TagReader.FIELD_YEAR, v);
+        // ID3v1.1: a zero byte before the last comment byte means that byte is the track
+        if (b.get(125) == 0 && b.get(126) != 0) {
+            v.onTextField(TagReader.FIELD_TRACK, r.number(TagReader.u8(b, 126)));
+        }
+        return true;
+    }
+
+    private static void v1Text(TagReader r, ByteBuffer b, int pos, int len, int field, TagReader.Visitor v) {
+        int end = terminator(b, pos, pos + len, 0);
+        while (end > pos && b.get(end - 1) == ' ') end--;
+        if (end > pos) v.onTextField(field, r.decode(b, pos, end - pos, StandardCharsets.ISO_8859_1));
+    }
+
+    // -----------------------
+    // MPEG audio frames
+    // -----------------------
+
+    private static final int[][] BITRATES_KBPS = {
+            // MPEG-1 layer I, II, III
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            // MPEG-2/2.5 layer I, then II and III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+    };
+
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000},  // MPEG-2.5
+            null,
+            {22050, 24000, 16000}, // MPEG-2
+            {44100, 48000, 32000}, // MPEG-1
+    };
+
+    /**
+     * Finds the first MPEG frame at or after {@code audioStart} and reports duration,
+     * sample rate and bitrate: exact for VBR files with a Xing/Info or VBRI header,
+     * estimated from the frame bitrate otherwise. Returns false if no frame is found.
+     */
+    static boolean readMpegStreamInfo(TagReader r, FileChannel ch, long audioStart, long audioEnd,
+                                      TagReader.Visitor v) throws IOException {
+        if (audioEnd - audioStart < 4) return false;
+        ByteBuffer b = r.map(ch, audioStart, Math.min(MPEG_SCAN_LIMIT, audioEnd - audioStart));
+        int end = b.limit();
+
+        for (int pos = 0; pos + 4 <= end; pos++) {
+            if (TagReader.u8(b, pos) != 0xFF || (TagReader.u8(b, pos + 1) & 0xE0) != 0xE0) continue;
+
+            int versionBits = (TagReader.u8(b, pos + 1) >> 3) & 3;
+            int layerBits = (TagReader.u8(b, pos + 1) >> 1) & 3;
+            int bitrateIndex = TagReader.u8(b, pos + 2) >> 4;
+            int rateIndex = (TagReader.u8(b, pos + 2) >> 2) & 3;
+            int padding = (TagReader.u8(b, pos + 2) >> 1) & 1;
+            boolean mono = (TagReader.u8(b, pos + 3) >> 6) == 3;
+            if (versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) continue;
+
+            boolean mpeg1 = (versionBits == 3);
+            int layer = 4 - layerBits; // 1, 2 or 3
+            int bitrateKbps = mpeg1 ? BITRATES_KBPS[layer - 1][bitrateIndex]
+                    : BITRATES_KBPS[layer == 1 ? 3 : 4][bitrateIndex];
+            int sampleRate = SAMPLE_RATES[versionBits][rateIndex];
+            int samplesPerFrame = (layer == 1) ? 384 : (layer == 3 && !mpeg1) ? 576 : 1152;
+            int frameLength = (layer == 1)
+                    ? (12 * bitrateKbps * 1000 / sampleRate + padding) * 4
+                    : (samplesPerFrame / 8) * bitrateKbps * 1000 / sampleRate + padding;
+
+            // Guard against false syncs: the next frame must start where this one ends
+            int next = pos + frameLength;
+            if (next + 2 <= end && (TagReader.u8(b, next) != 0xFF || (TagReader.u8(b, next + 1) & 0xE0) != 0xE0)) {
+                continue;
+            }
+
+            long audioBytes = audioEnd - audioStart - pos;
+            long frames = vbrFrameCount(b, pos, mpeg1, mono);
+            long durationMs;
+            int bitrate;
+            if (frames > 0) {
+                durationMs = frames * samplesPerFrame * 1000L / sampleRate;
+                bitrate = (durationMs > 0) ? (int) (audioBytes * 8000L / durationMs) : bitrateKbps * 1000;
+            } else {
+                bitrate = bitrateKbps * 1000;
+                durationMs = audioBytes * 8000L / bitrate;
+            }
+            v.onStreamInfo(durationMs, sampleRate, bitrate);
+            return true;
+        }
+        return false;
+    }
+
+    /** Frame count from a Xing/Info or VBRI header in the frame at {@code pos}, or 0. */
+    private static long vbrFrameCount(ByteBuffer b, int pos, boolean mpeg1, boolean mono) {
+        int sideInfo = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        int xing = pos + 4 + sideInfo;
+        if (TagReader.matches(b, xing, "Xing") || TagReader.matches(b, xing, "Info")) {
+            if (xing + 12 > b.limit()) return 0;
+            long flags = TagReader.u32be(b, xing + 4);
+            return ((flags & 1) != 0) ? TagReader.u32be(b, xing + 8) : 0;
+        }
+        int vbri = pos + 4 + 32;
+        if (TagReader.matches(b, vbri, "VBRI") && vbri + 18 <= b.limit()) {
+            return TagReader.u32be(b, vbri + 14);
+        }
+        return 0;
+    }
+}
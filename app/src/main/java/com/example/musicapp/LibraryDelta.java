@@ -0,0 +1,119 @@
+package com.example.musicapp;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.Arrays;
+
+/**
+ * Rows inserted, updated and removed between two library snapshots, in a form that can
+ * be replayed on a RecyclerView list as range events.
+ */
+public final class LibraryDelta {
+
+    /** Positions in the old snapshot, ascending. */
+    public final int[] removed;
+    /** Positions in the new snapshot, ascending. */
+    public final int[] inserted;
+    /** Positions in the new snapshot of rows whose id survived but whose Song changed, ascending. */
+    public final int[] updated;
+    /** True when surviving rows changed relative order; range events can't express that. */
+    public final boolean reordered;
+    /** {@link LibrarySnapshot#version} of the old and the new snapshot. */
+    public final long fromVersion;
+    public final long toVersion;
+
+    private LibraryDelta(int[] removed, int[] inserted, int[] updated, boolean reordered,
+                         long fromVersion, long toVersion) {
+        this.removed = removed;
+        this.inserted = inserted;
+        this.updated = updated;
+        this.reordered = reordered;
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+    }
+
+    public boolean isEmpty() {
+        return !reordered && removed.length == 0 && inserted.length == 0 && updated.length == 0;
+    }
+
+    public static LibraryDelta compute(LibrarySnapshot oldSnap, LibrarySnapshot newSnap) {
+        IntList removed = new IntList();
+        IntList updated = new IntList();
+        boolean[] survivedInNew = new boolean[newSnap.size()];
+        boolean reordered = false;
+        int lastNewPos = -1;
+
+        for (int i = 0; i < oldSnap.size(); i++) {
+            int p = newSnap.indexOfId(oldSnap.idAt(i));
+            if (p < 0) {
+                removed.add(i);
+                continue;
+            }
+            survivedInNew[p] = true;
+            if (p < lastNewPos) reordered = true;
+            lastNewPos = p;
+            if (newSnap.dateModifiedAt(p) != oldSnap.dateModifiedAt(i)) updated.add(p);
+        }
+
+        IntList inserted = new IntList();
+        for (int i = 0; i < survivedInNew.length; i++) {
+            if (!survivedInNew[i]) inserted.add(i);
+        }
+
+        updated.sort();
+        return new LibraryDelta(removed.toArray(), inserted.toArray(), updated.toArray(), reordered,
+                oldSnap.version, newSnap.version);
+    }
+
+    /**
+     * Replays the delta as range events on a list that has just been swapped to the new
+     * snapshot. Not for a {@link #reordered} delta; diff the snapshots instead.
+     */
+    public void dispatchTo(ListUpdateCallback callback) {
+        if (reordered) throw new IllegalStateException("reordered rows can't be replayed as ranges");
+
+        // Removals back to front so earlier old positions stay valid
+        int i = removed.length - 1;
+        while (i >= 0) {
+            int end = removed[i];
+            int start = end;
+            while (i > 0 && removed[i - 1] == start - 1) start = removed[--i];
+            callback.onRemoved(start, end - start + 1);
+            i--;
+        }
+
+        // The list now holds only surviving rows; inserting front to back in new positions rebuilds it
+        dispatchRanges(inserted, callback, true);
+        dispatchRanges(updated, callback, false);
+    }
+
+    private static void dispatchRanges(int[] positions, ListUpdateCallback callback, boolean insert) {
+        int i = 0;
+        while (i < positions.length) {
+            int start = positions[i];
+            int end = start;
+            while (i + 1 < positions.length && positions[i + 1] == end + 1) end = positions[++i];
+            if (insert) callback.onInserted(start, end - start + 1);
+            else callback.onChanged(start, end - start + 1, null);
+            i++;
+        }
+    }
+
+    private static final class IntList {
+        private int[] a = new int[8];
+        private int n = 0;
+
+        void add(int v) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = v;
+        }
+
+        void sort() {
+            Arrays.sort(a, 0, n);
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(a, n);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.musicapp;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide owner of the song library. MainActivity and PlaybackService both read
+ * the same {@link LibrarySnapshot}, so there is one MediaStore scan per process and
+ * handing the library around never copies it.
+ *
+ * On a cold start the library stored by {@link LibraryStore} is published first, then
+ * reconciled against MediaStore in the background. After that a ContentObserver keeps
+ * the library current: bursts of MediaStore changes are debounced into one reconcile,
+ * and listeners receive the resulting {@link LibraryDelta}.
+ *
+ * Components that need the library loaded (the activity while started, the playback
+ * service while it exists) {@link #acquire} it and {@link #release} it when done; a scan
+ * is only cancelled once none holds it, so one of them going away never leaves the
+ * others with a partial library.
+ *
+ * All methods and listener callbacks run on the main thread.
+ */
+public class LibraryRepository {
+
+    public interface Listener {
+        /** A first-time scan appended {@code count} songs at {@code from}. */
+        void onLibraryPage(LibrarySnapshot snapshot, int from, int count, int expectedTotal);
+
+        /**
+         * The scan finished. {@code replaced} is true when the whole content was swapped
+         * (a re-scan of an already loaded library) rather than streamed in pages.
+         */
+        void onLibraryLoaded(LibrarySnapshot snapshot, boolean replaced);
+
+        /** An already loaded library changed (files added, edited or deleted). */
+        void onLibraryChanged(LibrarySnapshot snapshot, LibraryDelta delta);
+
+        void onLibraryError(Exception e);
+    }
+
+    // MediaStore tends to fire many notifications per file operation; wait for quiet
+    private static final long CHANGE_DEBOUNCE_MS = 750;
+
+    private static LibraryRepository instance;
+
+    public static synchronized LibraryRepository get(Context context) {
+        if (instance == null) instance = new LibraryRepository(context.getApplicationContext());
+        return instance;
+    }
+
+    private final LibraryScanner scanner;
+    private final LibraryStore store;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "library-io"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Context appContext;
+
+    private volatile LibrarySnapshot snapshot = LibrarySnapshot.EMPTY;
+    private long nextVersion = 1;
+
+    // MediaStore fingerprint the current snapshot was read at (null = unknown / not stored)
+    private String fingerprint = null;
+    private boolean storeChecked = false;
+    private boolean readingStore = false;
+    private boolean reconciled = false;  // snapshot confirmed against MediaStore this process
+    private boolean observing = false;
+    private boolean refreshPending = false; // change arrived while a scan was running
+    private int holders = 0;                // see acquire()
+
+    private final Runnable debouncedRefresh = () -> {
+        if (scanner.isRunning() || readingStore) refreshPending = true;
+        else refresh();
+    };
+
+    private final ContentObserver mediaObserver = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (!reconciled) return; // the initial scan will see it anyway
+            mainHandler.removeCallbacks(debouncedRefresh);
+            mainHandler.postDelayed(debouncedRefresh, CHANGE_DEBOUNCE_MS);
+        }
+    };
+
+    private LibraryRepository(Context appContext) {
+        this.appContext = appContext;
+        scanner = new LibraryScanner(appContext);
+        store = new LibraryStore(appContext.getFilesDir());
+    }
+
+    public LibrarySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public boolean isLoaded() {
+        return snapshot.complete;
+    }
+
+    /** False while only the stored copy (or a cancelled partial scan) has been loaded. */
+    public boolean isUpToDate() {
+        return reconciled;
+    }
+
+    public boolean isScanning() {
+        return readingStore || scanner.isRunning();
+    }
+
+    public void addListener(Listener l) {
+        if (!listeners.contains(l)) listeners.add(l);
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    /** Starts a scan unless the library is already loaded or being loaded. */
+    public void ensureLoaded() {
+        if (isUpToDate() || isScanning()) return;
+        refresh();
+    }
+
+    private void loadFromStoreThenRefresh() {
+        readingStore = true;
+        ioExecutor.execute(() -> {
+            LibraryStore.Cached cached = store.read();
+            mainHandler.post(() -> {
+                readingStore = false;
+                storeChecked = true;
+
+                if (cached != null && snapshot.isEmpty() && !cached.songs.isEmpty()) {
+                    fingerprint = cached.fingerprint;
+                    publishLoaded(new LibrarySnapshot.Builder(cached.songs), true);
+                }
+                refresh();
+            });
+        });
+    }
+
+    private void publishLoaded(LibrarySnapshot.Builder builder, boolean replaced) {
+        snapshot = builder.snapshot(nextVersion++, true);
+        for (Listener l : new ArrayList<>(listeners)) {
+            l.onLibraryLoaded(snapshot, replaced);
+        }
+    }
+
+    /**
+     * Re-scans MediaStore. Pages are streamed only into an empty library; otherwise the
+     * current snapshot keeps being served until the new one is complete.
+     */
+    public void refresh() {
+        startObserving();
+        refreshPending = false;
+
+        if (!storeChecked) {
+            if (!readingStore) loadFromStoreThenRefresh();
+            return;
+        }
+
+        final boolean streaming = snapshot.isEmpty();
+        final LibrarySnapshot.Builder builder = new LibrarySnapshot.Builder();
+        final LibraryStore.Cached base = snapshot.complete ? new LibraryStore.Cached(snapshot, fingerprint) : null;
+
+        scanner.start(base, new LibraryScanner.Callback() {
+            @Override
+            public void onPage(LibrarySnapshot page, int loadedSoFar, int expectedTotal) {
+                int from = builder.size();
+                builder.addRows(page);
+                if (!streaming) return;
+
+                snapshot = builder.snapshot(nextVersion++, false);
+                for (Listener l : new ArrayList<>(listeners)) {
+                    l.onLibraryPage(snapshot, from, page.size(), expectedTotal);
+                }
+            }
+
+            @Override
+            public void onComplete(int total, String newFingerprint, boolean changed) {
+                boolean fingerprintChanged = newFingerprint != null && !newFingerprint.equals(fingerprint);
+                fingerprint = newFingerprint;
+                reconciled = true;
+
+                if (!snapshot.complete) {
+                    publishLoaded(builder, !streaming);
+                } else if (changed) {
+                    publishChanged(builder);
+                }
+                if (changed || fingerprintChanged) {
+                    final LibrarySnapshot toStore = snapshot;
+                    final String storeFingerprint = newFingerprint;
+                    ioExecutor.execute(() -> store.write(toStore, storeFingerprint));
+                }
+
+                if (refreshPending) mainHandler.post(debouncedRefresh);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                for (Listener l : new ArrayList<>(listeners)) l.onLibraryError(e);
+            }
+        });
+    }
+
+    private void publishChanged(LibrarySnapshot.Builder builder) {
+        LibrarySnapshot old = snapshot;
+        LibrarySnapshot now = builder.snapshot(nextVersion++, true);
+        LibraryDelta delta = LibraryDelta.compute(old, now);
+
+        snapshot = now;
+        if (delta.isEmpty()) return;
+        for (Listener l : new ArrayList<>(listeners)) {
+            l.onLibraryChanged(now, delta);
+        }
+    }
+
+    private void startObserving() {
+        if (observing) return;
+        observing = true;
+        appContext.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, mediaObserver);
+    }
+
+    /** Marks the caller as needing the library; pair with {@link #release}. */
+    public void acquire() {
+        holders++;
+    }
+
+    /** Undoes {@link #acquire}; once nothing holds the library, a scan still running is cancelled. */
+    public void release() {
+        if (holders > 0) holders--;
+        if (holders == 0 && scanner.isRunning()) scanner.cancel();
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.musicapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Walks the MediaStore audio table on a background thread and streams rows back to the
+ * main thread in pages, so the first screen of songs can be shown before the whole
+ * library has been read.
+ *
+ * When given the library stored by {@link LibraryStore}, the scan becomes a reconcile:
+ * if the MediaStore generation is unchanged nothing is queried at all, and otherwise
+ * only rows whose DATE_MODIFIED differs from the stored copy have their strings read.
+ * Unchanged rows are compared and copied column-wise from the stored copy (no Song is
+ * made for them), so pages are delivered as small {@link LibrarySnapshot}s.
+ */
+public class LibraryScanner {
+
+    public interface Callback {
+        /** Called on the main thread for every decoded page, in library order. */
+        void onPage(LibrarySnapshot page, int loadedSoFar, int expectedTotal);
+
+        /**
+         * Called on the main thread once the cursor is exhausted. {@code changed} is false
+         * when the result is identical to the stored library passed to {@link #start}.
+         */
+        void onComplete(int total, String fingerprint, boolean changed);
+
+        /** Called on the main thread if the query failed (not when cancelled). */
+        void onError(Exception e);
+    }
+
+    // Small first page so the list renders quickly, bigger pages afterwards to keep
+    // main-thread hops and adapter notifications low.
+    private static final int FIRST_PAGE_SIZE = 50;
+    private static final int PAGE_SIZE = 500;
+
+    private final Context context;
+    private final ContentResolver resolver;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "library-scan");
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Bumped on every start/cancel; pages from an older scan are dropped on delivery.
+    private volatile int generation = 0;
+    private CancellationSignal cancellationSignal;
+    private boolean running = false;
+
+    public LibraryScanner(Context context) {
+        this.context = context.getApplicationContext();
+        this.resolver = this.context.getContentResolver();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts a fresh scan, cancelling any scan still in flight. {@code base} is the stored
+     * library to reconcile against, or null for a full scan. Main thread only.
+     */
+    public void start(LibraryStore.Cached base, Callback callback) {
+        cancel();
+
+        final int myGen = ++generation;
+        final CancellationSignal signal = new CancellationSignal();
+        cancellationSignal = signal;
+        running = true;
+
+        executor.execute(() -> scan(myGen, signal, base, callback));
+    }
+
+    /** Stops the current scan; no further callbacks are delivered for it. Main thread only. */
+    public void cancel() {
+        generation++;
+        running = false;
+        if (cancellationSignal != null) {
+            cancellationSignal.cancel();
+            cancellationSignal = null;
+        }
+    }
+
+    private void scan(int myGen, CancellationSignal signal, LibraryStore.Cached base, Callback callback) {
+        String fingerprint = mediaStoreFingerprint();
+
+        LibrarySnapshot baseSongs = (base == null) ? null : base.songs;
+        if (baseSongs != null && fingerprint != null && fingerprint.equals(base.fingerprint)) {
+            // Nothing in MediaStore changed since the stored library was written
+            deliverComplete(myGen, callback, baseSongs.size(), fingerprint, false);
+            return;
+        }
+
+        boolean changed = baseSongs == null;
+
+        String[] projection = {
+                MediaStore.Audio.Media._ID,
+                MediaStore.Audio.Media.DISPLAY_NAME,
+                MediaStore.Audio.Media.DATE_ADDED,
+                MediaStore.Audio.Media.DATE_MODIFIED
+        };
+
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
+        String sortOrder = MediaStore.Audio.Media.DATE_ADDED + " DESC";
+
+        int loaded = 0;
+
+        try (Cursor cursor = resolver.query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                projection,
+                selection,
+                null,
+                sortOrder,
+                signal
+        )) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                deliverComplete(myGen, callback, 0, fingerprint, changed || !baseSongs.isEmpty());
+                return;
+            }
+
+            int total = cursor.getCount();
+            int idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
+            int nameCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DISPLAY_NAME);
+            int dateCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED);
+            int modifiedCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_MODIFIED);
+
+            int pageSize = FIRST_PAGE_SIZE;
+            LibrarySnapshot.Builder page = new LibrarySnapshot.Builder(pageSize);
+
+            do {
+                if (myGen != generation) return;
+
+                long id = cursor.getLong(idCol);
+                long dateModified = cursor.getLong(modifiedCol);
+
+                int known = (baseSongs == null) ? -1 : baseSongs.indexOfId(id);
+                if (known >= 0 && baseSongs.dateModifiedAt(known) == dateModified) {
+                    // Unchanged row: copy the stored row's columns, skip reading its strings
+                    int position = loaded + page.size();
+                    if (!changed && (position >= baseSongs.size() || baseSongs.idAt(position) != id)) {
+                        changed = true; // reordered or inserted before it
+                    }
+                    page.addFrom(baseSongs, known);
+                } else {
+                    String name = cursor.getString(nameCol);
+                    long dateAddedMillis = cursor.getLong(dateCol) * 1000L;
+
+                    page.add(new Song(id, name, dateAddedMillis, dateModified));
+                    changed = true;
+                }
+
+                if (page.size() >= pageSize) {
+                    loaded += page.size();
+                    deliverPage(myGen, callback, page, loaded, total);
+                    pageSize = PAGE_SIZE;
+                    page = new LibrarySnapshot.Builder(pageSize);
+                }
+            } while (cursor.moveToNext());
+
+            if (page.size() > 0) {
+                loaded += page.size();
+                deliverPage(myGen, callback, page, loaded, total);
+            }
+            if (baseSongs != null && loaded != baseSongs.size()) changed = true; // rows removed
+            deliverComplete(myGen, callback, loaded, fingerprint, changed);
+
+        } catch (OperationCanceledException ignored) {
+            // cancel() was called; nothing to report
+        } catch (Exception e) {
+            mainHandler.post(() -> {
+                if (myGen != generation) return;
+                running = false;
+                callback.onError(e);
+            });
+        }
+    }
+
+    private void deliverPage(int myGen, Callback callback, LibrarySnapshot.Builder page, int loaded, int total) {
+        LibrarySnapshot rows = page.snapshot(0, true);
+        mainHandler.post(() -> {
+            if (myGen != generation) return;
+            callback.onPage(rows, loaded, total);
+        });
+    }
+
+    private void deliverComplete(int myGen, Callback callback, int total, String fingerprint, boolean changed) {
+        mainHandler.post(() -> {
+            if (myGen != generation) return;
+            running = false;
+            callback.onComplete(total, fingerprint, changed);
+        });
+    }
+
+    /**
+     * Version + generation of every external volume (API 30+). Equal fingerprints mean no
+     * row was inserted, updated or deleted in between. Null when the platform can't tell.
+     */
+    private String mediaStoreFingerprint() {
+        if (Build.VERSION.SDK_INT < 30) return null;
+        try {
+            Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+            List<String> sorted = new ArrayList<>(volumes);
+            Collections.sort(sorted);
+
+            StringBuilder sb = new StringBuilder();
+            for (String vol : sorted) {
+                sb.append(vol).append(':')
+                        .append(MediaStore.getVersion(context, vol)).append(':')
+                        .append(MediaStore.getGeneration(context, vol)).append(';');
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
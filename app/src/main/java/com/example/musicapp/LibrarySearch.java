@@ -0,0 +1,321 @@
+package com.example.musicapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Search-as-you-type over the library. Keeps a {@link SearchIndex} in step with
+ * {@link LibraryRepository} (extended page by page during a scan, remapped through each
+ * {@link LibraryDelta} afterwards) and answers queries on the same background thread, so
+ * the index needs no locking. A new index is always built aside and swapped in complete,
+ * so a query never sees a partial one. Results are ranked and delivered to the main
+ * thread in chunks.
+ */
+public class LibrarySearch implements LibraryRepository.Listener {
+
+    public interface ResultsCallback {
+        /**
+         * Called on the main thread, one or more times per query. {@code first} means the
+         * previous results should be dropped; {@code last} that no more chunks follow.
+         */
+        void onResults(String query, List<Song> chunk, boolean first, boolean last);
+    }
+
+    private static final long DEBOUNCE_MS = 150;
+    private static final int MAX_RESULTS = 500;
+    private static final int CHUNK_SIZE = 100;
+
+    private static LibrarySearch instance;
+
+    public static synchronized LibrarySearch get(Context context) {
+        if (instance == null) {
+            LibraryRepository repo = LibraryRepository.get(context);
+            instance = new LibrarySearch();
+            instance.indexAll(repo.getSnapshot());
+            repo.addListener(instance);
+        }
+        return instance;
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "library-search"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Search-thread state
+    private SearchIndex index = new SearchIndex();
+    private LibrarySnapshot indexed = LibrarySnapshot.EMPTY;
+
+    // Main-thread state
+    private volatile int queryGeneration = 0;
+    private Runnable pendingQuery;
+
+    private LibrarySearch() {}
+
+    // -----------------------
+    // Queries
+    // -----------------------
+
+    /** Runs {@code query} after a short quiet period; a newer call supersedes it. Main thread. */
+    public void search(String query, ResultsCallback callback) {
+        final int gen = ++queryGeneration;
+        if (pendingQuery != null) mainHandler.removeCallbacks(pendingQuery);
+
+        pendingQuery = () -> {
+            pendingQuery = null;
+            executor.execute(() -> runQuery(gen, query, callback));
+        };
+        mainHandler.postDelayed(pendingQuery, DEBOUNCE_MS);
+    }
+
+    /** Drops any pending or running query. Main thread. */
+    public void cancel() {
+        queryGeneration++;
+        if (pendingQuery != null) {
+            mainHandler.removeCallbacks(pendingQuery);
+            pendingQuery = null;
+        }
+    }
+
+    /** Blocking variant for callers already off the main thread. */
+    public List<Song> searchBlocking(String query, int limit) {
+        Future<List<Song>> f = executor.submit(() -> rank(query, limit, -1));
+        try {
+            return f.get();
+        } catch (Exception e) {
+            return new ArrayList<>();
+        }
+    }
+
+    private void runQuery(int gen, String query, ResultsCallback callback) {
+        if (gen != queryGeneration) return;
+
+        List<Song> results = rank(query, MAX_RESULTS, gen);
+        if (results == null) return; // superseded while ranking
+
+        int n = results.size();
+        int from = 0;
+        do {
+            int to = Math.min(n, from + CHUNK_SIZE);
+            List<Song> chunk = results.subList(from, to);
+            boolean first = (from == 0);
+            boolean last = (to == n);
+            mainHandler.post(() -> {
+                if (gen == queryGeneration) callback.onResults(query, chunk, first, last);
+            });
+            from = to;
+        } while (from < n);
+    }
+
+    /**
+     * Verifies and ranks candidates: 0 = name starts with the query, 1 = every word is a
+     * word prefix, 2 = substring match; ties keep library order (newest first). Every
+     * candidate is ranked, keeping the best {@code limit} in a bounded heap, so a better
+     * match late in the library isn't lost to weaker ones before it.
+     * Returns null if generation {@code gen} was superseded (pass -1 to never abort).
+     */
+    private List<Song> rank(String query, int limit, int gen) {
+        String folded = SearchIndex.fold(query).trim();
+        if (folded.isEmpty()) return new ArrayList<>();
+
+        String[] words = folded.split(" ");
+        int[] candidates = index.candidates(folded);
+        LibrarySnapshot snap = indexed;
+
+        Best best = new Best(Math.min(candidates.length, limit));
+        for (int k = 0; k < candidates.length; k++) {
+            if (gen != -1 && (k & 255) == 0 && gen != queryGeneration) return null;
+
+            int row = candidates[k];
+            String name = SearchIndex.fold(searchableText(snap.nameAt(row)));
+            int r = rankOf(name, folded, words);
+            if (r >= 0) best.offer(r, row);
+        }
+
+        int[] rows = best.rows();
+        ArrayList<Song> out = new ArrayList<>(rows.length);
+        for (int row : rows) out.add(snap.get(row));
+        return out;
+    }
+
+    /** The {@code capacity} best (lowest rank, then lowest row) of the rows offered. */
+    static final class Best {
+        // Max-heap of (rank << 32 | row) keys: the worst kept one is on top
+        private final long[] heap;
+        private int n = 0;
+
+        Best(int capacity) {
+            heap = new long[capacity];
+        }
+
+        void offer(int rank, int row) {
+            long key = ((long) rank << 32) | row;
+            if (n < heap.length) {
+                siftUp(n++, key);
+            } else if (n > 0 && key < heap[0]) {
+                siftDown(key);
+            }
+        }
+
+        /** The kept rows, best first. */
+        int[] rows() {
+            long[] sorted = Arrays.copyOf(heap, n);
+            Arrays.sort(sorted);
+            int[] rows = new int[n];
+            for (int i = 0; i < n; i++) rows[i] = (int) sorted[i];
+            return rows;
+        }
+
+        /** Adds {@code key} at {@code i}, the end of the heap. */
+        private void siftUp(int i, long key) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] >= key) break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = key;
+        }
+
+        /** Replaces the top of the heap with {@code key}. */
+        private void siftDown(long key) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) break;
+                if (child + 1 < n && heap[child + 1] > heap[child]) child++;
+                if (heap[child] <= key) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = key;
+        }
+    }
+
+    static int rankOf(String name, String query, String[] words) {
+        if (name.startsWith(query)) return 0;
+
+        boolean allPrefixes = true;
+        String spaced = " " + name;
+        for (String w : words) {
+            if (spaced.contains(" " + w)) continue;
+            if (w.length() <= 2 || !name.contains(w)) return -1;
+            allPrefixes = false;
+        }
+        return allPrefixes ? 1 : 2;
+    }
+
+    /** DISPLAY_NAME without its extension, so ".mp3" doesn't match every row. */
+    private static String searchableText(String displayName) {
+        if (displayName == null) return "";
+        int dot = displayName.lastIndexOf('.');
+        return (dot > 0) ? displayName.substring(0, dot) : displayName;
+    }
+
+    // -----------------------
+    // Keeping the index current (LibraryRepository.Listener, main thread)
+    // -----------------------
+
+    @Override
+    public void onLibraryPage(LibrarySnapshot snapshot, int from, int count, int expectedTotal) {
+        executor.execute(() -> extendTo(snapshot));
+    }
+
+    @Override
+    public void onLibraryLoaded(LibrarySnapshot snapshot, boolean replaced) {
+        if (replaced) indexAll(snapshot);
+        else executor.execute(() -> extendTo(snapshot));
+    }
+
+    @Override
+    public void onLibraryChanged(LibrarySnapshot snapshot, LibraryDelta delta) {
+        executor.execute(() -> applyDelta(snapshot, delta));
+    }
+
+    @Override
+    public void onLibraryError(Exception e) {}
+
+    private void indexAll(LibrarySnapshot snapshot) {
+        executor.execute(() -> rebuild(snapshot));
+    }
+
+    /** Indexes {@code snapshot} from scratch into a new index, then swaps it in. Search thread. */
+    private void rebuild(LibrarySnapshot snapshot) {
+        SearchIndex fresh = new SearchIndex();
+        for (int row = 0; row < snapshot.size(); row++) {
+            fresh.addRow(row, searchableText(snapshot.nameAt(row)));
+        }
+        index = fresh;
+        indexed = snapshot;
+    }
+
+    /**
+     * Renumbers the index through {@code delta} and folds only inserted and edited names.
+     * Falls back to {@link #rebuild} if the delta doesn't start from the indexed snapshot
+     * or reorders rows. Search thread.
+     */
+    private void applyDelta(LibrarySnapshot snapshot, LibraryDelta delta) {
+        if (delta.reordered || delta.fromVersion != indexed.version || index.rowCount() != indexed.size()) {
+            rebuild(snapshot);
+            return;
+        }
+
+        int[] newRow = rowMapping(delta, indexed.size());
+        int[] added = merge(delta.inserted, delta.updated);
+        String[] texts = new String[added.length];
+        for (int i = 0; i < added.length; i++) texts[i] = searchableText(snapshot.nameAt(added[i]));
+
+        index = index.remapped(newRow, snapshot.size(), added, texts);
+        indexed = snapshot;
+    }
+
+    /**
+     * For {@link SearchIndex#remapped}: each old row's new position, or -1 if it was removed
+     * or edited (edited rows are re-added with their new name). Not for reordered deltas.
+     */
+    static int[] rowMapping(LibraryDelta delta, int oldSize) {
+        // Surviving rows fill the new positions not taken by inserted rows, in order
+        int[] newRow = new int[oldSize];
+        int g = 0, a = 0, u = 0, p = 0;
+        for (int i = 0; i < newRow.length; i++) {
+            if (g < delta.removed.length && delta.removed[g] == i) {
+                newRow[i] = -1;
+                g++;
+                continue;
+            }
+            while (a < delta.inserted.length && delta.inserted[a] == p) {
+                p++;
+                a++;
+            }
+            boolean edited = u < delta.updated.length && delta.updated[u] == p;
+            if (edited) u++;
+            newRow[i] = edited ? -1 : p;
+            p++;
+        }
+        return newRow;
+    }
+
+    /** Ascending union of two ascending arrays with no common values. */
+    static int[] merge(int[] a, int[] b) {
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) out[n++] = (a[i] < b[j]) ? a[i++] : b[j++];
+        while (i < a.length) out[n++] = a[i++];
+        while (j < b.length) out[n++] = b[j++];
+        return out;
+    }
+
+    /** Indexes the rows {@code snapshot} has beyond the ones already indexed (streamed pages). */
+    private void extendTo(LibrarySnapshot snapshot) {
+        for (int row = index.rowCount(); row < snapshot.size(); row++) {
+            index.addRow(row, searchableText(snapshot.nameAt(row)));
+        }
+        indexed = snapshot;
+    }
+}
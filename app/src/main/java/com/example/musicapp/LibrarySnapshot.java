@@ -0,0 +1,245 @@
+package com.example.musicapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, versioned view of the song library (newest first).
+ *
+ * Rows are stored column-wise: primitive arrays for ids and dates, and all names as
+ * UTF-8 in one shared byte pool addressed by {@code nameStart}. That is roughly 30
+ * bytes per track plus the name, instead of several objects per track.
+ * {@link #get(int)} materializes a {@link Song} view on demand; don't hold on to
+ * large numbers of them.
+ *
+ * Snapshots produced while a scan is streaming share the builder's arrays: a later
+ * snapshot may append past our {@code size}, but never writes inside it, so every
+ * snapshot stays valid and handing one out is O(1).
+ *
+ * Id lookups go through a {@link LongIntMap} from song id to position, which the builder
+ * fills as rows are appended, so it is built once per scan however many pages it has. A
+ * complete snapshot takes it over. A streaming (incomplete) snapshot shares it too, but only
+ * on the thread appending to it (the main thread during a scan; rows past {@code size} are
+ * ignored); on any other thread it builds its own on first lookup, since the builder keeps
+ * writing to the shared one.
+ */
+public final class LibrarySnapshot extends AbstractList<Song> implements RandomAccess {
+
+    public static final LibrarySnapshot EMPTY =
+            new LibrarySnapshot(0, new long[0], new long[0], new long[0], new int[1], new byte[0], 0, false, null, null);
+
+    public final long version;
+    /** True once the scan that produced this snapshot has finished. */
+    public final boolean complete;
+
+    private final long[] ids;
+    private final long[] datesAdded;
+    private final long[] datesModified;
+    private final int[] nameStart;   // name i is namePool[nameStart[i] .. nameStart[i + 1])
+    private final byte[] namePool;
+    private final int size;
+    private volatile LongIntMap idIndex;
+    // While streaming: the builder's index, and the only thread that may read it
+    private final LongIntMap appendIndex;
+    private final Thread appendThread;
+
+    private LibrarySnapshot(long version, long[] ids, long[] datesAdded, long[] datesModified,
+                            int[] nameStart, byte[] namePool, int size, boolean complete, LongIntMap idIndex,
+                            Thread appendThread) {
+        this.version = version;
+        this.ids = ids;
+        this.datesAdded = datesAdded;
+        this.datesModified = datesModified;
+        this.nameStart = nameStart;
+        this.namePool = namePool;
+        this.size = size;
+        this.complete = complete;
+        this.idIndex = complete ? idIndex : null;
+        this.appendIndex = complete ? null : idIndex;
+        this.appendThread = appendThread;
+    }
+
+    @Override
+    public Song get(int index) {
+        checkIndex(index);
+        return new Song(ids[index], nameAt(index), datesAdded[index], datesModified[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public long idAt(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    public long dateAddedAt(int index) {
+        checkIndex(index);
+        return datesAdded[index];
+    }
+
+    public long dateModifiedAt(int index) {
+        checkIndex(index);
+        return datesModified[index];
+    }
+
+    public String nameAt(int index) {
+        checkIndex(index);
+        int start = nameStart[index];
+        return new String(namePool, start, nameStart[index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    int nameOffset(int index) {
+        return nameStart[index];
+    }
+
+    int nameByteLength(int index) {
+        return nameStart[index + 1] - nameStart[index];
+    }
+
+    /** The shared UTF-8 name pool; read-only, index with {@link #nameOffset}. */
+    byte[] namePool() {
+        return namePool;
+    }
+
+    public Song findById(long id) {
+        int i = indexOfId(id);
+        return (i < 0) ? null : get(i);
+    }
+
+    /** Position of the song with this MediaStore id, or -1. O(1). */
+    public int indexOfId(long id) {
+        int i = index().get(id);
+        return (i == LongIntMap.MISSING || i >= size) ? -1 : i;
+    }
+
+    private LongIntMap index() {
+        LongIntMap idx = idIndex;
+        if (idx != null) return idx;
+        if (appendIndex != null && Thread.currentThread() == appendThread) return appendIndex;
+        synchronized (this) {
+            if (idIndex == null) {
+                LongIntMap built = new LongIntMap(size);
+                for (int i = 0; i < size; i++) built.put(ids[i], i);
+                idIndex = built;
+            }
+            return idIndex;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index=" + index + " size=" + size);
+    }
+
+    /** Append-only builder; {@link #snapshot} can be called repeatedly while appending. */
+    static final class Builder {
+        private long[] ids;
+        private long[] datesAdded;
+        private long[] datesModified;
+        private int[] nameStart;
+        private byte[] namePool;
+        private int size = 0;
+        private final LongIntMap idIndex;
+        private Thread appendThread; // the thread rows are appended on; see LibrarySnapshot
+
+        Builder() {
+            this(64);
+        }
+
+        Builder(int capacity) {
+            int cap = Math.max(capacity, 16);
+            ids = new long[cap];
+            datesAdded = new long[cap];
+            datesModified = new long[cap];
+            nameStart = new int[cap + 1];
+            namePool = new byte[cap * 24];
+            idIndex = new LongIntMap(capacity);
+        }
+
+        Builder(LibrarySnapshot initial) {
+            this(initial.size);
+            for (int i = 0; i < initial.size; i++) addFrom(initial, i);
+        }
+
+        void add(Song s) {
+            byte[] name = (s.name == null ? "" : s.name).getBytes(StandardCharsets.UTF_8);
+            int row = beginRow(s.id, s.dateAddedMillis, s.dateModifiedSeconds, name.length);
+            System.arraycopy(name, 0, namePool, nameStart[row], name.length);
+        }
+
+        void addAll(List<Song> page) {
+            for (Song s : page) add(s);
+        }
+
+        /** Appends every row of {@code rows} as {@link #addFrom} does. */
+        void addRows(LibrarySnapshot rows) {
+            for (int i = 0; i < rows.size; i++) addFrom(rows, i);
+        }
+
+        /** Copies row {@code index} of another snapshot without decoding its name. */
+        void addFrom(LibrarySnapshot src, int index) {
+            int len = src.nameByteLength(index);
+            int row = beginRow(src.ids[index], src.datesAdded[index], src.datesModified[index], len);
+            System.arraycopy(src.namePool, src.nameStart[index], namePool, nameStart[row], len);
+        }
+
+        /** Appends a row whose UTF-8 name is read straight from {@code buf} (e.g. a mapped file). */
+        void addRaw(long id, long dateAddedMillis, long dateModifiedSeconds, ByteBuffer buf, int nameLength) {
+            int row = beginRow(id, dateAddedMillis, dateModifiedSeconds, nameLength);
+            buf.get(namePool, nameStart[row], nameLength);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * A complete snapshot takes over the id index; don't append after that. An incomplete
+         * one shares it with the thread appending, which must be the one calling this.
+         */
+        LibrarySnapshot snapshot(long version, boolean complete) {
+            Thread owner = (appendThread == null) ? Thread.currentThread() : appendThread;
+            return new LibrarySnapshot(version, ids, datesAdded, datesModified, nameStart, namePool,
+                    size, complete, (complete || owner == Thread.currentThread()) ? idIndex : null, owner);
+        }
+
+        private int beginRow(long id, long dateAdded, long dateModified, int nameLength) {
+            if (appendThread == null) appendThread = Thread.currentThread();
+            ensureRowCapacity(size + 1);
+            int start = nameStart[size];
+            ensurePoolCapacity(start + nameLength);
+
+            int row = size++;
+            ids[row] = id;
+            datesAdded[row] = dateAdded;
+            datesModified[row] = dateModified;
+            nameStart[row + 1] = start + nameLength;
+            idIndex.put(id, row);
+            return row;
+        }
+
+        // Growing always copies into fresh arrays, so earlier snapshots never see a write.
+        private void ensureRowCapacity(int needed) {
+            if (needed <= ids.length) return;
+            int cap = ids.length;
+            while (cap < needed) cap *= 2;
+            ids = Arrays.copyOf(ids, cap);
+            datesAdded = Arrays.copyOf(datesAdded, cap);
+            datesModified = Arrays.copyOf(datesModified, cap);
+            nameStart = Arrays.copyOf(nameStart, cap + 1);
+        }
+
+        private void ensurePoolCapacity(int needed) {
+            if (needed <= namePool.length) return;
+            int cap = Math.max(namePool.length, 64);
+            while (cap < needed) cap *= 2;
+            namePool = Arrays.copyOf(namePool, cap);
+        }
+    }
+}
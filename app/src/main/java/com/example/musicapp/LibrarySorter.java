@@ -0,0 +1,296 @@
+package com.example.musicapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Orders the library by name, date added, artist, album or duration, either direction,
+ * without going back to MediaStore.
+ *
+ * Text is compared through locale-aware collation keys computed once per distinct
+ * value (names per song id + DATE_MODIFIED, artist and album strings across the whole
+ * library) and kept between sorts. A sort produces an int[] permutation of snapshot rows
+ * that is cached for the snapshot, so switching direction, or back to a key already
+ * sorted, is an O(1) {@link SortedLibrary} view. New permutations are computed on a
+ * background thread; date added needs none, because snapshots are newest first.
+ *
+ * Artist, album and duration come from {@link MetadataCache}; tracks without them yet
+ * sort last. Call {@link #invalidateMetadataKeys} when more metadata arrives so the next
+ * sort by those keys picks it up.
+ */
+public class LibrarySorter {
+
+    public interface Callback {
+        /** Main thread; may be called before {@link #sort} returns if the order was cached. */
+        void onSorted(SortedLibrary sorted);
+    }
+
+    public static final int KEY_DATE_ADDED = 0;
+    public static final int KEY_NAME = 1;
+    public static final int KEY_ARTIST = 2;
+    public static final int KEY_ALBUM = 3;
+    public static final int KEY_DURATION = 4;
+    private static final int KEY_COUNT = 5;
+
+    private static final int INSERTION_RUN = 32;
+
+    private static LibrarySorter instance;
+
+    public static synchronized LibrarySorter get(Context context) {
+        if (instance == null) instance = new LibrarySorter(MetadataExtractor.get(context).getCache());
+        return instance;
+    }
+
+    private final MetadataCache metadata;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "library-sort"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Main-thread state: permutations for the most recently sorted snapshot
+    private LibrarySnapshot cachedSnapshot;
+    private final int[][] cachedOrders = new int[KEY_COUNT][];
+    private final int[] cachedKnown = new int[KEY_COUNT];
+    private volatile int generation = 0;
+
+    // Sort-thread state: collation keys, reused across snapshots
+    private Collator collator;
+    private Locale collatorLocale;
+    private final LongIntMap nameSlots = new LongIntMap(1024);
+    private byte[][] nameKeys = new byte[1024][];
+    private long[] nameKeyDates = new long[1024];
+    private int nameSlotCount = 0;
+    private final HashMap<String, byte[]> textKeys = new HashMap<>();
+
+    private LibrarySorter(MetadataCache metadata) {
+        this.metadata = metadata;
+    }
+
+    /**
+     * Delivers {@code snapshot} ordered by {@code key}. Immediate if that permutation is
+     * cached; otherwise sorted in the background, and a newer call supersedes this one.
+     * Main thread.
+     */
+    public void sort(LibrarySnapshot snapshot, int key, boolean descending, Callback callback) {
+        if (cachedSnapshot != snapshot) {
+            cachedSnapshot = snapshot;
+            Arrays.fill(cachedOrders, null);
+        }
+        if (key == KEY_DATE_ADDED) {
+            generation++;
+            callback.onSorted(new SortedLibrary(snapshot, key, descending, null, snapshot.size()));
+            return;
+        }
+        if (cachedOrders[key] != null) {
+            generation++;
+            callback.onSorted(new SortedLibrary(snapshot, key, descending, cachedOrders[key], cachedKnown[key]));
+            return;
+        }
+
+        final int gen = ++generation;
+        executor.execute(() -> {
+            if (gen != generation) return;
+            int[] known = new int[1];
+            int[] order = computeOrder(snapshot, key, known);
+            mainHandler.post(() -> {
+                if (cachedSnapshot == snapshot) {
+                    cachedOrders[key] = order;
+                    cachedKnown[key] = known[0];
+                }
+                if (gen == generation) callback.onSorted(new SortedLibrary(snapshot, key, descending, order, known[0]));
+            });
+        });
+    }
+
+    /** Drops cached artist/album/duration orders (more metadata is available). Main thread. */
+    public void invalidateMetadataKeys() {
+        cachedOrders[KEY_ARTIST] = null;
+        cachedOrders[KEY_ALBUM] = null;
+        cachedOrders[KEY_DURATION] = null;
+    }
+
+    // -----------------------
+    // Sorting (sort thread)
+    // -----------------------
+
+    interface RowOrder {
+        int compare(int a, int b);
+    }
+
+    private int[] computeOrder(LibrarySnapshot snap, int key, int[] knownOut) {
+        prepareCollator();
+        int n = snap.size();
+        byte[][] names = nameKeysFor(snap);
+
+        byte[][] primary = null;
+        byte[][] albums = null;
+        int[] tracks = null;
+        long[] durations = null;
+        boolean[] known = new boolean[n];
+
+        if (key == KEY_NAME) {
+            Arrays.fill(known, true);
+        } else {
+            primary = new byte[n][];
+            albums = new byte[n][];
+            tracks = new int[n];
+            durations = new long[n];
+            for (int row = 0; row < n; row++) {
+                TrackMetadata m = metadata.get(snap.idAt(row), snap.dateModifiedAt(row));
+                if (m == null) continue;
+                albums[row] = textKey(m.album);
+                tracks[row] = m.trackNumber;
+                durations[row] = m.durationMs;
+                if (key == KEY_ARTIST) primary[row] = textKey(m.artist);
+                known[row] = (key == KEY_ARTIST) ? primary[row] != null
+                        : (key == KEY_ALBUM) ? albums[row] != null
+                        : m.durationMs > 0;
+            }
+        }
+
+        // Known rows first, then the rest in snapshot order (newest first)
+        int[] order = new int[n];
+        int k = 0;
+        for (int row = 0; row < n; row++) if (known[row]) order[k++] = row;
+        int knownCount = k;
+        for (int row = 0; row < n; row++) if (!known[row]) order[k++] = row;
+
+        RowOrder cmp;
+        if (key == KEY_NAME) {
+            cmp = (a, b) -> compareKeys(names[a], names[b]);
+        } else if (key == KEY_DURATION) {
+            long[] d = durations;
+            cmp = (a, b) -> {
+                int c = Long.compare(d[a], d[b]);
+                return (c != 0) ? c : compareKeys(names[a], names[b]);
+            };
+        } else {
+            // Artist: then album, track, name. Album: then track, name.
+            byte[][] p = (key == KEY_ARTIST) ? primary : albums;
+            byte[][] al = albums;
+            int[] tr = tracks;
+            boolean byArtist = (key == KEY_ARTIST);
+            cmp = (a, b) -> {
+                int c = compareKeys(p[a], p[b]);
+                if (c == 0 && byArtist) c = compareKeys(al[a], al[b]);
+                if (c == 0) c = Integer.compare(tr[a], tr[b]);
+                return (c != 0) ? c : compareKeys(names[a], names[b]);
+            };
+        }
+        sortRows(order, knownCount, cmp);
+
+        knownOut[0] = knownCount;
+        return order;
+    }
+
+    /** Collation keys for every row's name (without extension), reusing ones already computed. */
+    private byte[][] nameKeysFor(LibrarySnapshot snap) {
+        int n = snap.size();
+        byte[][] out = new byte[n][];
+        for (int row = 0; row < n; row++) {
+            long id = snap.idAt(row);
+            long dateModified = snap.dateModifiedAt(row);
+            int slot = nameSlots.get(id);
+            if (slot != LongIntMap.MISSING && nameKeyDates[slot] == dateModified) {
+                out[row] = nameKeys[slot];
+                continue;
+            }
+
+            byte[] key = collator.getCollationKey(stripExtension(snap.nameAt(row))).toByteArray();
+            if (slot == LongIntMap.MISSING) {
+                slot = nameSlotCount++;
+                if (slot == nameKeys.length) {
+                    nameKeys = Arrays.copyOf(nameKeys, slot * 2);
+                    nameKeyDates = Arrays.copyOf(nameKeyDates, slot * 2);
+                }
+                nameSlots.put(id, slot);
+            }
+            nameKeys[slot] = key;
+            nameKeyDates[slot] = dateModified;
+            out[row] = key;
+        }
+        return out;
+    }
+
+    private byte[] textKey(String s) {
+        if (s == null) return null;
+        byte[] key = textKeys.get(s);
+        if (key == null) {
+            key = collator.getCollationKey(s).toByteArray();
+            textKeys.put(s, key);
+        }
+        return key;
+    }
+
+    private void prepareCollator() {
+        Locale locale = Locale.getDefault();
+        if (collator != null && locale.equals(collatorLocale)) return;
+
+        // Keys from another locale don't compare meaningfully; start over
+        collator = Collator.getInstance(locale);
+        collator.setStrength(Collator.SECONDARY); // ignore case, respect accents
+        collatorLocale = locale;
+        nameSlots.clear();
+        nameSlotCount = 0;
+        textKeys.clear();
+    }
+
+    private static String stripExtension(String displayName) {
+        if (displayName == null) return "";
+        int dot = displayName.lastIndexOf('.');
+        return (dot > 0) ? displayName.substring(0, dot) : displayName;
+    }
+
+    /** Unsigned lexicographic comparison of collation key bytes; a missing key sorts last. */
+    static int compareKeys(byte[] a, byte[] b) {
+        if (a == null || b == null) return (a == null ? 1 : 0) - (b == null ? 1 : 0);
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Stable sort of {@code rows[0, n)}: insertion-sorted runs merged bottom-up, so equal
+     * keys keep their snapshot order and no row numbers are boxed.
+     */
+    static void sortRows(int[] rows, int n, RowOrder cmp) {
+        for (int lo = 0; lo < n; lo += INSERTION_RUN) {
+            int hi = Math.min(lo + INSERTION_RUN, n);
+            for (int i = lo + 1; i < hi; i++) {
+                int v = rows[i];
+                int j = i - 1;
+                while (j >= lo && cmp.compare(rows[j], v) > 0) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = v;
+            }
+        }
+
+        int[] src = rows;
+        int[] dst = new int[n];
+        for (int width = INSERTION_RUN; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) dst[k++] = (cmp.compare(src[j], src[i]) < 0) ? src[j++] : src[i++];
+                while (i < mid) dst[k++] = src[i++];
+                while (j < hi) dst[k++] = src[j++];
+            }
+            int[] t = src;
+            src = dst;
+            dst = t;
+        }
+        if (src != rows) System.arraycopy(src, 0, rows, 0, n);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.musicapp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary copy of the last scanned library, kept in app storage so a cold start
+ * can show the songs list before MediaStore has been queried.
+ *
+ * Layout (big endian):
+ * <pre>
+ *   int    magic 'MLIB'
+ *   int    format version
+ *   short+ MediaStore fingerprint (modified UTF-8, see LibraryScanner#mediaStoreFingerprint)
+ *   int    row count
+ *   rows:  long id, long dateAddedMillis, long dateModifiedSeconds, short nameLength, byte[] name (UTF-8)
+ * </pre>
+ */
+public final class LibraryStore {
+
+    private static final int MAGIC = 0x4D4C4942; // "MLIB"
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "library.bin";
+    private static final int MIN_ROW_BYTES = 8 + 8 + 8 + 2; // a row with an empty name
+
+    /** What was on disk: the songs plus the MediaStore state they were read at. */
+    static final class Cached {
+        final LibrarySnapshot songs;
+        final String fingerprint;
+
+        Cached(LibrarySnapshot songs, String fingerprint) {
+            this.songs = songs;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private final File file;
+
+    public LibraryStore(File dir) {
+        this.file = new File(dir, FILE_NAME);
+    }
+
+    /** Reads the stored library via a memory-mapped buffer, or returns null if there is none. */
+    public Cached read() {
+        if (!file.isFile() || file.length() < 12) return null;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION) return null;
+
+            String fingerprint = readShortString(buf);
+            int count = buf.getInt();
+            // A damaged or foreign file could claim any count; don't size the builder by it
+            if (count < 0 || count > buf.remaining() / MIN_ROW_BYTES) return null;
+
+            LibrarySnapshot.Builder builder = new LibrarySnapshot.Builder(count);
+            for (int i = 0; i < count; i++) {
+                long id = buf.getLong();
+                long dateAdded = buf.getLong();
+                long dateModified = buf.getLong();
+                int len = buf.getShort() & 0xFFFF;
+                // Name bytes go straight from the mapping into the name pool, no String
+                builder.addRaw(id, dateAdded, dateModified, buf, len);
+            }
+            return new Cached(builder.snapshot(0, true), fingerprint);
+
+        } catch (IOException | BufferUnderflowException e) {
+            // Truncated or unreadable: behave as if there is no cache
+            return null;
+        }
+    }
+
+    /** Atomically replaces the stored library (write to temp file, then rename). */
+    public void write(LibrarySnapshot snapshot, String fingerprint) {
+        File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(fingerprint == null ? "" : fingerprint);
+            out.writeInt(snapshot.size());
+
+            byte[] pool = snapshot.namePool();
+            for (int i = 0; i < snapshot.size(); i++) {
+                int len = utf8Prefix(pool, snapshot.nameOffset(i), snapshot.nameByteLength(i), 0xFFFF);
+
+                out.writeLong(snapshot.idAt(i));
+                out.writeLong(snapshot.dateAddedAt(i));
+                out.writeLong(snapshot.dateModifiedAt(i));
+                out.writeShort(len);
+                out.write(pool, snapshot.nameOffset(i), len);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+
+        if (!tmp.renameTo(file)) tmp.delete();
+    }
+
+    /**
+     * The length of the longest prefix of the UTF-8 {@code bytes[offset, offset + length)}
+     * that fits in {@code max} bytes without splitting a code point.
+     */
+    static int utf8Prefix(byte[] bytes, int offset, int length, int max) {
+        if (length <= max) return length;
+        int len = max;
+        // Back off from a continuation byte (10xxxxxx) to the start of its code point
+        while (len > 0 && (bytes[offset + len] & 0xC0) == 0x80) len--;
+        return len;
+    }
+
+    private static String readShortString(MappedByteBuffer buf) {
+        int len = buf.getShort() & 0xFFFF;
+        byte[] b = new byte[len];
+        buf.get(b);
+        // Fingerprints are plain ASCII, so modified UTF-8 and UTF-8 agree here
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.musicapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The rows of one adapter, as an immutable list that is replaced rather than edited
+ * (AsyncListDiffer-style). {@link #submit} diffs the new list against the one shown on
+ * a shared "list-diff" thread, then swaps it in and sends only the changed rows'
+ * events on the main thread; a newer submission supersedes one still being diffed.
+ * Callers that already know what changed (a library delta, queue edits) pass it as
+ * {@link Changes} and skip the diff.
+ *
+ * Rows match by id. A diff costs O(N + D^2) for D edits, so when an O(N) estimate says
+ * the lists are mostly unrelated (a re-sort, another query) the new list is swapped in
+ * with one dataset change instead; that is also cheaper to bind than thousands of events.
+ *
+ * Main thread, except that lists are read on the diff thread: they must not change
+ * after being submitted.
+ */
+final class ListDiffer<T> {
+
+    /** How rows of two lists are matched. May be called on the diff thread. */
+    interface ItemCallback<T> {
+        /** Not called for a {@link LibrarySnapshot}, whose rows match by song id. */
+        long idOf(T item);
+
+        /** True if {@code a} and {@code b} (same id) look the same on screen. */
+        boolean sameContents(T a, T b);
+    }
+
+    /** What changed between the list shown and the one submitted, as the caller already knows it. */
+    interface Changes {
+        void dispatchTo(ListUpdateCallback callback);
+    }
+
+    // Above this many estimated edits a diff isn't worth it; see estimateEdits
+    private static final int MAX_DIFF_EDITS = 1000;
+
+    private static final ExecutorService DIFF_EXECUTOR =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "list-diff"));
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private final RecyclerView.Adapter<?> adapter;
+    private final ListUpdateCallback updates;
+    private final ItemCallback<T> rows;
+
+    private List<T> list = Collections.emptyList();
+    private int generation = 0; // bumped by every submission
+    private int shown = 0;      // the generation of list
+
+    ListDiffer(RecyclerView.Adapter<?> adapter, ItemCallback<T> rows) {
+        this.adapter = adapter;
+        this.updates = new AdapterListUpdateCallback(adapter);
+        this.rows = rows;
+    }
+
+    /** The list on screen (a submission still being diffed isn't, yet). */
+    List<T> getList() {
+        return list;
+    }
+
+    void submit(List<T> newList) {
+        submit(newList, null);
+    }
+
+    /**
+     * Shows {@code newList}. {@code changes}, if given, take the last submitted list to
+     * this one; they are replayed at once unless a diff is still in flight (they would not
+     * apply to the list on screen), in which case this is diffed too.
+     */
+    void submit(List<T> newList, @Nullable Changes changes) {
+        int gen = ++generation;
+        List<T> oldList = list;
+
+        if (changes != null && shown == gen - 1) {
+            show(newList, gen);
+            changes.dispatchTo(updates);
+            return;
+        }
+        if (newList == oldList) {
+            shown = gen;
+            return;
+        }
+        if (oldList.isEmpty() || newList.isEmpty()) {
+            show(newList, gen);
+            if (!oldList.isEmpty()) updates.onRemoved(0, oldList.size());
+            if (!newList.isEmpty()) updates.onInserted(0, newList.size());
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(() -> {
+            DiffUtil.DiffResult result = diff(oldList, newList);
+            MAIN_HANDLER.post(() -> {
+                if (gen != generation) return; // superseded meanwhile
+                show(newList, gen);
+                if (result == null) adapter.notifyDataSetChanged();
+                else result.dispatchUpdatesTo(updates);
+            });
+        });
+    }
+
+    /**
+     * Shows {@code newList} at once with one dataset change, e.g. for a different
+     * playlist rather than a new version of this one.
+     */
+    void replace(List<T> newList) {
+        show(newList, ++generation);
+        adapter.notifyDataSetChanged();
+    }
+
+    private void show(List<T> newList, int gen) {
+        list = newList;
+        shown = gen;
+    }
+
+    // -----------------------
+    // Diffing (diff thread)
+    // -----------------------
+
+    /** The row events from {@code oldList} to {@code newList}, or null if they are too different to diff. */
+    private DiffUtil.DiffResult diff(List<T> oldList, List<T> newList) {
+        long[] oldIds = ids(oldList);
+        long[] newIds = ids(newList);
+        if (estimateEdits(oldIds, newIds) > MAX_DIFF_EDITS) return null;
+
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldIds.length;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newIds.length;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPos, int newPos) {
+                return oldIds[oldPos] == newIds[newPos];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPos, int newPos) {
+                return rows.sameContents(oldList.get(oldPos), newList.get(newPos));
+            }
+        }, false);
+    }
+
+    private long[] ids(List<T> items) {
+        long[] ids = new long[items.size()];
+        if (items instanceof LibrarySnapshot) {
+            // Read the id column rather than building a Song per row
+            LibrarySnapshot snapshot = (LibrarySnapshot) items;
+            for (int i = 0; i < ids.length; i++) ids[i] = snapshot.idAt(i);
+        } else {
+            for (int i = 0; i < ids.length; i++) ids[i] = rows.idOf(items.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Rows in only one of the lists, plus each point where the new list stops following
+     * the old one's order: roughly the number of edits, in O(N) and stopping early once
+     * it passes {@link #MAX_DIFF_EDITS}.
+     */
+    private static int estimateEdits(long[] oldIds, long[] newIds) {
+        LongIntMap oldPositions = new LongIntMap(oldIds.length);
+        for (int i = 0; i < oldIds.length; i++) oldPositions.put(oldIds[i], i);
+
+        int edits = 0;
+        int matched = 0;
+        int last = -1;
+        for (long id : newIds) {
+            int i = oldPositions.get(id);
+            if (i == LongIntMap.MISSING) {
+                edits++;
+            } else {
+                matched++;
+                if (i != last + 1) edits++;
+                last = i;
+            }
+            if (edits > MAX_DIFF_EDITS) return edits;
+        }
+        return edits + Math.max(0, oldIds.length - matched);
+    }
+}
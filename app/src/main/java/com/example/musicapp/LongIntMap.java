@@ -0,0 +1,100 @@
+package com.example.musicapp;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive long keys to int values (linear probing,
+ * power-of-two table, no boxing). Used to look songs up by MediaStore id.
+ *
+ * Not thread-safe while being written; once filled it can be read from any thread.
+ */
+public final class LongIntMap {
+
+    public static final int MISSING = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+    private int resizeAt;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(int expectedSize) {
+        int cap = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(cap);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the value for {@code key}, or {@link #MISSING}. */
+    public int get(long key) {
+        int i = slot(key);
+        while (used[i]) {
+            if (keys[i] == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != MISSING;
+    }
+
+    /** Stores {@code value} (must not be {@link #MISSING}) for {@code key}. */
+    public void put(long key, int value) {
+        int i = slot(key);
+        while (used[i]) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if (++size >= resizeAt) rehash(keys.length << 1);
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        // 64-bit mix (MurmurHash3 finalizer); MediaStore ids are sequential and would cluster
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void allocate(int cap) {
+        keys = new long[cap];
+        values = new int[cap];
+        used = new boolean[cap];
+        mask = cap - 1;
+        resizeAt = (int) (cap * LOAD_FACTOR);
+    }
+
+    private void rehash(int newCap) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(newCap);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) put(oldKeys[i], oldValues[i]);
+        }
+    }
+}
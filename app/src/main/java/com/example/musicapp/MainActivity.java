@@ -1,19 +1,15 @@
 package com.example.musicapp;
 
 import android.Manifest;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.provider.MediaStore;
-import android.net.Uri;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.DragEvent;
 import android.view.View;
 import android.widget.Button;
@@ -24,6 +20,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
@@ -31,12 +28,10 @@ import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class MainActivity extends AppCompatActivity {
@@ -44,13 +39,13 @@ public class MainActivity extends AppCompatActivity {
     private static final int REQ_AUDIO_PERMISSION = 1001;
     private static final int REQ_NOTIF_PERMISSION = 1002;
 
-    // ---- Playlist persistence (NEW) ----
-    private static final String PREFS_NAME = "musicapp_prefs";
-    private static final String KEY_PLAYLISTS_STATE = "playlists_state_v1";
-
     // UI
     private TextView txtStatus;
+    private String scanProgress; // shown instead of the loaded song while a scan streams in
+    private Song loadedSong;
     private TextView txtLibraryTitle;
+    private TextView txtQueueTitle;
+    private EditText etSearch;
     private Button btnPrev, btnPlayPause, btnNext;
     private Button btnPlaylistBack;
     private RadioGroup rgLibraryMode;
@@ -61,25 +56,52 @@ public class MainActivity extends AppCompatActivity {
     private QueueAdapter queueAdapter;
     private SongsAdapter songsAdapter;          // All songs
     private SongsAdapter playlistSongsAdapter;  // Songs inside a playlist
+    private SongsAdapter searchResultsAdapter;  // Search results (All songs, query typed)
     private PlaylistsAdapter playlistsAdapter;
 
     // Data
-    private final ArrayList<Song> queueSongs = new ArrayList<>();
-    private final ArrayList<Song> librarySongs = new ArrayList<>();
+    private final SongQueue queueSongs = new SongQueue();
+    private long queueVersion = VersionedQueue.NO_VERSION;  // service queue version queueSongs mirrors
+    private LibrarySnapshot librarySongs = LibrarySnapshot.EMPTY;  // shared with PlaybackService
     private final ArrayList<Playlist> playlists = new ArrayList<>();
 
     // IMPORTANT CHANGE: store song IDs per playlist so we can persist easily
     private final Map<Long, ArrayList<Long>> playlistToSongIds = new HashMap<>();
 
     // What we show inside playlist detail (resolved Song objects from librarySongs)
-    private final ArrayList<Song> playlistViewSongs = new ArrayList<>();
+    // Replaced, never edited, so the play queue can reference it instead of copying it
+    private ArrayList<Song> playlistViewSongs = new ArrayList<>();
+
+    // Ranked search results, streamed in by LibrarySearch. Replaced, never edited
+    private List<Song> searchResults = Collections.emptyList();
+    private LibrarySearch librarySearch;
+
+    // Artist/album/duration, extracted in the background
+    private MetadataExtractor metadataExtractor;
+    private static final int METADATA_LOOKAHEAD_ROWS = 10;
+    private static final int METADATA_QUEUE_ROWS = 20;
+
+    // Songs list order; date added descending is the snapshot's own order
+    private LibrarySorter librarySorter;
+    private int sortKey = LibrarySorter.KEY_DATE_ADDED;
+    private boolean sortDescending = true;
+
+    // Album-art thumbnails, prefetched ahead of the scroll direction
+    private ArtworkCache artworkCache;
+    private static final int ARTWORK_PREFETCH_ROWS = 12;
+    private int artworkPrefetchEdge = RecyclerView.NO_POSITION;
 
     private Playlist currentPlaylist = null;
     private int currentIndex = -1;
 
+    // Library (one process-wide scan, shared with PlaybackService)
+    private LibraryRepository libraryRepository;
+
     // Service
     private PlaybackService playbackService;
     private boolean serviceBound = false;
+    // Bound before the service replayed its queue journal; the queue is seeded once it has
+    private boolean awaitingRestore = false;
 
     private enum LibraryMode { SONGS, PLAYLISTS }
     private LibraryMode libraryMode = LibraryMode.SONGS;
@@ -87,14 +109,14 @@ public class MainActivity extends AppCompatActivity {
     private enum Screen { MAIN, PLAYLIST_DETAIL }
     private Screen screen = Screen.MAIN;
 
-    // NEW: Receive service state changes (pause due to focus, earphones, etc.)
-    private final BroadcastReceiver playbackStateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (PlaybackService.ACTION_STATE_CHANGED.equals(intent.getAction())) {
-                if (serviceBound) pullQueueFromServiceAndRefreshUI();
-                else refreshPlayPauseText();
-            }
+    // Service state changes (pause due to focus, earphones, queue edits, etc.), on the main thread
+    private final PlaybackService.StateListener playbackStateListener = state -> {
+        if (!serviceBound) return;
+        if (awaitingRestore && state.queueRestored) {
+            awaitingRestore = false;
+            pullOrSeedServiceQueue();
+        } else {
+            pullQueueFromServiceAndRefreshUI();
         }
     };
 
@@ -104,42 +126,99 @@ public class MainActivity extends AppCompatActivity {
             PlaybackService.LocalBinder b = (PlaybackService.LocalBinder) service;
             playbackService = b.getService();
             serviceBound = true;
+            playbackService.addStateListener(playbackStateListener);
+            queueVersion = VersionedQueue.NO_VERSION;
 
-            // Always push library so Next/Prev works in correct order
-            playbackService.setLibrarySongs(librarySongs);
+            // An empty queue may only be waiting for the journal (cold start); don't replace it yet
+            awaitingRestore = !playbackService.isQueueRestored();
+            if (!awaitingRestore) pullOrSeedServiceQueue();
+        }
 
-            // Pull queue from service
-            ArrayList<Song> svcQueue = playbackService.getQueueSnapshot();
-            if (svcQueue != null && !svcQueue.isEmpty()) {
-                queueSongs.clear();
-                queueSongs.addAll(svcQueue);
-                queueAdapter.notifyDataSetChanged();
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            serviceBound = false;
+            awaitingRestore = false;
+            playbackService = null;
+            queueVersion = VersionedQueue.NO_VERSION;
+        }
+    };
 
-                Song current = playbackService.getCurrentSong();
-                if (current != null) {
-                    updateLoadedStatus(current);
-                    syncCurrentIndexToSong(current);
-                }
-                setControlsEnabled(true);
-                refreshPlayPauseText();
+    private final MetadataExtractor.Listener metadataListener = batch -> {
+        LongIntMap ids = new LongIntMap(batch.size());
+        for (TrackMetadata m : batch) ids.put(m.songId, 0);
+        librarySorter.invalidateMetadataKeys();
+        notifyVisibleRowsChanged(rvLibrary, ids);
+        notifyVisibleRowsChanged(rvQueue, ids);
+    };
+
+    private final LibraryRepository.Listener libraryListener = new LibraryRepository.Listener() {
+        @Override
+        public void onLibraryPage(LibrarySnapshot snapshot, int from, int count, int expectedTotal) {
+            boolean firstPage = librarySongs.isEmpty();
+
+            librarySongs = snapshot;
+            if (isNaturalOrder()) {
+                songsAdapter.submit(snapshot, rows -> rows.onInserted(from, count));
             } else {
-                // service has nothing yet; push current queue
-                playbackService.setQueueSongs(queueSongs);
+                applyLibraryOrder();
+            }
 
-                if (!queueSongs.isEmpty()) {
-                    Song s = queueSongs.get(0);
-                    updateLoadedStatus(s);
-                    setControlsEnabled(true);
-                    playbackService.playFromQueueHead(false);
-                    refreshPlayPauseText();
-                }
+            if (firstPage) {
+                onFirstLibraryPage();
+                rvLibrary.post(MainActivity.this::prioritizeVisibleRows);
             }
+
+            showScanProgress("Scanning music... " + (from + count) + "/" + expectedTotal);
         }
 
         @Override
-        public void onServiceDisconnected(ComponentName name) {
-            serviceBound = false;
-            playbackService = null;
+        public void onLibraryLoaded(LibrarySnapshot snapshot, boolean replaced) {
+            boolean wasEmpty = librarySongs.isEmpty();
+            scanProgress = null;
+
+            librarySongs = snapshot;
+            if (replaced || !isNaturalOrder()) {
+                applyLibraryOrder();
+            } else {
+                songsAdapter.submit(snapshot, rows -> {}); // same rows as the last page; now complete
+            }
+
+            if (snapshot.isEmpty()) {
+                handleNoMusicFound();
+                return;
+            }
+            if (wasEmpty) onFirstLibraryPage();
+            onLibraryReady();
+        }
+
+        @Override
+        public void onLibraryChanged(LibrarySnapshot snapshot, LibraryDelta delta) {
+            librarySongs = snapshot;
+            if (isNaturalOrder()) {
+                songsAdapter.submit(snapshot, delta.reordered ? null : delta::dispatchTo);
+            } else {
+                applyLibraryOrder();
+            }
+
+            refreshAllPlaylistCounts();
+            if (screen == Screen.PLAYLIST_DETAIL) updatePlaylistViewSongsInPlace();
+            if (isSearching()) onSearchQueryChanged(etSearch.getText().toString());
+
+            if (snapshot.isEmpty()) {
+                handleNoMusicFound();
+                return;
+            }
+            if (!queueSongs.isEmpty()) syncCurrentIndexToSong(queueSongs.get(0));
+        }
+
+        @Override
+        public void onLibraryError(Exception e) {
+            scanProgress = null;
+            txtStatus.setText("Error loading music: " + e.getMessage());
+            setControlsEnabled(false);
+            queueSongs.clear();
+            queueVersion = VersionedQueue.NO_VERSION; // no longer a copy of any version; resync in full
+            showQueue(null);
         }
     };
 
@@ -148,9 +227,18 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        libraryRepository = LibraryRepository.get(this);
+        librarySongs = libraryRepository.getSnapshot();
+        librarySearch = LibrarySearch.get(this);
+        metadataExtractor = MetadataExtractor.get(this);
+        artworkCache = ArtworkCache.get(this);
+        librarySorter = LibrarySorter.get(this);
+
         bindViews();
         setupRecyclerViews();
         setupAdapters();
+        setupMetadata();
+        setupArtwork();
         setupListeners();
         setupDragAndDrop();
 
@@ -167,28 +255,35 @@ public class MainActivity extends AppCompatActivity {
     protected void onStart() {
         super.onStart();
 
-        // Receiver flags fix (Android 13+ lint-safe)
-        IntentFilter f = new IntentFilter(PlaybackService.ACTION_STATE_CHANGED);
-        ContextCompat.registerReceiver(
-                this,
-                playbackStateReceiver,
-                f,
-                ContextCompat.RECEIVER_NOT_EXPORTED
-        );
-
         // Ensure service exists and bind
         Intent i = new Intent(this, PlaybackService.class);
         startService(i);
         bindService(i, serviceConnection, BIND_AUTO_CREATE);
+
+        // Catch up with anything published while we were stopped; a scan cancelled once
+        // nothing held the library is restarted
+        libraryRepository.acquire();
+        libraryRepository.addListener(libraryListener);
+        metadataExtractor.addListener(metadataListener);
+        if (libraryRepository.getSnapshot() != librarySongs) {
+            librarySongs = libraryRepository.getSnapshot();
+            applyLibraryOrder();
+        }
+        if (!libraryRepository.isUpToDate() && !libraryRepository.isScanning() && hasAudioPermission()) {
+            loadLibraryNewestFirst();
+        }
     }
 
     @Override
     protected void onStop() {
         super.onStop();
 
-        try { unregisterReceiver(playbackStateReceiver); } catch (Exception ignored) {}
+        libraryRepository.removeListener(libraryListener);
+        metadataExtractor.removeListener(metadataListener);
+        libraryRepository.release(); // the scan goes on if the service still holds the library
 
         if (serviceBound) {
+            playbackService.removeStateListener(playbackStateListener);
             unbindService(serviceConnection);
             serviceBound = false;
         }
@@ -201,6 +296,8 @@ public class MainActivity extends AppCompatActivity {
     private void bindViews() {
         txtStatus = findViewById(R.id.txtStatus);
         txtLibraryTitle = findViewById(R.id.txtLibraryTitle);
+        txtQueueTitle = findViewById(R.id.txtQueueTitle);
+        etSearch = findViewById(R.id.etSearch);
 
         btnPrev = findViewById(R.id.btnPrev);
         btnPlayPause = findViewById(R.id.btnPlayPause);
@@ -220,45 +317,66 @@ public class MainActivity extends AppCompatActivity {
         rvQueue.setLayoutManager(new LinearLayoutManager(this));
         rvLibrary.setLayoutManager(new LinearLayoutManager(this));
 
-        queueAdapter = new QueueAdapter(queueSongs);
+        queueAdapter = new QueueAdapter();
         rvQueue.setAdapter(queueAdapter);
     }
 
     private void setupAdapters() {
         // All songs
         songsAdapter = new SongsAdapter(
-                librarySongs,
                 (position, song) -> {
-                    currentIndex = position;
+                    currentIndex = librarySongs.indexOfId(song.id);
 
                     // Clicking a library song: play immediately and reset queue to just this song
                     setQueueToSingleSong(song);
                     updateLoadedStatus(song);
                     setControlsEnabled(true);
 
-                    syncQueueToService();
                     playHeadInService(true);
                 },
-                this::showSongHoldMenu
+                (position, song) -> showSongHoldMenu(song, songsAdapter.getSongs(), position)
         );
 
         // Playlist detail list (click to play from playlist)
         playlistSongsAdapter = new SongsAdapter(
-                playlistViewSongs,
                 (position, song) -> playFromPlaylist(position),
                 null
         );
 
+        // Search results (click plays that song, same as the full list)
+        searchResultsAdapter = new SongsAdapter(
+                (position, song) -> {
+                    syncCurrentIndexToSong(song);
+
+                    setQueueToSingleSong(song);
+                    updateLoadedStatus(song);
+                    setControlsEnabled(true);
+
+                    playHeadInService(true);
+                },
+                (position, song) -> showSongHoldMenu(song, null, position)
+        );
+
         // Playlists list
         playlistsAdapter = new PlaylistsAdapter(
-                playlists,
                 (position, playlist) -> openPlaylist(playlist)
         );
+        songsAdapter.submit(librarySongs);
     }
 
     private void setupListeners() {
         btnPlaylistBack.setOnClickListener(v -> closePlaylist());
 
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                onSearchQueryChanged(s.toString());
+            }
+        });
+
         rgLibraryMode.setOnCheckedChangeListener((group, checkedId) -> {
             if (screen == Screen.PLAYLIST_DETAIL) return;
             if (checkedId == R.id.rbSongs) setLibraryMode(LibraryMode.SONGS);
@@ -282,6 +400,178 @@ public class MainActivity extends AppCompatActivity {
             playbackService.playPrevious();
             pullQueueFromServiceAndRefreshUI();
         });
+
+        // Tapping the queue title toggles shuffle (used once the queue runs out)
+        txtQueueTitle.setOnClickListener(v -> {
+            if (!serviceBound) return;
+            playbackService.setShuffleEnabled(!playbackService.isShuffleEnabled());
+            refreshQueueTitle();
+        });
+    }
+
+    // -----------------------
+    // Metadata (artist / album / duration)
+    // -----------------------
+
+    private void setupMetadata() {
+        MetadataCache cache = metadataExtractor.getCache();
+        songsAdapter.setMetadataCache(cache);
+        playlistSongsAdapter.setMetadataCache(cache);
+        searchResultsAdapter.setMetadataCache(cache);
+        queueAdapter.setMetadataCache(cache);
+
+        // Rows on screen (plus a little lookahead) are extracted before anything else
+        rvLibrary.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                prioritizeVisibleRows();
+            }
+        });
+    }
+
+    private void prioritizeVisibleRows() {
+        if (!(rvLibrary.getAdapter() instanceof SongsAdapter)) return;
+        SongsAdapter adapter = (SongsAdapter) rvLibrary.getAdapter();
+        LinearLayoutManager lm = (LinearLayoutManager) rvLibrary.getLayoutManager();
+        if (lm == null) return;
+
+        int first = lm.findFirstVisibleItemPosition();
+        int last = lm.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) return;
+
+        int end = Math.min(adapter.getItemCount() - 1, last + METADATA_LOOKAHEAD_ROWS);
+        for (int i = first; i <= end; i++) {
+            metadataExtractor.request(adapter.getItem(i), MetadataExtractor.PRIORITY_VISIBLE);
+        }
+    }
+
+    private void prioritizeQueue() {
+        int n = Math.min(queueSongs.size(), METADATA_QUEUE_ROWS);
+        for (int i = 0; i < n; i++) {
+            metadataExtractor.request(queueSongs.get(i), MetadataExtractor.PRIORITY_QUEUE);
+        }
+    }
+
+    // -----------------------
+    // Sort order (Songs mode)
+    // -----------------------
+
+    private boolean isNaturalOrder() {
+        return sortKey == LibrarySorter.KEY_DATE_ADDED && sortDescending;
+    }
+
+    /**
+     * Points the songs list at librarySongs in the chosen order. Cached orders (and the
+     * natural one) are submitted at once; a new one is sorted in the background first.
+     * Either way the adapter diffs it, so re-sorting after a small library change only
+     * moves the rows that changed (a new order altogether is one dataset change).
+     */
+    private void applyLibraryOrder() {
+        if (isNaturalOrder()) {
+            songsAdapter.submit(librarySongs);
+            return;
+        }
+        librarySorter.sort(librarySongs, sortKey, sortDescending, sorted -> {
+            if (sorted.snapshot != librarySongs || sorted.key != sortKey || sorted.descending != sortDescending) return;
+            songsAdapter.submit(sorted);
+        });
+    }
+
+    /** Picking the current key flips its direction; a new key starts in its usual direction. */
+    private void showSortMenu() {
+        String[] labels = {"Date added", "Name", "Artist", "Album", "Duration"};
+        int[] keys = {LibrarySorter.KEY_DATE_ADDED, LibrarySorter.KEY_NAME, LibrarySorter.KEY_ARTIST,
+                LibrarySorter.KEY_ALBUM, LibrarySorter.KEY_DURATION};
+
+        new AlertDialog.Builder(this)
+                .setTitle("Sort songs by")
+                .setItems(labels, (d, which) -> {
+                    int key = keys[which];
+                    if (key == sortKey) {
+                        sortDescending = !sortDescending;
+                    } else {
+                        sortKey = key;
+                        sortDescending = (key == LibrarySorter.KEY_DATE_ADDED);
+                    }
+                    txtLibraryTitle.setText("All songs (" + sortLabel() + ")");
+                    applyLibraryOrder();
+                    rvLibrary.scrollToPosition(0);
+                })
+                .show();
+    }
+
+    private String sortLabel() {
+        switch (sortKey) {
+            case LibrarySorter.KEY_NAME: return sortDescending ? "Z-A" : "A-Z";
+            case LibrarySorter.KEY_ARTIST: return sortDescending ? "artist Z-A" : "artist A-Z";
+            case LibrarySorter.KEY_ALBUM: return sortDescending ? "album Z-A" : "album A-Z";
+            case LibrarySorter.KEY_DURATION: return sortDescending ? "longest first" : "shortest first";
+            default: return sortDescending ? "newest first" : "oldest first";
+        }
+    }
+
+    // -----------------------
+    // Album art
+    // -----------------------
+
+    private void setupArtwork() {
+        songsAdapter.setArtworkCache(artworkCache);
+        playlistSongsAdapter.setArtworkCache(artworkCache);
+        searchResultsAdapter.setArtworkCache(artworkCache);
+        queueAdapter.setArtworkCache(artworkCache);
+
+        rvLibrary.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy != 0) prefetchArtwork(dy > 0);
+            }
+        });
+    }
+
+    /** Queues art for the rows just past the visible range in the scroll direction. */
+    private void prefetchArtwork(boolean down) {
+        if (!(rvLibrary.getAdapter() instanceof SongsAdapter)) return;
+        SongsAdapter adapter = (SongsAdapter) rvLibrary.getAdapter();
+        LinearLayoutManager lm = (LinearLayoutManager) rvLibrary.getLayoutManager();
+        if (lm == null) return;
+
+        int first = lm.findFirstVisibleItemPosition();
+        int last = lm.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) return;
+
+        // onScrolled fires per frame; only re-prefetch once a new row comes into view
+        int edge = down ? last : -first - 1;
+        if (edge == artworkPrefetchEdge) return;
+        artworkPrefetchEdge = edge;
+
+        int from = down ? last + 1 : Math.max(0, first - ARTWORK_PREFETCH_ROWS);
+        int to = down ? Math.min(adapter.getItemCount(), last + 1 + ARTWORK_PREFETCH_ROWS) : first;
+        ArrayList<Song> ahead = new ArrayList<>(ARTWORK_PREFETCH_ROWS);
+        if (down) {
+            for (int i = from; i < to; i++) ahead.add(adapter.getItem(i));
+        } else {
+            for (int i = to - 1; i >= from; i--) ahead.add(adapter.getItem(i));
+        }
+        artworkCache.prefetch(ahead);
+    }
+
+    /** Rebinds on-screen rows whose song id is in {@code ids}; off-screen rows pick it up on bind. */
+    private void notifyVisibleRowsChanged(RecyclerView rv, LongIntMap ids) {
+        RecyclerView.Adapter<?> a = rv.getAdapter();
+        LinearLayoutManager lm = (LinearLayoutManager) rv.getLayoutManager();
+        if (a == null || lm == null) return;
+
+        int first = lm.findFirstVisibleItemPosition();
+        int last = lm.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) return;
+
+        for (int i = first; i <= last && i < a.getItemCount(); i++) {
+            Song s;
+            if (a instanceof SongsAdapter) s = ((SongsAdapter) a).getItem(i);
+            else if (a instanceof QueueAdapter) s = ((QueueAdapter) a).getItem(i);
+            else return;
+            if (ids.containsKey(s.id)) a.notifyItemChanged(i);
+        }
     }
 
     // -----------------------
@@ -295,15 +585,22 @@ public class MainActivity extends AppCompatActivity {
         btnPlaylistBack.setVisibility(View.GONE);
         rgLibraryMode.setVisibility(View.VISIBLE);
 
-        // Clear any previous long-click to avoid surprises
+        // Clear any previous click handlers to avoid surprises
+        txtLibraryTitle.setOnClickListener(null);
         txtLibraryTitle.setOnLongClickListener(null);
 
         if (mode == LibraryMode.SONGS) {
-            txtLibraryTitle.setText("All songs (newest first)");
-            rvLibrary.setAdapter(songsAdapter);
-            songsAdapter.notifyDataSetChanged();
+            txtLibraryTitle.setText("All songs (" + sortLabel() + ")");
+            txtLibraryTitle.setOnClickListener(v -> showSortMenu());
+            etSearch.setVisibility(View.VISIBLE);
+            if (isSearching()) {
+                rvLibrary.setAdapter(searchResultsAdapter);
+            } else {
+                rvLibrary.setAdapter(songsAdapter);
+            }
         } else {
             txtLibraryTitle.setText("Playlists");
+            etSearch.setVisibility(View.GONE);
             rvLibrary.setAdapter(playlistsAdapter);
 
             // NEW: long-press title to create playlist (no XML changes needed)
@@ -313,7 +610,6 @@ public class MainActivity extends AppCompatActivity {
             });
 
             refreshAllPlaylistCounts();
-            playlistsAdapter.notifyDataSetChanged();
 
             Toast.makeText(this, "Tip: long-press 'Playlists' title to create one", Toast.LENGTH_SHORT).show();
         }
@@ -325,12 +621,13 @@ public class MainActivity extends AppCompatActivity {
 
         btnPlaylistBack.setVisibility(View.VISIBLE);
         rgLibraryMode.setVisibility(View.GONE);
+        etSearch.setVisibility(View.GONE);
 
         txtLibraryTitle.setText(playlist.name);
 
         rebuildPlaylistViewSongs();
+        playlistSongsAdapter.replace(playlistViewSongs); // another playlist: nothing to diff against
         rvLibrary.setAdapter(playlistSongsAdapter);
-        playlistSongsAdapter.notifyDataSetChanged();
     }
 
     private void closePlaylist() {
@@ -343,6 +640,46 @@ public class MainActivity extends AppCompatActivity {
         setLibraryMode(LibraryMode.PLAYLISTS);
     }
 
+    // -----------------------
+    // Search
+    // -----------------------
+
+    private boolean isSearching() {
+        return etSearch.getText() != null && etSearch.getText().toString().trim().length() > 0;
+    }
+
+    private void onSearchQueryChanged(String query) {
+        if (query.trim().isEmpty()) {
+            librarySearch.cancel();
+            searchResults = Collections.emptyList();
+            searchResultsAdapter.submit(searchResults);
+            if (libraryMode == LibraryMode.SONGS && screen == Screen.MAIN) {
+                rvLibrary.setAdapter(songsAdapter);
+            }
+            return;
+        }
+
+        // A refined query's first chunk is diffed against the previous results, so rows that
+        // still match stay put; later chunks are appends
+        librarySearch.search(query, (q, chunk, first, last) -> {
+            if (first) {
+                searchResults = new ArrayList<>(chunk);
+                searchResultsAdapter.submit(searchResults);
+                if (libraryMode == LibraryMode.SONGS && screen == Screen.MAIN
+                        && rvLibrary.getAdapter() != searchResultsAdapter) {
+                    rvLibrary.setAdapter(searchResultsAdapter);
+                }
+                return;
+            }
+            int insertPos = searchResults.size();
+            ArrayList<Song> grown = new ArrayList<>(insertPos + chunk.size());
+            grown.addAll(searchResults);
+            grown.addAll(chunk);
+            searchResults = grown;
+            searchResultsAdapter.submit(grown, rows -> rows.onInserted(insertPos, chunk.size()));
+        });
+    }
+
     // -----------------------
     // Create playlist (NEW)
     // -----------------------
@@ -378,10 +715,6 @@ public class MainActivity extends AppCompatActivity {
                     savePlaylistsToStorage();
                     refreshAllPlaylistCounts();
 
-                    if (libraryMode == LibraryMode.PLAYLISTS && screen == Screen.MAIN) {
-                        playlistsAdapter.notifyDataSetChanged();
-                    }
-
                     Toast.makeText(this, "Created: " + name, Toast.LENGTH_SHORT).show();
                 })
                 .show();
@@ -392,68 +725,77 @@ public class MainActivity extends AppCompatActivity {
     // -----------------------
 
     private void playFromPlaylist(int clickedPos) {
-        if (clickedPos < 0 || clickedPos >= playlistViewSongs.size()) return;
+        // The rows on screen, which a change still being diffed hasn't replaced yet
+        List<Song> shown = playlistSongsAdapter.getSongs();
+        if (clickedPos < 0 || clickedPos >= shown.size()) return;
 
         // Replace whole queue with that playlist, starting from clicked song
-        buildQueueFromListStartingAt(playlistViewSongs, clickedPos);
-        queueAdapter.notifyDataSetChanged();
-
-        if (!queueSongs.isEmpty()) {
-            Song first = queueSongs.get(0);
-            updateLoadedStatus(first);
-            setControlsEnabled(true);
-
-            syncQueueToService();
-            playHeadInService(true);
-        }
-    }
+        submitQueueBatch(new QueueBatch().replaceFromPlaylistAt(shown, clickedPos));
 
-    private void buildQueueFromListStartingAt(ArrayList<Song> list, int startPos) {
-        queueSongs.clear();
-        for (int i = startPos; i < list.size(); i++) queueSongs.add(list.get(i));
-        for (int i = 0; i < startPos; i++) queueSongs.add(list.get(i));
+        // The service applies the batch asynchronously; the clicked song is the new head
+        updateLoadedStatus(shown.get(clickedPos));
+        setControlsEnabled(true);
+        playHeadInService(true);
     }
 
     private void rebuildPlaylistViewSongs() {
-        playlistViewSongs.clear();
-        if (currentPlaylist == null) return;
-
-        ArrayList<Long> ids = playlistToSongIds.get(currentPlaylist.id);
-        if (ids == null) return;
-
-        for (Long songId : ids) {
-            Song s = findSongInLibraryById(songId);
-            if (s != null) playlistViewSongs.add(s);
+        ArrayList<Song> rebuilt = new ArrayList<>();
+        ArrayList<Long> ids = (currentPlaylist == null) ? null : playlistToSongIds.get(currentPlaylist.id);
+        if (ids != null) {
+            for (Long songId : ids) {
+                Song s = findSongInLibraryById(songId);
+                if (s != null) rebuilt.add(s);
+            }
         }
+        playlistViewSongs = rebuilt;
+    }
+
+    /** Re-resolves the open playlist after a library change; the adapter diffs out the rows that changed. */
+    private void updatePlaylistViewSongsInPlace() {
+        rebuildPlaylistViewSongs();
+        playlistSongsAdapter.submit(playlistViewSongs);
     }
 
     private Song findSongInLibraryById(long id) {
-        for (Song s : librarySongs) {
-            if (s.id == id) return s;
-        }
-        return null;
+        return librarySongs.findById(id);
     }
 
     // -----------------------
     // Long press menu (All songs)
     // -----------------------
 
-    private void showSongHoldMenu(Song song) {
+    /**
+     * {@code list} is the (immutable) list the song was picked from, offered as "Play all
+     * from here"; null when that isn't wanted (search results).
+     */
+    private void showSongHoldMenu(Song song, List<Song> list, int position) {
+        CharSequence[] items = (list == null)
+                ? new CharSequence[]{"Add to queue", "Add to playlist"}
+                : new CharSequence[]{"Add to queue", "Add to playlist", "Play all from here"};
         new AlertDialog.Builder(this)
                 .setTitle(song.name)
-                .setItems(new CharSequence[]{"Add to queue", "Add to playlist"}, (dlg, which) -> {
+                .setItems(items, (dlg, which) -> {
                     if (which == 0) addSongToQueue(song);
-                    else showPlaylistPicker(song);
+                    else if (which == 1) showPlaylistPicker(song);
+                    else playAllFrom(list, position);
                 })
                 .show();
     }
 
-    private void addSongToQueue(Song song) {
-        int insertPos = queueSongs.size();
-        queueSongs.add(song);
-        queueAdapter.notifyItemInserted(insertPos);
+    /** Queues the whole list starting at {@code position}, wrapping; O(1) however long the list is. */
+    private void playAllFrom(List<Song> list, int position) {
+        if (position < 0 || position >= list.size()) return;
+        Song first = list.get(position);
+        syncCurrentIndexToSong(first);
 
-        syncQueueToService();
+        submitQueueBatch(new QueueBatch().replaceFromPlaylistAt(list, position));
+        updateLoadedStatus(first);
+        setControlsEnabled(true);
+        playHeadInService(true);
+    }
+
+    private void addSongToQueue(Song song) {
+        submitQueueBatch(new QueueBatch().enqueue(song));
         Toast.makeText(this, "Added to queue: " + song.name, Toast.LENGTH_SHORT).show();
     }
 
@@ -488,29 +830,39 @@ public class MainActivity extends AppCompatActivity {
         }
 
         ids.add(song.id);
-        playlist.songCount = ids.size();
 
         savePlaylistsToStorage();
+        refreshAllPlaylistCounts();
 
         // If we are currently viewing this playlist, update immediately
         if (screen == Screen.PLAYLIST_DETAIL && currentPlaylist != null && currentPlaylist.id == playlist.id) {
-            rebuildPlaylistViewSongs();
-            playlistSongsAdapter.notifyDataSetChanged();
-        }
-
-        // If playlists list is on screen, update counts
-        if (screen == Screen.MAIN && libraryMode == LibraryMode.PLAYLISTS) {
-            playlistsAdapter.notifyDataSetChanged();
+            updatePlaylistViewSongsInPlace();
         }
 
         Toast.makeText(this, "Added to " + playlist.name, Toast.LENGTH_SHORT).show();
     }
 
+    /**
+     * Updates the counts and submits the playlists list (a copy: Playlists are immutable, the
+     * list isn't). Once the library is loaded, only songs still in it count, as in the
+     * playlist's own view.
+     */
     private void refreshAllPlaylistCounts() {
-        for (Playlist p : playlists) {
+        boolean resolve = libraryRepository.isLoaded();
+        for (int i = 0; i < playlists.size(); i++) {
+            Playlist p = playlists.get(i);
             ArrayList<Long> ids = playlistToSongIds.get(p.id);
-            p.songCount = (ids == null) ? 0 : ids.size();
+            int count = 0;
+            if (ids != null && !resolve) {
+                count = ids.size();
+            } else if (ids != null) {
+                for (Long id : ids) {
+                    if (librarySongs.findById(id) != null) count++;
+                }
+            }
+            playlists.set(i, p.withSongCount(count));
         }
+        playlistsAdapter.submit(new ArrayList<>(playlists));
     }
 
     // -----------------------
@@ -533,9 +885,8 @@ public class MainActivity extends AppCompatActivity {
                     if (DragData.SOURCE_QUEUE.equals(d.source) && d.position > 0) {
                         if (!isDropInsideView(rvQueue, v, event)) {
                             if (d.position < queueSongs.size()) {
-                                queueSongs.remove(d.position);
-                                queueAdapter.notifyItemRemoved(d.position);
-                                syncQueueToService();
+                                // Dropped if the service's queue moved on since our copy
+                                submitQueueBatch(new QueueBatch().removeRange(d.position, 1).basedOn(queueVersion));
                             }
                             return true;
                         }
@@ -568,11 +919,7 @@ public class MainActivity extends AppCompatActivity {
                         if (to >= queueSongs.size()) to = queueSongs.size() - 1;
                         if (to == from) return true;
 
-                        Song moved = queueSongs.remove(from);
-                        queueSongs.add(to, moved);
-                        queueAdapter.notifyItemMoved(from, to);
-
-                        syncQueueToService();
+                        submitQueueBatch(new QueueBatch().move(from, to).basedOn(queueVersion));
                         return true;
                     }
                     return false;
@@ -626,99 +973,93 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void requestAudioPermissionIfNeeded() {
-        String perm = (Build.VERSION.SDK_INT >= 33)
-                ? Manifest.permission.READ_MEDIA_AUDIO
-                : Manifest.permission.READ_EXTERNAL_STORAGE;
-
-        if (ContextCompat.checkSelfPermission(this, perm) == PackageManager.PERMISSION_GRANTED) {
+        if (hasAudioPermission()) {
             loadLibraryNewestFirst();
         } else {
-            ActivityCompat.requestPermissions(this, new String[]{perm}, REQ_AUDIO_PERMISSION);
+            ActivityCompat.requestPermissions(this, new String[]{audioPermission()}, REQ_AUDIO_PERMISSION);
         }
     }
 
+    private String audioPermission() {
+        return (Build.VERSION.SDK_INT >= 33)
+                ? Manifest.permission.READ_MEDIA_AUDIO
+                : Manifest.permission.READ_EXTERNAL_STORAGE;
+    }
+
+    private boolean hasAudioPermission() {
+        return ContextCompat.checkSelfPermission(this, audioPermission()) == PackageManager.PERMISSION_GRANTED;
+    }
+
     private void loadLibraryNewestFirst() {
-        librarySongs.clear();
-
-        String[] projection = {
-                MediaStore.Audio.Media._ID,
-                MediaStore.Audio.Media.DISPLAY_NAME,
-                MediaStore.Audio.Media.DATE_ADDED
-        };
-
-        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
-        String sortOrder = MediaStore.Audio.Media.DATE_ADDED + " DESC";
-
-        try (Cursor cursor = getContentResolver().query(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                projection,
-                selection,
-                null,
-                sortOrder
-        )) {
-            if (cursor == null || !cursor.moveToFirst()) {
+        if (libraryRepository.isLoaded()) {
+            // Already scanned by this process (activity re-created or service started first)
+            librarySongs = libraryRepository.getSnapshot();
+            applyLibraryOrder();
+            if (librarySongs.isEmpty()) {
                 handleNoMusicFound();
-                return;
+            } else {
+                onFirstLibraryPage();
+                onLibraryReady();
             }
+            // Stored copy shown; reconcile it against MediaStore in the background
+            if (!libraryRepository.isUpToDate() && !libraryRepository.isScanning()) {
+                libraryRepository.refresh();
+            }
+            return;
+        }
 
-            int idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-            int nameCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DISPLAY_NAME);
-            int dateCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED);
-
-            do {
-                long id = cursor.getLong(idCol);
-                String name = cursor.getString(nameCol);
-                long dateAddedMillis = cursor.getLong(dateCol) * 1000L;
-
-                Uri uri = Uri.withAppendedPath(
-                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                        String.valueOf(id)
-                );
+        if (librarySongs.isEmpty()) showScanProgress("Scanning music...");
+        if (!libraryRepository.isScanning()) libraryRepository.refresh();
+    }
 
-                librarySongs.add(new Song(id, name, uri, dateAddedMillis));
-            } while (cursor.moveToNext());
+    private void onFirstLibraryPage() {
+        // Seeded on connecting, or once the service has restored its queue
+        if (!serviceBound || awaitingRestore) return;
 
-            songsAdapter.notifyDataSetChanged();
+        // Only auto-initialize queue if service has nothing loaded
+        boolean serviceHasQueue = serviceBound && playbackService.getQueueSize() > 0;
 
-            // Push library to service
-            if (serviceBound) playbackService.setLibrarySongs(librarySongs);
+        if (!serviceHasQueue) {
+            currentIndex = 0;
+            Song first = librarySongs.get(0);
 
-            // NEW: now that library is loaded, resolve playlist songs for the currently opened playlist
-            refreshAllPlaylistCounts();
-            if (libraryMode == LibraryMode.PLAYLISTS && screen == Screen.MAIN) {
-                playlistsAdapter.notifyDataSetChanged();
-            }
-            if (screen == Screen.PLAYLIST_DETAIL) {
-                rebuildPlaylistViewSongs();
-                playlistSongsAdapter.notifyDataSetChanged();
-            }
+            setQueueToSingleSong(first);
+            updateLoadedStatus(first);
+            setControlsEnabled(true);
 
-            // Only auto-initialize queue if service has nothing loaded
-            boolean serviceHasQueue = serviceBound
-                    && playbackService.getQueueSnapshot() != null
-                    && !playbackService.getQueueSnapshot().isEmpty();
+            playHeadInService(false); // load only, no autoplay
+            refreshPlayPauseText();
+        } else {
+            pullQueueFromServiceAndRefreshUI();
+        }
+    }
 
-            if (!serviceHasQueue) {
-                currentIndex = 0;
-                Song first = librarySongs.get(0);
+    private void onLibraryReady() {
+        // NEW: now that library is loaded, resolve playlist songs for the currently opened playlist
+        refreshAllPlaylistCounts();
+        if (screen == Screen.PLAYLIST_DETAIL) updatePlaylistViewSongsInPlace();
 
-                setQueueToSingleSong(first);
-                updateLoadedStatus(first);
-                setControlsEnabled(true);
+        Song current = serviceBound ? playbackService.getCurrentSong() : loadedSong;
+        if (current != null) syncCurrentIndexToSong(current);
+        updateLoadedStatus(current); // replaces the scan's progress
+    }
 
-                syncQueueToService();
-                playHeadInService(false); // load only, no autoplay
-                refreshPlayPauseText();
-            } else {
-                pullQueueFromServiceAndRefreshUI();
-            }
+    /** Pulls the service's queue; if it restored nothing, hands it ours or the newest song. */
+    private void pullOrSeedServiceQueue() {
+        if (playbackService.getQueueSize() > 0) {
+            pullQueueFromServiceAndRefreshUI();
+        } else if (queueSongs.isEmpty()) {
+            if (!librarySongs.isEmpty()) onFirstLibraryPage();
+        } else {
+            // Songs picked before binding. Applied on the playback thread, so the next pull
+            // copies the result rather than replaying onto ours; frozen, as we go on editing ours
+            playbackService.applyQueueBatch(new QueueBatch().replaceAll(queueSongs.frozenCopy()));
 
-        } catch (Exception e) {
-            txtStatus.setText("Error loading music: " + e.getMessage());
-            setControlsEnabled(false);
-            songsAdapter.notifyDataSetChanged();
-            queueSongs.clear();
-            queueAdapter.notifyDataSetChanged();
+            Song s = queueSongs.get(0);
+            updateLoadedStatus(s);
+            setControlsEnabled(true);
+            playbackService.playFromQueueHead(false);
+            refreshPlayPauseText();
         }
     }
 
@@ -726,11 +1067,8 @@ public class MainActivity extends AppCompatActivity {
         txtStatus.setText("No music found. Put an MP3 in Internal storage > Music.");
         setControlsEnabled(false);
 
-        songsAdapter.notifyDataSetChanged();
-        queueSongs.clear();
-        queueAdapter.notifyDataSetChanged();
-
-        if (serviceBound) playbackService.setQueueSongs(queueSongs);
+        songsAdapter.submit(librarySongs);
+        submitQueueBatch(new QueueBatch().replaceAll(Collections.emptyList()));
     }
 
     private void setControlsEnabled(boolean enabled) {
@@ -744,30 +1082,51 @@ public class MainActivity extends AppCompatActivity {
     // -----------------------
 
     private void setQueueToSingleSong(Song song) {
-        queueSongs.clear();
-        queueSongs.add(song);
-        queueAdapter.notifyDataSetChanged();
+        submitQueueBatch(new QueueBatch().replaceAll(Collections.singletonList(song)));
+    }
+
+    /** Shows {@code progress} in the status line until the scan finishes, whatever is queued meanwhile. */
+    private void showScanProgress(String progress) {
+        scanProgress = progress;
+        txtStatus.setText(progress);
     }
 
     private void updateLoadedStatus(Song song) {
+        loadedSong = song;
+        if (scanProgress != null) return; // shown by onLibraryReady once the scan is done
         if (song == null) txtStatus.setText("Loaded: -");
         else txtStatus.setText("Loaded: " + song.name);
     }
 
     private void syncCurrentIndexToSong(Song s) {
         if (s == null) return;
-        for (int i = 0; i < librarySongs.size(); i++) {
-            if (librarySongs.get(i).id == s.id) {
-                currentIndex = i;
-                return;
-            }
+        int i = librarySongs.indexOfId(s.id);
+        if (i >= 0) currentIndex = i;
+    }
+
+    /**
+     * Edits the queue. While bound, the service applies the batch on its playback thread and
+     * queueSongs follows by replaying the resulting changes when the state listener fires;
+     * before that, the batch is applied locally and pushed to the service when it connects.
+     */
+    private void submitQueueBatch(QueueBatch batch) {
+        if (serviceBound) {
+            playbackService.applyQueueBatch(batch);
+            return;
         }
+        if (!batch.fits(queueSongs.size())) return;
+        batch.applyTo(queueSongs);
+        showQueue(null);
+        prioritizeQueue();
     }
 
-    private void syncQueueToService() {
-        if (!serviceBound) return;
-        playbackService.setLibrarySongs(librarySongs);
-        playbackService.setQueueSongs(queueSongs);
+    /**
+     * Submits a frozen copy of queueSongs (it shares the segments, so it is cheap) to the
+     * queue list; {@code changes} take the previous copy to it, or null to diff. Frozen, as
+     * the list-diff thread reads it while queueSongs goes on being edited here.
+     */
+    private void showQueue(@Nullable ListDiffer.Changes changes) {
+        queueAdapter.submit(queueSongs.frozenCopy(), changes);
     }
 
     private void playHeadInService(boolean autoPlay) {
@@ -783,13 +1142,32 @@ public class MainActivity extends AppCompatActivity {
         btnPlayPause.setText(playbackService.isPlaying() ? "Pause" : "Play");
     }
 
+    private void refreshQueueTitle() {
+        boolean shuffled = serviceBound && playbackService.isShuffleEnabled();
+        txtQueueTitle.setText(shuffled ? "Queue (shuffle)" : "Queue");
+    }
+
     private void pullQueueFromServiceAndRefreshUI() {
         if (!serviceBound) return;
 
-        ArrayList<Song> svcQueue = playbackService.getQueueSnapshot();
-        queueSongs.clear();
-        if (svcQueue != null) queueSongs.addAll(svcQueue);
-        queueAdapter.notifyDataSetChanged();
+        // Replay only the edits made since our copy; nothing to do if the version is unchanged.
+        // Version and changes come from one snapshot, as the service may move on meanwhile
+        VersionedQueue.Snapshot queue = playbackService.getQueue();
+        long version = queue.version();
+        if (version != queueVersion) {
+            List<QueueChange> changes = queue.changesSince(queueVersion);
+            if (changes == null) {
+                queueSongs.setAll(queue.copy());
+                showQueue(null);
+            } else {
+                for (QueueChange c : changes) c.applyTo(queueSongs);
+                showQueue(rows -> {
+                    for (QueueChange c : changes) c.dispatchTo(rows);
+                });
+            }
+            queueVersion = version;
+            prioritizeQueue();
+        }
 
         Song current = playbackService.getCurrentSong();
         if (current != null) {
@@ -801,6 +1179,7 @@ public class MainActivity extends AppCompatActivity {
         }
 
         refreshPlayPauseText();
+        refreshQueueTitle();
     }
 
     // -----------------------
@@ -840,85 +1219,15 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void savePlaylistsToStorage() {
-        JSONObject root = new JSONObject();
-        JSONArray pls = new JSONArray();
-        JSONObject map = new JSONObject();
-
-        try {
-            for (Playlist p : playlists) {
-                JSONObject po = new JSONObject();
-                po.put("id", p.id);
-                po.put("name", p.name);
-                pls.put(po);
-
-                ArrayList<Long> ids = playlistToSongIds.get(p.id);
-                JSONArray songIdsArr = new JSONArray();
-                if (ids != null) {
-                    for (Long sid : ids) songIdsArr.put(sid);
-                }
-                map.put(String.valueOf(p.id), songIdsArr);
-            }
-
-            root.put("playlists", pls);
-            root.put("songsByPlaylist", map);
-
-        } catch (JSONException ignored) {}
-
-        getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
-                .edit()
-                .putString(KEY_PLAYLISTS_STATE, root.toString())
-                .apply();
+        PlaylistStore.save(this, playlists, playlistToSongIds);
     }
 
     private void loadPlaylistsFromStorage() {
+        PlaylistStore.Contents contents = PlaylistStore.load(this);
         playlists.clear();
+        playlists.addAll(contents.playlists);
         playlistToSongIds.clear();
-
-        String json = getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
-                .getString(KEY_PLAYLISTS_STATE, null);
-
-        if (json == null || json.trim().isEmpty()) {
-            // Start empty (no placeholders anymore)
-            return;
-        }
-
-        try {
-            JSONObject root = new JSONObject(json);
-            JSONArray pls = root.optJSONArray("playlists");
-            JSONObject map = root.optJSONObject("songsByPlaylist");
-
-            if (pls != null) {
-                for (int i = 0; i < pls.length(); i++) {
-                    JSONObject po = pls.optJSONObject(i);
-                    if (po == null) continue;
-                    long id = po.optLong("id", -1);
-                    String name = po.optString("name", "");
-                    if (id == -1 || name.isEmpty()) continue;
-
-                    playlists.add(new Playlist(id, name, 0));
-                }
-            }
-
-            if (map != null) {
-                for (Playlist p : playlists) {
-                    JSONArray songIdsArr = map.optJSONArray(String.valueOf(p.id));
-                    ArrayList<Long> ids = new ArrayList<>();
-                    if (songIdsArr != null) {
-                        for (int j = 0; j < songIdsArr.length(); j++) {
-                            long sid = songIdsArr.optLong(j, -1);
-                            if (sid != -1) ids.add(sid);
-                        }
-                    }
-                    playlistToSongIds.put(p.id, ids);
-                }
-            }
-
-            refreshAllPlaylistCounts();
-
-        } catch (JSONException e) {
-            // Bad JSON: ignore and start empty
-            playlists.clear();
-            playlistToSongIds.clear();
-        }
+        playlistToSongIds.putAll(contents.songIds);
+        refreshAllPlaylistCounts();
     }
 }
@@ -0,0 +1,138 @@
+package com.example.musicapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Extracted metadata keyed by song id, valid only for the DATE_MODIFIED it was read at,
+ * so a track is parsed again only when its file changes. Kept in memory and written
+ * to app storage as a whole (temp file + rename).
+ *
+ * Thread-safe; lookups are O(1) through a {@link LongIntMap}.
+ */
+public final class MetadataCache {
+
+    private static final int MAGIC = 0x4D4D4554; // "MMET"
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "metadata.bin";
+
+    private final File file;
+    private final LongIntMap slots = new LongIntMap(1024);
+    private final ArrayList<TrackMetadata> entries = new ArrayList<>();
+    private boolean dirty = false;
+
+    public MetadataCache(File dir) {
+        this.file = new File(dir, FILE_NAME);
+    }
+
+    /** Cached metadata for this exact version of the file, or null. */
+    public synchronized TrackMetadata get(long songId, long dateModifiedSeconds) {
+        int slot = slots.get(songId);
+        if (slot == LongIntMap.MISSING) return null;
+        TrackMetadata m = entries.get(slot);
+        return (m.dateModifiedSeconds == dateModifiedSeconds) ? m : null;
+    }
+
+    public TrackMetadata get(Song song) {
+        return get(song.id, song.dateModifiedSeconds);
+    }
+
+    public synchronized void put(TrackMetadata m) {
+        int slot = slots.get(m.songId);
+        if (slot == LongIntMap.MISSING) {
+            slots.put(m.songId, entries.size());
+            entries.add(m);
+        } else {
+            entries.set(slot, m);
+        }
+        dirty = true;
+    }
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /** Loads the stored cache, replacing nothing already in memory. Call off the main thread. */
+    public void load() {
+        if (!file.isFile()) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return;
+            int count = in.readInt();
+
+            ArrayList<TrackMetadata> loaded = new ArrayList<>(Math.max(count, 0));
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                long dateModified = in.readLong();
+                long duration = in.readLong();
+                int track = in.readInt();
+                int bitrate = in.readInt();
+                int sampleRate = in.readInt();
+                String artist = readNullableUTF(in);
+                String album = readNullableUTF(in);
+                loaded.add(new TrackMetadata(id, dateModified, artist, album, duration, track, bitrate, sampleRate));
+            }
+
+            synchronized (this) {
+                for (TrackMetadata m : loaded) {
+                    if (slots.get(m.songId) == LongIntMap.MISSING) {
+                        slots.put(m.songId, entries.size());
+                        entries.add(m);
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // Truncated file: ignore it, it is rewritten on the next save
+        } catch (IOException ignored) {}
+    }
+
+    /** Writes the cache if it changed since the last save. Call off the main thread. */
+    public void save() {
+        ArrayList<TrackMetadata> copy;
+        synchronized (this) {
+            if (!dirty) return;
+            copy = new ArrayList<>(entries);
+            dirty = false;
+        }
+
+        File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(copy.size());
+            for (TrackMetadata m : copy) {
+                out.writeLong(m.songId);
+                out.writeLong(m.dateModifiedSeconds);
+                out.writeLong(m.durationMs);
+                out.writeInt(m.trackNumber);
+                out.writeInt(m.bitrate);
+                out.writeInt(m.sampleRate);
+                writeNullableUTF(out, m.artist);
+                writeNullableUTF(out, m.album);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            synchronized (this) { dirty = true; }
+            return;
+        }
+
+        if (!tmp.renameTo(file)) tmp.delete();
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s.length() > 10_000 ? s.substring(0, 10_000) : s);
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
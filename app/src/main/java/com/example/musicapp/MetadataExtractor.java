@@ -0,0 +1,336 @@
+package com.example.musicapp;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background metadata extraction with bounded parallelism.
+ *
+ * Requests carry a priority (visible rows first, then the queue, then the rest of the
+ * library, which is fed in small batches so the work queue stays short). Requests for
+ * a track already pending are merged, and a higher priority re-queues it. Results go
+ * into {@link MetadataCache} and are delivered to listeners on the main thread in
+ * batches, so the UI updates incrementally without a notify per track.
+ */
+public class MetadataExtractor implements LibraryRepository.Listener {
+
+    public interface Listener {
+        /** Main thread. Metadata that became available since the last call. */
+        void onMetadataAvailable(List<TrackMetadata> batch);
+    }
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_QUEUE = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private static final int THREADS = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int BACKGROUND_BATCH = 16;
+    private static final long DELIVERY_INTERVAL_MS = 100;
+    private static final long SAVE_DELAY_MS = 5000;
+
+    private static MetadataExtractor instance;
+
+    public static synchronized MetadataExtractor get(Context context) {
+        if (instance == null) {
+            LibraryRepository repo = LibraryRepository.get(context);
+            instance = new MetadataExtractor(context.getApplicationContext(), repo);
+            repo.addListener(instance);
+        }
+        return instance;
+    }
+
+    private final Context appContext;
+    private final LibraryRepository libraryRepository;
+    private final MetadataCache cache;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "metadata-io"));
+    private final ThreadPoolExecutor pool;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    // Guarded by "this"
+    private final Map<Long, Task> pending = new HashMap<>();
+    private final ArrayList<TrackMetadata> ready = new ArrayList<>();
+    private boolean deliveryScheduled = false;
+    private boolean cacheLoaded = false;
+    private LibrarySnapshot backgroundSnapshot = LibrarySnapshot.EMPTY;
+    private int backgroundCursor = 0;
+    private int backgroundPending = 0;
+    private long nextSeq = 0;
+
+    // TagReader keeps reusable buffers and isn't thread-safe: one per worker thread
+    private final ThreadLocal<TagReader> tagReaders = new ThreadLocal<TagReader>() {
+        @Override
+        protected TagReader initialValue() {
+            return new TagReader();
+        }
+    };
+
+    private final Runnable deliver = this::deliverReady;
+    private final Runnable scheduleSave = () -> ioExecutor.execute(this::saveCache);
+
+    private MetadataExtractor(Context appContext, LibraryRepository repo) {
+        this.appContext = appContext;
+        this.libraryRepository = repo;
+        this.cache = new MetadataCache(appContext.getFilesDir());
+
+        pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "metadata-extract");
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+
+        ioExecutor.execute(() -> {
+            cache.load();
+            synchronized (this) { cacheLoaded = true; }
+            mainHandler.post(() -> restartBackground(libraryRepository.getSnapshot()));
+        });
+    }
+
+    public MetadataCache getCache() {
+        return cache;
+    }
+
+    /** Cached metadata for {@code song}, or null (in which case it may be worth a {@link #request}). */
+    public TrackMetadata peek(Song song) {
+        return cache.get(song);
+    }
+
+    public void addListener(Listener l) {
+        if (!listeners.contains(l)) listeners.add(l);
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    /** Asks for {@code song} to be extracted at {@code priority} unless it is cached. Any thread. */
+    public void request(Song song, int priority) {
+        if (song == null || cache.get(song) != null) return;
+
+        synchronized (this) {
+            Task existing = pending.get(song.id);
+            if (existing != null) {
+                if (existing.priority <= priority) return;
+                // Bump: pull the queued task and re-queue it at the higher priority
+                if (!pool.remove(existing)) return; // already running
+                if (existing.priority == PRIORITY_BACKGROUND) backgroundPending--;
+            }
+            Task t = new Task(song, priority, nextSeq++);
+            pending.put(song.id, t);
+            if (priority == PRIORITY_BACKGROUND) backgroundPending++;
+            pool.execute(t);
+        }
+    }
+
+    public void requestAll(List<Song> songs, int priority) {
+        for (Song s : songs) request(s, priority);
+    }
+
+    // -----------------------
+    // Work
+    // -----------------------
+
+    private final class Task implements Runnable, Comparable<Task> {
+        final Song song;
+        final int priority;
+        final long seq;
+
+        Task(Song song, int priority, long seq) {
+            this.song = song;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            if (priority != o.priority) return Integer.compare(priority, o.priority);
+            return Long.compare(seq, o.seq);
+        }
+
+        @Override
+        public void run() {
+            TrackMetadata m = cache.get(song);
+            if (m == null) {
+                m = extract(song);
+                cache.put(m);
+            }
+
+            synchronized (MetadataExtractor.this) {
+                pending.remove(song.id);
+                if (priority == PRIORITY_BACKGROUND) backgroundPending--;
+                ready.add(m);
+                if (!deliveryScheduled) {
+                    deliveryScheduled = true;
+                    mainHandler.postDelayed(deliver, DELIVERY_INTERVAL_MS);
+                }
+            }
+            feedBackground();
+        }
+    }
+
+    /**
+     * Reads tags with {@link TagReader} straight from the file; formats it doesn't know,
+     * or files whose headers give no duration, fall back to the platform retriever.
+     * Unknown fields stay empty so the track isn't retried.
+     */
+    private TrackMetadata extract(Song song) {
+        TagReader.Tags tags = null;
+        try (ParcelFileDescriptor pfd = appContext.getContentResolver().openFileDescriptor(song.getUri(), "r");
+             FileInputStream in = new FileInputStream(pfd.getFileDescriptor());
+             FileChannel ch = in.getChannel()) {
+            tags = tagReaders.get().readTags(ch);
+        } catch (IOException | RuntimeException ignored) {}
+
+        if (tags == null || tags.format == TagReader.FORMAT_UNKNOWN || tags.durationMs <= 0) {
+            return extractWithRetriever(song);
+        }
+        return new TrackMetadata(
+                song.id,
+                song.dateModifiedSeconds,
+                emptyToNull(tags.artist != null ? tags.artist : tags.albumArtist),
+                emptyToNull(tags.album),
+                tags.durationMs,
+                parseLeadingInt(tags.track),
+                tags.bitrate,
+                tags.sampleRate
+        );
+    }
+
+    private TrackMetadata extractWithRetriever(Song song) {
+        MediaMetadataRetriever r = new MediaMetadataRetriever();
+        try {
+            r.setDataSource(appContext, song.getUri());
+
+            int sampleRate = 0;
+            if (Build.VERSION.SDK_INT >= 31) {
+                sampleRate = parseLeadingInt(r.extractMetadata(MediaMetadataRetriever.METADATA_KEY_SAMPLERATE));
+            }
+
+            return new TrackMetadata(
+                    song.id,
+                    song.dateModifiedSeconds,
+                    emptyToNull(r.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST)),
+                    emptyToNull(r.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM)),
+                    parseLeadingInt(r.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)),
+                    parseLeadingInt(r.extractMetadata(MediaMetadataRetriever.METADATA_KEY_CD_TRACK_NUMBER)),
+                    parseLeadingInt(r.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE)),
+                    sampleRate
+            );
+        } catch (RuntimeException e) {
+            return new TrackMetadata(song.id, song.dateModifiedSeconds, null, null, 0, 0, 0, 0);
+        } finally {
+            try { r.release(); } catch (Exception ignored) {}
+        }
+    }
+
+    /** Parses "7", "7/12" or " 320000" style values; 0 if there is no number. */
+    static int parseLeadingInt(String s) {
+        if (s == null) return 0;
+        int i = 0, n = s.length();
+        while (i < n && s.charAt(i) == ' ') i++;
+        long v = 0;
+        int start = i;
+        while (i < n && Character.isDigit(s.charAt(i)) && v <= Integer.MAX_VALUE) {
+            v = v * 10 + (s.charAt(i) - '0');
+            i++;
+        }
+        return (i == start || v > Integer.MAX_VALUE) ? 0 : (int) v;
+    }
+
+    static String emptyToNull(String s) {
+        if (s == null) return null;
+        String t = s.trim();
+        return t.isEmpty() ? null : t;
+    }
+
+    // -----------------------
+    // Whole-library background pass
+    // -----------------------
+
+    private void restartBackground(LibrarySnapshot snapshot) {
+        synchronized (this) {
+            backgroundSnapshot = snapshot;
+            backgroundCursor = 0;
+        }
+        feedBackground();
+    }
+
+    /** Keeps a small batch of uncached library rows queued at background priority. */
+    private void feedBackground() {
+        ArrayList<Song> toQueue = new ArrayList<>();
+        synchronized (this) {
+            if (!cacheLoaded) return;
+            LibrarySnapshot snap = backgroundSnapshot;
+            while (backgroundPending + toQueue.size() < BACKGROUND_BATCH && backgroundCursor < snap.size()) {
+                int row = backgroundCursor++;
+                if (cache.get(snap.idAt(row), snap.dateModifiedAt(row)) == null) toQueue.add(snap.get(row));
+            }
+        }
+        for (Song s : toQueue) request(s, PRIORITY_BACKGROUND);
+    }
+
+    // -----------------------
+    // Delivery + persistence
+    // -----------------------
+
+    private void deliverReady() {
+        ArrayList<TrackMetadata> batch;
+        synchronized (this) {
+            deliveryScheduled = false;
+            batch = new ArrayList<>(ready);
+            ready.clear();
+        }
+        if (batch.isEmpty()) return;
+
+        for (Listener l : new ArrayList<>(listeners)) l.onMetadataAvailable(batch);
+
+        mainHandler.removeCallbacks(scheduleSave);
+        mainHandler.postDelayed(scheduleSave, SAVE_DELAY_MS);
+    }
+
+    private void saveCache() {
+        cache.save();
+    }
+
+    // -----------------------
+    // LibraryRepository.Listener (main thread)
+    // -----------------------
+
+    @Override
+    public void onLibraryPage(LibrarySnapshot snapshot, int from, int count, int expectedTotal) {
+        synchronized (this) { backgroundSnapshot = snapshot; }
+        feedBackground();
+    }
+
+    @Override
+    public void onLibraryLoaded(LibrarySnapshot snapshot, boolean replaced) {
+        restartBackground(snapshot);
+    }
+
+    @Override
+    public void onLibraryChanged(LibrarySnapshot snapshot, LibraryDelta delta) {
+        restartBackground(snapshot);
+    }
+
+    @Override
+    public void onLibraryError(Exception e) {}
+}
@@ -0,0 +1,172 @@
+package com.example.musicapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MP4/M4A metadata: iTunes-style items under moov/udta/meta/ilst, the duration from
+ * mvhd and the sample rate from the first track's mdhd. Top-level atoms are walked by
+ * their 8-byte headers only, so just the moov atom is mapped, wherever it sits in the
+ * file. Used by {@link TagReader}.
+ */
+final class Mp4TagParser {
+
+    private static final int DATA_TYPE_PNG = 14;
+
+    private Mp4TagParser() {}
+
+    static void read(TagReader r, FileChannel ch, TagReader.Visitor v) throws IOException {
+        long size = ch.size();
+        long pos = 0;
+        long mdatSize = 0;
+        long durationMs = 0;
+        int sampleRate = 0;
+
+        while (pos + 8 <= size) {
+            ByteBuffer h = r.readAt(ch, pos, 16);
+            if (h == null) h = r.readAt(ch, pos, 8);
+            if (h == null) return;
+
+            long atomSize = TagReader.u32be(h, 0);
+            int headerLen = 8;
+            if (atomSize == 1) {
+                if (h.limit() < 16) return;
+                atomSize = (TagReader.u32be(h, 8) << 32) | TagReader.u32be(h, 12);
+                headerLen = 16;
+            } else if (atomSize == 0) {
+                atomSize = size - pos;
+            }
+            if (atomSize < headerLen) return;
+
+            if (TagReader.matches(h, 4, "moov")) {
+                ByteBuffer moov = r.map(ch, pos + headerLen, atomSize - headerLen);
+                long[] info = new long[2];
+                readMoov(r, moov, 0, moov.limit(), info, v);
+                durationMs = info[0];
+                sampleRate = (int) info[1];
+            } else if (TagReader.matches(h, 4, "mdat")) {
+                mdatSize += atomSize - headerLen;
+            }
+            pos += atomSize;
+        }
+
+        int bitrate = (durationMs > 0) ? (int) (mdatSize * 8000 / durationMs) : 0;
+        v.onStreamInfo(durationMs, sampleRate, bitrate);
+    }
+
+    /** Walks the children of moov; fills info[0] = duration ms, info[1] = sample rate. */
+    private static void readMoov(TagReader r, ByteBuffer b, int pos, int end, long[] info, TagReader.Visitor v) {
+        boolean sawTrack = false;
+        for (int child = pos; child + 8 <= end; ) {
+            int size = (int) TagReader.u32be(b, child);
+            if (size < 8 || size > end - child) return;
+            int body = child + 8;
+            int childEnd = child + size;
+
+            if (TagReader.matches(b, child + 4, "mvhd")) {
+                info[0] = readMvhdDuration(b, body, childEnd);
+            } else if (TagReader.matches(b, child + 4, "trak") && !sawTrack) {
+                sawTrack = true;
+                int mdia = find(b, body, childEnd, "mdia");
+                int mdhd = (mdia < 0) ? -1 : find(b, mdia + 8, mdia + (int) TagReader.u32be(b, mdia), "mdhd");
+                if (mdhd >= 0) info[1] = readMdhdTimescale(b, mdhd + 8, mdhd + (int) TagReader.u32be(b, mdhd));
+            } else if (TagReader.matches(b, child + 4, "udta")) {
+                int meta = find(b, body, childEnd, "meta");
+                if (meta >= 0) {
+                    int metaEnd = meta + (int) TagReader.u32be(b, meta);
+                    // meta is a full box: 4 bytes of version/flags before its children
+                    int ilst = find(b, meta + 12, metaEnd, "ilst");
+                    if (ilst >= 0) readIlst(r, b, ilst + 8, ilst + (int) TagReader.u32be(b, ilst), v);
+                }
+            }
+            child = childEnd;
+        }
+    }
+
+    private static long readMvhdDuration(ByteBuffer b, int body, int end) {
+        int version = TagReader.u8(b, body);
+        long timescale, duration;
+        if (version == 1) {
+            if (body + 32 > end) return 0;
+            timescale = TagReader.u32be(b, body + 20);
+            duration = (TagReader.u32be(b, body + 24) << 32) | TagReader.u32be(b, body + 28);
+        } else {
+            if (body + 20 > end) return 0;
+            timescale = TagReader.u32be(b, body + 12);
+            duration = TagReader.u32be(b, body + 16);
+        }
+        return (timescale > 0) ? duration * 1000 / timescale : 0;
+    }
+
+    private static long readMdhdTimescale(ByteBuffer b, int body, int end) {
+        int offset = (TagReader.u8(b, body) == 1) ? 20 : 12;
+        return (body + offset + 4 <= end) ? TagReader.u32be(b, body + offset) : 0;
+    }
+
+    private static void readIlst(TagReader r, ByteBuffer b, int pos, int end, TagReader.Visitor v) {
+        for (int item = pos; item + 8 <= end; ) {
+            int size = (int) TagReader.u32be(b, item);
+            if (size < 8 || size > end - item) return;
+            int itemEnd = item + size;
+
+            int data = find(b, item + 8, itemEnd, "data");
+            if (data >= 0) {
+                int dataEnd = data + (int) TagReader.u32be(b, data);
+                int type = (int) (TagReader.u32be(b, data + 8) & 0xFFFFFF);
+                int payload = data + 16; // size, "data", type, locale
+                if (payload <= dataEnd) visitItem(r, b, item + 4, type, payload, dataEnd, v);
+            }
+            item = itemEnd;
+        }
+    }
+
+    private static void visitItem(TagReader r, ByteBuffer b, int name, int type, int start, int end,
+                                  TagReader.Visitor v) {
+        if (TagReader.matches(b, name, "trkn")) {
+            // Binary: 2 bytes padding, track, total
+            if (start + 4 <= end) {
+                int track = TagReader.u16be(b, start + 2);
+                if (track > 0) v.onTextField(TagReader.FIELD_TRACK, r.number(track));
+            }
+            return;
+        }
+        if (TagReader.matches(b, name, "covr")) {
+            if (end > start) {
+                b.limit(end).position(start);
+                v.onPicture(type == DATA_TYPE_PNG ? "image/png" : "image/jpeg", b);
+                b.clear();
+            }
+            return;
+        }
+
+        int field = fieldFor(b, name);
+        if (field != 0 && end > start) v.onTextField(field, r.decode(b, start, end - start, StandardCharsets.UTF_8));
+    }
+
+    private static int fieldFor(ByteBuffer b, int name) {
+        // Most item names start with the copyright sign (0xA9), which isn't ASCII
+        if (TagReader.u8(b, name) == 0xA9) {
+            if (TagReader.matches(b, name + 1, "nam")) return TagReader.FIELD_TITLE;
+            if (TagReader.matches(b, name + 1, "ART")) return TagReader.FIELD_ARTIST;
+            if (TagReader.matches(b, name + 1, "alb")) return TagReader.FIELD_ALBUM;
+            if (TagReader.matches(b, name + 1, "day")) return TagReader.FIELD_YEAR;
+            if (TagReader.matches(b, name + 1, "gen")) return TagReader.FIELD_GENRE;
+            return 0;
+        }
+        if (TagReader.matches(b, name, "aART")) return TagReader.FIELD_ALBUM_ARTIST;
+        return 0;
+    }
+
+    /** Offset of the first child atom of {@code type} in [pos, end), or -1. */
+    private static int find(ByteBuffer b, int pos, int end, String type) {
+        for (int child = pos; child + 8 <= end; ) {
+            int size = (int) TagReader.u32be(b, child);
+            if (size < 8 || size > end - child) return -1;
+            if (TagReader.matches(b, child + 4, type)) return child;
+            child += size;
+        }
+        return -1;
+    }
+}
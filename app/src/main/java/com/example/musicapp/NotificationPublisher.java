@@ -0,0 +1,143 @@
+package com.example.musicapp;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+
+import androidx.core.app.NotificationCompat;
+import androidx.media.app.NotificationCompat.MediaStyle;
+import androidx.media.session.MediaButtonReceiver;
+
+/**
+ * The playback service's foreground notification. The PendingIntents and one builder per
+ * play/pause state are made once; {@link #update} only records what should be visible,
+ * and at most one notification per {@link #FRAME_MS} is posted, and only if the title,
+ * play/pause state or artwork differs from what is already showing. A burst of skips
+ * therefore costs one post for where it ends rather than several per track.
+ *
+ * Called on the thread of the handler it is given.
+ */
+final class NotificationPublisher {
+
+    static final long FRAME_MS = 16;
+
+    private static final String CHANNEL_ID = "music_playback";
+    private static final int NOTIF_ID = 42;
+
+    private final Service service;
+    private final Handler handler;
+    private final NotificationManager notificationManager;
+    private final NotificationCompat.Builder playingBuilder;
+    private final NotificationCompat.Builder pausedBuilder;
+
+    // What should be visible, and what was last posted
+    private String title;
+    private boolean playing;
+    private Bitmap artwork;
+    private String shownTitle;
+    private boolean shownPlaying;
+    private Bitmap shownArtwork;
+    private boolean posted = false;
+
+    private boolean scheduled = false;
+    private long lastPostAt = 0;
+    private final Runnable publish = this::publish;
+
+    NotificationPublisher(Service service, MediaSessionCompat.Token session, Handler handler) {
+        this.service = service;
+        this.handler = handler;
+        this.notificationManager = (NotificationManager) service.getSystemService(Service.NOTIFICATION_SERVICE);
+        createChannel();
+
+        Intent openApp = new Intent(service, MainActivity.class);
+        PendingIntent contentPi = PendingIntent.getActivity(
+                service, 0, openApp,
+                PendingIntent.FLAG_UPDATE_CURRENT | (Build.VERSION.SDK_INT >= 23 ? PendingIntent.FLAG_IMMUTABLE : 0)
+        );
+        // Media buttons, as headsets send them: the service is exported for media browsers,
+        // so it takes no commands of its own from intents
+        PendingIntent prevPi = MediaButtonReceiver.buildMediaButtonPendingIntent(
+                service, PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS);
+        PendingIntent togglePi = MediaButtonReceiver.buildMediaButtonPendingIntent(
+                service, PlaybackStateCompat.ACTION_PLAY_PAUSE);
+        PendingIntent nextPi = MediaButtonReceiver.buildMediaButtonPendingIntent(
+                service, PlaybackStateCompat.ACTION_SKIP_TO_NEXT);
+
+        playingBuilder = baseBuilder(contentPi, session)
+                .setContentText("Playing")
+                .setOngoing(true)
+                .addAction(android.R.drawable.ic_media_previous, "Prev", prevPi)
+                .addAction(android.R.drawable.ic_media_pause, "Pause", togglePi)
+                .addAction(android.R.drawable.ic_media_next, "Next", nextPi);
+        pausedBuilder = baseBuilder(contentPi, session)
+                .setContentText("Paused")
+                .setOngoing(false)
+                .addAction(android.R.drawable.ic_media_previous, "Prev", prevPi)
+                .addAction(android.R.drawable.ic_media_play, "Play", togglePi)
+                .addAction(android.R.drawable.ic_media_next, "Next", nextPi);
+    }
+
+    /** Records what the notification should show; it is posted within a frame if anything changed. */
+    void update(String title, boolean playing, Bitmap artwork) {
+        this.title = title;
+        this.playing = playing;
+        this.artwork = artwork;
+        if (scheduled) return;
+
+        scheduled = true;
+        handler.postAtTime(publish, Math.max(SystemClock.uptimeMillis(), lastPostAt + FRAME_MS));
+    }
+
+    /** Drops a pending post (e.g. before the service stops being foreground). */
+    void cancel() {
+        handler.removeCallbacks(publish);
+        scheduled = false;
+    }
+
+    private void publish() {
+        scheduled = false;
+        if (posted && playing == shownPlaying && artwork == shownArtwork && title.equals(shownTitle)) return;
+
+        NotificationCompat.Builder b = playing ? playingBuilder : pausedBuilder;
+        Notification notif = b.setContentTitle(title).setLargeIcon(artwork).build();
+
+        // The first post makes the service foreground; later ones only replace the notification
+        if (!posted) service.startForeground(NOTIF_ID, notif);
+        else if (notificationManager != null) notificationManager.notify(NOTIF_ID, notif);
+
+        posted = true;
+        shownTitle = title;
+        shownPlaying = playing;
+        shownArtwork = artwork;
+        lastPostAt = SystemClock.uptimeMillis();
+    }
+
+    private NotificationCompat.Builder baseBuilder(PendingIntent contentPi, MediaSessionCompat.Token session) {
+        return new NotificationCompat.Builder(service, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setContentIntent(contentPi)
+                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+                .setStyle(new MediaStyle()
+                        .setMediaSession(session)
+                        .setShowActionsInCompactView(0, 1, 2));
+    }
+
+    private void createChannel() {
+        if (Build.VERSION.SDK_INT < 26) return;
+        NotificationChannel ch = new NotificationChannel(
+                CHANNEL_ID,
+                "Music playback",
+                NotificationManager.IMPORTANCE_LOW
+        );
+        if (notificationManager != null) notificationManager.createNotificationChannel(ch);
+    }
+}
@@ -1,57 +1,237 @@
 package com.example.musicapp;
 
-import android.app.Notification;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
-import android.net.Uri;
+import android.media.MediaTimestamp;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.provider.MediaStore;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.app.NotificationCompat;
-import androidx.media.app.NotificationCompat.MediaStyle;
+import androidx.media.MediaBrowserServiceCompat;
+import androidx.media.MediaSessionManager;
 import androidx.media.session.MediaButtonReceiver;
+import androidx.media.utils.MediaConstants;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import android.view.KeyEvent;
 
-public class PlaybackService extends Service {
+/**
+ * Plays the queue, and is also a media browser service: Android Auto, Wear and other
+ * controllers bind with {@link #SERVICE_INTERFACE} and browse and search a
+ * {@link BrowseTree}, while MainActivity binds as before and gets the {@link LocalBinder}.
+ */
+public class PlaybackService extends MediaBrowserServiceCompat {
+
+    private static final String TAG = "PlaybackService";
+
+    private static final String PREFS_NAME = "playback_state";
+    private static final String KEY_SHUFFLE = "shuffle_v1"; // "seed bits origin position [holes...]", absent when off
+
+    private static final long CHECKPOINT_INTERVAL_MS = 5000;
+    private static final long WARM_BACKOFF_MS = 60_000;
+    private static final long SKIP_SETTLE_MS = 150;
+    private static final long GAP_SAMPLE_DELAY_MS = 500; // until a started player's clock is steady
+
+    private static final long SESSION_ACTIONS = PlaybackStateCompat.ACTION_PLAY
+            | PlaybackStateCompat.ACTION_PAUSE
+            | PlaybackStateCompat.ACTION_PLAY_PAUSE
+            | PlaybackStateCompat.ACTION_SKIP_TO_NEXT
+            | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS
+            | PlaybackStateCompat.ACTION_STOP
+            | PlaybackStateCompat.ACTION_SET_SHUFFLE_MODE
+            | PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID
+            | PlaybackStateCompat.ACTION_PLAY_FROM_SEARCH;
+
+    /** Media browsers outside the system image that may see the library (see {@link #isTrustedClient}). */
+    private static final Set<String> BROWSER_ALLOW_LIST = new HashSet<>(Arrays.asList(
+            "com.google.android.projection.gearhead",   // Android Auto
+            "com.google.android.wearable.app",          // Wear OS companion
+            "com.google.android.autosimulator",         // Desktop Head Unit
+            "com.google.android.googlequicksearchbox")); // Assistant
 
-    public static final String ACTION_TOGGLE = "com.example.musicapp.action.TOGGLE";
-    public static final String ACTION_NEXT   = "com.example.musicapp.action.NEXT";
-    public static final String ACTION_PREV   = "com.example.musicapp.action.PREV";
-    public static final String ACTION_PLAY_SONG = "com.example.musicapp.action.PLAY_SONG";
+    private final IBinder binder = new LocalBinder();
 
-    public static final String ACTION_STATE_CHANGED = "com.example.musicapp.action.STATE_CHANGED";
+    // -----------------------
+    // Playback thread: owns the player, the queue and all the state below. Other threads
+    // post commands to it and read the State it publishes.
+    // -----------------------
+    private final HandlerThread playbackThread = new HandlerThread("playback");
+    private Handler playbackHandler;
+    private volatile State state = State.EMPTY;
 
-    public static final String EXTRA_SONG_ID = "extra_song_id";
+    /** What other threads may read; replaced (never modified) by the playback thread on each change. */
+    private static final class State {
+        static final State EMPTY = new State(new VersionedQueue().snapshot(), PlaybackState.NONE);
 
-    private static final String CHANNEL_ID = "music_playback";
-    private static final int NOTIF_ID = 42;
+        final VersionedQueue.Snapshot queue;
+        final PlaybackState playback;
 
-    private final IBinder binder = new LocalBinder();
+        State(VersionedQueue.Snapshot queue, PlaybackState playback) {
+            this.queue = queue;
+            this.playback = playback;
+        }
+    }
+
+    // -----------------------
+    // In-process observers (main thread)
+    // -----------------------
+
+    /** Told about each change of {@link PlaybackState}, on the main thread. */
+    public interface StateListener {
+        void onPlaybackStateChanged(PlaybackState state);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<StateListener> stateListeners = new ArrayList<>();
+    private final AtomicBoolean dispatchPending = new AtomicBoolean(false);
+    private final Runnable dispatchState = this::dispatchState;
+    private PlaybackState delivered = PlaybackState.NONE;
 
     private MediaPlayer mediaPlayer;
     private boolean isPrepared = false;
 
-    private final ArrayList<Song> queueSongs = new ArrayList<>();
-    private final ArrayList<Song> librarySongs = new ArrayList<>();
+    // -----------------------
+    // Warm players: the songs after and before the head, prepared ahead; the next one is
+    // chained with setNextMediaPlayer for gapless playback
+    // -----------------------
+    private final PlayerPool pool = new PlayerPool(this, this::onWarmPrepared);
+    private Song chainedSong; // the pool's player for it is set as the current one's next
+
+    // After memory pressure, stop re-warming for a while (callers fall back to preparing on demand)
+    private long warmPreviousAfterMs = 0;
+    private long warmNextAfterMs = 0;
+
+    // Silence between tracks, chained vs. prepared after completion, measured on the players'
+    // output clocks (MediaTimestamp) rather than on when callbacks reach this thread
+    private final GapStats chainedGaps = new GapStats("chained");
+    private final GapStats unchainedGaps = new GapStats("unchained");
+    private MediaTimestamp outputClock; // a sample of the current player's, while it plays
+    private long outputClockDurationMs;
+    private long trackEndedAtNs = 0;    // System.nanoTime the last track's final sample played
+
+    private final MediaPlayer.OnCompletionListener completionListener = mp -> onTrackCompleted();
+
+    private final VersionedQueue queueSongs = new VersionedQueue();
+    private LibraryRepository libraryRepository;
+
+    private final LibraryRepository.Listener libraryListener = new LibraryRepository.Listener() {
+        @Override
+        public void onLibraryPage(LibrarySnapshot snapshot, int from, int count, int expectedTotal) {
+            // Nothing until the scan completes: a lookup on every page would index the
+            // library over again from the playback thread each time
+        }
+
+        @Override
+        public void onLibraryLoaded(LibrarySnapshot snapshot, boolean replaced) {
+            playbackHandler.post(() -> {
+                if (!queueSongs.isEmpty()) syncCurrentIndexToSong(queueSongs.get(0));
+                scheduleRearm();
+            });
+            restoreQueueWhenLoaded();
+            notifyChildrenChanged(BrowseTree.SONGS);
+        }
+
+        @Override
+        public void onLibraryChanged(LibrarySnapshot snapshot, LibraryDelta delta) {
+            playbackHandler.post(() -> onLibraryRowsChanged(snapshot, delta));
+            notifyChildrenChanged(BrowseTree.SONGS);
+        }
+
+        @Override
+        public void onLibraryError(Exception e) {}
+    };
     private int currentIndex = -1;
 
+    // Shuffled library order once the queue runs out; null when shuffle is off
+    private ShuffleOrder shuffle;
+
+    // A skip within SKIP_SETTLE_MS of the last one is part of a burst; only its end is prepared
+    private long skipBurstUntilMs = 0;
+    private final Runnable prepareAfterSkips = () -> {
+        Song head = queueSongs.peekFirst();
+        if (head != null) playSong(head, true);
+    };
+    private final Runnable rearm = this::rearmPlayers;
+
     private MediaSessionCompat mediaSession;
+    private NotificationPublisher notifications;
+
+    // -----------------------
+    // What the media session last published. Controllers extrapolate the position from
+    // (position, update time, speed), so the state is only set again on a transition.
+    // -----------------------
+    private final PlaybackStateCompat.Builder sessionState =
+            new PlaybackStateCompat.Builder().setActions(SESSION_ACTIONS);
+    private int sessionStateCode = -1;
+    private long sessionSongId = PlaybackState.NO_SONG;
+    private Song metadataSong;        // metadata is set once per track...
+    private boolean metadataHasArtwork; // ...and again if its artwork...
+    private boolean metadataHasTags;    // ...or its tags arrive after it
+    private Song artworkSong;         // the track artwork was last loaded for, and the result
+    private Bitmap artwork;
+    private MetadataExtractor metadataExtractor;
+
+    // Main thread; the check against the track described runs on the playback thread
+    private final MetadataExtractor.Listener metadataListener =
+            batch -> playbackHandler.post(() -> onMetadataAvailable(batch));
+
+    // -----------------------
+    // Browsing (main thread; searches run on the "media-browse" thread)
+    // -----------------------
+    private BrowseTree browseTree;
+    private LibrarySearch librarySearch; // created on first search
+    private final ExecutorService browseExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "media-browse"));
+
+    // -----------------------
+    // Persistence (queue edits and position, replayed after the process is killed)
+    // -----------------------
+    private QueueJournal journal;
+    private boolean restoreStarted = false;
+    private boolean queueRestored = false; // playback thread; published in PlaybackState
+    private long pendingSeekMs = 0; // applied once the next prepared song starts
+
+    private final Runnable checkpointTicker = new Runnable() {
+        @Override
+        public void run() {
+            if (playerIsPlaying()) {
+                checkpointPosition();
+                sampleOutputClock();
+            }
+            playbackHandler.postDelayed(this, CHECKPOINT_INTERVAL_MS);
+        }
+    };
 
     // -----------------------
     // Audio focus
@@ -60,17 +240,20 @@ public class PlaybackService extends Service {
     private AudioFocusRequest audioFocusRequest; // API 26+
     private boolean resumeOnFocusGain = false;
 
-    private final AudioManager.OnAudioFocusChangeListener focusChangeListener = focusChange -> {
+    private final AudioManager.OnAudioFocusChangeListener focusChangeListener =
+            focusChange -> playbackHandler.post(() -> onAudioFocusChange(focusChange));
+
+    private void onAudioFocusChange(int focusChange) {
         switch (focusChange) {
             case AudioManager.AUDIOFOCUS_LOSS:
-                if (isPlaying()) pauseInternal(true, false);
+                if (playerIsPlaying()) pauseInternal(true, false);
                 abandonAudioFocus();
                 resumeOnFocusGain = false;
                 break;
 
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
             case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-                if (isPlaying()) {
+                if (playerIsPlaying()) {
                     resumeOnFocusGain = true;
                     pauseInternal(true, false);
                 }
@@ -83,7 +266,7 @@ public class PlaybackService extends Service {
                 }
                 break;
         }
-    };
+    }
 
     public class LocalBinder extends Binder {
         public PlaybackService getService() { return PlaybackService.this; }
@@ -92,6 +275,8 @@ public class PlaybackService extends Service {
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
+        // Media controllers get the browser; the app's own activity the local binder
+        if (SERVICE_INTERFACE.equals(intent.getAction())) return super.onBind(intent);
         return binder;
     }
 
@@ -99,7 +284,8 @@ public class PlaybackService extends Service {
     public void onCreate() {
         super.onCreate();
 
-        createNotificationChannel();
+        playbackThread.start();
+        playbackHandler = new Handler(playbackThread.getLooper());
 
         audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
 
@@ -138,7 +324,7 @@ public class PlaybackService extends Service {
                 switch (ke.getKeyCode()) {
                     case KeyEvent.KEYCODE_HEADSETHOOK:
                     case KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE:
-                        togglePlayPause();
+                        togglePlayer();
                         return true;
 
                     case KeyEvent.KEYCODE_MEDIA_PLAY:
@@ -150,11 +336,11 @@ public class PlaybackService extends Service {
                         return true;
 
                     case KeyEvent.KEYCODE_MEDIA_NEXT:
-                        playNext();
+                        skip(true);
                         return true;
 
                     case KeyEvent.KEYCODE_MEDIA_PREVIOUS:
-                        playPrevious();
+                        skip(false);
                         return true;
                 }
                 return super.onMediaButtonEvent(mediaButtonIntent);
@@ -162,191 +348,543 @@ public class PlaybackService extends Service {
 
             @Override public void onPlay() { ensurePreparedThenPlay(); }
             @Override public void onPause() { pauseInternal(false, true); }
-            @Override public void onSkipToNext() { playNext(); }
-            @Override public void onSkipToPrevious() { playPrevious(); }
+            @Override public void onSkipToNext() { skip(true); }
+            @Override public void onSkipToPrevious() { skip(false); }
+            @Override public void onSetShuffleMode(int shuffleMode) {
+                applyShuffle(shuffleMode != PlaybackStateCompat.SHUFFLE_MODE_NONE);
+            }
+            @Override public void onPlayFromMediaId(String mediaId, Bundle extras) {
+                // The tree reads playlists on the main thread; the queue is set back here
+                mainHandler.post(() -> {
+                    List<Song> songs = browseTree.queueFor(mediaId);
+                    if (songs != null) playbackHandler.post(() -> playSongs(songs));
+                });
+            }
+            @Override public void onPlayFromSearch(String query, Bundle extras) {
+                if (query == null || query.trim().isEmpty()) {
+                    // "Play music" with nothing more specific: carry on with the queue
+                    if (mediaPlayer != null && isPrepared) ensurePreparedThenPlay();
+                    else if (!queueSongs.isEmpty()) playSong(queueSongs.get(0), true);
+                    return;
+                }
+                mainHandler.post(() -> searchLibrary(query, hits -> {
+                    if (!hits.isEmpty()) playbackHandler.post(() -> playSongs(hits.subList(0, 1)));
+                }));
+            }
             @Override public void onStop() {
                 pauseInternal(false, true);
                 stopSelf();
             }
-        });
+        }, playbackHandler); // runs on the playback thread, like every other command
 
+        mediaSession.setPlaybackState(sessionState
+                .setState(PlaybackStateCompat.STATE_NONE, 0, 0f, SystemClock.elapsedRealtime()).build());
         mediaSession.setActive(true);
-        loadLibraryNewestFirst();
+        setSessionToken(mediaSession.getSessionToken());
+        notifications = new NotificationPublisher(this, mediaSession.getSessionToken(), playbackHandler);
+
+        metadataExtractor = MetadataExtractor.get(this);
+        metadataExtractor.addListener(metadataListener);
+        loadShuffleState();
+
+        journal = new QueueJournal(getFilesDir());
+        playbackHandler.postDelayed(checkpointTicker, CHECKPOINT_INTERVAL_MS);
+
+        // Shares the activity's scan; only queries MediaStore if nothing has loaded it yet
+        libraryRepository = LibraryRepository.get(this);
+        libraryRepository.acquire();
+        libraryRepository.addListener(libraryListener);
+        libraryRepository.ensureLoaded();
+        restoreQueueWhenLoaded();
+
+        browseTree = new BrowseTree(this, libraryRepository, metadataExtractor);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level == TRIM_MEMORY_UI_HIDDEN) return; // the UI went away; not memory pressure
+        playbackHandler.post(() -> trimPlayers(level));
+    }
+
+    private void trimPlayers(int level) {
+        // Spare players go first; the chained next track too once memory is critical
+        boolean critical = level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_COMPLETE;
+        long now = SystemClock.elapsedRealtime();
+        warmPreviousAfterMs = now + WARM_BACKOFF_MS;
+        if (critical) {
+            warmNextAfterMs = now + WARM_BACKOFF_MS;
+            unchain();
+        }
+        pool.trim(critical ? null : chainedSong);
+    }
+
+    /**
+     * The service is exported (media browsers bind to it), so any app can start it: the
+     * only intents acted on are media buttons, which anything may send anyway. The
+     * notification's controls are media buttons too; the activity calls methods instead.
+     */
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent == null) return START_STICKY;
-        if (Intent.ACTION_MEDIA_BUTTON.equals(intent.getAction())) {
+        if (intent != null && Intent.ACTION_MEDIA_BUTTON.equals(intent.getAction())) {
             MediaButtonReceiver.handleIntent(mediaSession, intent);
-            return START_STICKY;
-        }
-
-        // Your existing actions
-        String action = intent.getAction();
-        if (ACTION_TOGGLE.equals(action)) {
-            togglePlayPause();
-        } else if (ACTION_NEXT.equals(action)) {
-            playNext();
-        } else if (ACTION_PREV.equals(action)) {
-            playPrevious();
-        } else if (ACTION_PLAY_SONG.equals(action)) {
-            long songId = intent.getLongExtra(EXTRA_SONG_ID, -1L);
-            if (songId != -1L) {
-                Song s = findInLibraryById(songId);
-                if (s != null) {
-                    setQueueToSingleSong(s);
-                    playSong(s, true);
-                }
-            }
         }
-
         return START_STICKY;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        abandonAudioFocus();
-        releasePlayer();
-        if (mediaSession != null) {
+        libraryRepository.removeListener(libraryListener);
+        libraryRepository.release();
+        metadataExtractor.removeListener(metadataListener);
+
+        // Commands already queued still run; the teardown runs after them, then the thread ends
+        playbackHandler.post(() -> {
+            playbackHandler.removeCallbacksAndMessages(null);
+            checkpointPosition();
+            queueSongs.setChangeListener(null);
+            journal.close();
+            journal = null;
+            abandonAudioFocus();
+            releasePlayer();
+            pool.release();
+            notifications.cancel();
+            stopForeground(true);
+            // Last: every command before this one may still have used the session
             mediaSession.setActive(false);
             mediaSession.release();
+        });
+        playbackThread.quitSafely();
+        browseExecutor.shutdown();
+    }
+
+    // --------- Media browser (main thread) ---------
+
+    /**
+     * Trusted clients (see {@link #isTrustedClient}) get the library; anyone else an empty
+     * root, so they can still connect to the session for transport controls.
+     */
+    @Nullable
+    @Override
+    public BrowserRoot onGetRoot(@NonNull String clientPackageName, int clientUid, @Nullable Bundle rootHints) {
+        if (!isTrustedClient(clientPackageName, clientUid)) return new BrowserRoot(BrowseTree.EMPTY_ROOT, null);
+        Bundle extras = new Bundle();
+        extras.putBoolean(MediaConstants.BROWSER_SERVICE_EXTRAS_KEY_SEARCH_SUPPORTED, true);
+        return new BrowserRoot(BrowseTree.ROOT, extras);
+    }
+
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        if (!isTrustedCaller()) {
+            result.sendResult(Collections.emptyList());
+            return;
         }
-        stopForeground(true);
+        result.sendResult(browseTree.children(parentId, -1, -1));
     }
 
-    public ArrayList<Song> getQueueSnapshot() {
-        return new ArrayList<>(queueSongs);
+    /**
+     * Overridden so paging is applied while building the items: the default would build
+     * every child and then slice the list.
+     */
+    @Override
+    public void onLoadChildren(@NonNull String parentId, @NonNull Result<List<MediaBrowserCompat.MediaItem>> result,
+                               @NonNull Bundle options) {
+        if (!isTrustedCaller()) {
+            result.sendResult(Collections.emptyList());
+            return;
+        }
+        result.sendResult(browseTree.children(parentId,
+                options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1),
+                options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1)));
     }
 
-    public Song getCurrentSong() {
-        return queueSongs.isEmpty() ? null : queueSongs.get(0);
+    @Override
+    public void onSearch(@NonNull String query, @Nullable Bundle extras,
+                         @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        if (!isTrustedCaller()) {
+            result.sendResult(Collections.emptyList());
+            return;
+        }
+        int page = (extras == null) ? -1 : extras.getInt(MediaBrowserCompat.EXTRA_PAGE, -1);
+        int pageSize = (extras == null) ? -1 : extras.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1);
+        result.detach();
+        searchLibrary(query, hits -> result.sendResult(browseTree.searchPage(hits, page, pageSize)));
     }
 
-    // --------- Public API used by MainActivity ---------
+    /**
+     * Whether {@code packageName} (already matched to {@code uid} by the browser service)
+     * may browse the library: this app, the system, apps signed with this app's key, and
+     * the car and watch companions in {@link #BROWSER_ALLOW_LIST}.
+     */
+    private boolean isTrustedClient(String packageName, int uid) {
+        if (uid == Process.myUid() || uid == Process.SYSTEM_UID) return true;
+        PackageManager pm = getPackageManager();
+        if (pm.checkSignatures(Process.myUid(), uid) == PackageManager.SIGNATURE_MATCH) return true;
+        if (BROWSER_ALLOW_LIST.contains(packageName)) return true;
+        try {
+            ApplicationInfo info = pm.getApplicationInfo(packageName, 0);
+            return (info.flags & ApplicationInfo.FLAG_SYSTEM) != 0; // e.g. System UI's media controls
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
 
-    public void setLibrarySongs(ArrayList<Song> songs) {
-        librarySongs.clear();
-        if (songs != null) librarySongs.addAll(songs);
-        if (!queueSongs.isEmpty()) syncCurrentIndexToSong(queueSongs.get(0));
+    /** {@link #isTrustedClient} for the browser whose request is being handled. */
+    private boolean isTrustedCaller() {
+        MediaSessionManager.RemoteUserInfo caller = getCurrentBrowserInfo();
+        return isTrustedClient(caller.getPackageName(), caller.getUid());
     }
 
-    public void setQueueSongs(ArrayList<Song> songs) {
-        queueSongs.clear();
-        if (songs != null) queueSongs.addAll(songs);
-        if (!queueSongs.isEmpty()) syncCurrentIndexToSong(queueSongs.get(0));
-        updateNotification();
-        broadcastStateChanged();
+    /** Ranks up to {@link BrowseTree#MAX_PAGE_SIZE} matches off the main thread; {@code then} runs on main. */
+    private void searchLibrary(String query, Consumer<List<Song>> then) {
+        if (librarySearch == null) librarySearch = LibrarySearch.get(this);
+        LibrarySearch search = librarySearch;
+        browseExecutor.execute(() -> {
+            List<Song> hits = search.searchBlocking(query, BrowseTree.MAX_PAGE_SIZE);
+            mainHandler.post(() -> then.accept(hits));
+        });
     }
 
-    public void playFromQueueHead(boolean autoPlay) {
-        if (queueSongs.isEmpty()) return;
-        playSong(queueSongs.get(0), autoPlay);
+    // --------- Public API used by MainActivity (any thread; reads are lock-free) ---------
+
+    /** The queue as of the last change the playback thread published. */
+    public VersionedQueue.Snapshot getQueue() {
+        return state.queue;
+    }
+
+    /** A copy of the queue; it shares the queue's segments, so it is cheap however long the queue is. */
+    public List<Song> getQueueSnapshot() {
+        return state.queue.copy();
+    }
+
+    /** See {@link PlaybackState#queueRestored}. */
+    public boolean isQueueRestored() {
+        return state.playback.queueRestored;
+    }
+
+    public int getQueueSize() {
+        return state.queue.size();
+    }
+
+    /** Bumped by every queue edit; an unchanged version means the queue is as last seen. */
+    public long getQueueVersion() {
+        return state.queue.version();
+    }
+
+    /**
+     * Edits since {@code version}, oldest first, to replay on a mirror of the queue. Null
+     * if they are no longer all known; copy {@link #getQueueSnapshot} instead. Read both
+     * from one {@link #getQueue} snapshot if they must agree.
+     */
+    @Nullable
+    public List<QueueChange> getQueueChangesSince(long version) {
+        return state.queue.changesSince(version);
+    }
+
+    public Song getCurrentSong() {
+        return state.queue.peekFirst();
     }
 
     public boolean isPlaying() {
-        return mediaPlayer != null && isPrepared && mediaPlayer.isPlaying();
+        return state.playback.isPlaying;
+    }
+
+    public boolean isShuffleEnabled() {
+        return state.playback.shuffleEnabled;
+    }
+
+    public PlaybackState getPlaybackState() {
+        return state.playback;
+    }
+
+    /** Main thread. Called on each change from now on; read {@link #getPlaybackState} for the current one. */
+    public void addStateListener(StateListener l) {
+        if (!stateListeners.contains(l)) stateListeners.add(l);
+    }
+
+    public void removeStateListener(StateListener l) {
+        stateListeners.remove(l);
+    }
+
+    /**
+     * Queues every edit in {@code batch} to be applied together, or returns false if any is
+     * out of range for the current queue or the queue has moved past the version the batch
+     * is {@link QueueBatch#basedOn}. Both are checked again when it is applied, and the batch
+     * is dropped if either fails then. Does not start playback; see
+     * {@link #playFromQueueHead}.
+     */
+    public boolean applyQueueBatch(QueueBatch batch) {
+        VersionedQueue.Snapshot queue = state.queue;
+        if (batch.isEmpty() || !batch.fits(queue.version(), queue.size())) return false;
+        playbackHandler.post(() -> applyBatch(batch));
+        return true;
+    }
+
+    public void playFromQueueHead(boolean autoPlay) {
+        playbackHandler.post(() -> {
+            if (!queueSongs.isEmpty()) playSong(queueSongs.get(0), autoPlay);
+        });
     }
 
     public void togglePlayPause() {
-        if (mediaPlayer == null || !isPrepared) return;
-        if (mediaPlayer.isPlaying()) pauseInternal(false, true);
-        else ensurePreparedThenPlay();
+        playbackHandler.post(this::togglePlayer);
     }
 
     public void playNext() {
-        if (queueSongs.isEmpty()) return;
+        playbackHandler.post(() -> skip(true));
+    }
 
-        syncCurrentIndexToSong(queueSongs.get(0));
+    public void playPrevious() {
+        playbackHandler.post(() -> skip(false));
+    }
 
-        if (queueSongs.size() > 1) {
-            queueSongs.remove(0);
-            Song next = queueSongs.get(0);
-            playSong(next, true);
-            return;
+    /**
+     * Shuffle applies where the library takes over from the queue (next after the last
+     * queued song, and previous). Turning it on starts a new shuffled cycle from the
+     * current song.
+     */
+    public void setShuffleEnabled(boolean enabled) {
+        playbackHandler.post(() -> applyShuffle(enabled));
+    }
+
+    // --------- Commands (playback thread) ---------
+
+    /** The notification is rebuilt only if the head changed, and one state update covers the whole batch. */
+    private void applyBatch(QueueBatch batch) {
+        if (!batch.fits(queueSongs.version(), queueSongs.size())) return;
+
+        Song headBefore = queueSongs.peekFirst();
+        long versionBefore = queueSongs.version();
+        batch.applyTo(queueSongs);
+        if (queueSongs.version() == versionBefore) return;
+
+        Song head = queueSongs.peekFirst();
+        if (head != headBefore) {
+            syncCurrentIndexToSong(head);
+            updateNotification();
         }
+        scheduleRearm();
+        publishState();
+    }
+
+    private void togglePlayer() {
+        if (mediaPlayer == null || !isPrepared) return;
+        if (mediaPlayer.isPlaying()) pauseInternal(false, true);
+        else ensurePreparedThenPlay();
+    }
 
-        if (!librarySongs.isEmpty()) {
-            currentIndex = (currentIndex + 1) % librarySongs.size();
-            Song s = librarySongs.get(currentIndex);
-            setQueueToSingleSong(s);
-            playSong(s, true);
+    /**
+     * Next ({@code forward}) or Previous. The queue moves at once; the player follows at
+     * once too unless this press is part of a burst and the target isn't warm, in which
+     * case it is prepared only when the presses stop, so ten quick skips cost one prepare.
+     */
+    private void skip(boolean forward) {
+        if (forward && queueSongs.isEmpty()) return;
+        Song target = forward ? advanceToNext() : advanceToPrevious();
+        if (target == null) return;
+
+        long now = SystemClock.elapsedRealtime();
+        boolean inBurst = now < skipBurstUntilMs;
+        skipBurstUntilMs = now + SKIP_SETTLE_MS;
+
+        if (!inBurst || pool.peek(target) != null) {
+            playSong(target, true);
+            return;
         }
+        releasePlayer();
+        playbackHandler.removeCallbacks(prepareAfterSkips);
+        playbackHandler.postDelayed(prepareAfterSkips, SKIP_SETTLE_MS);
+        updateNotification();
+        publishState();
     }
 
-    public void playPrevious() {
-        if (librarySongs.isEmpty()) return;
+    private Song advanceToPrevious() {
+        LibrarySnapshot librarySongs = libraryRepository.getSnapshot();
+        if (librarySongs.isEmpty()) return null;
 
-        currentIndex = (currentIndex - 1 + librarySongs.size()) % librarySongs.size();
+        currentIndex = stepLibraryIndex(librarySongs.size(), -1);
         Song s = librarySongs.get(currentIndex);
         setQueueToSingleSong(s);
-        playSong(s, true);
+        return s;
     }
 
-    // --------- Core playback ---------
-
-    private void playSong(Song s, boolean autoPlay) {
-        syncCurrentIndexToSong(s);
-        releasePlayer();
-
-        mediaPlayer = new MediaPlayer();
-        isPrepared = false;
+    /**
+     * Moves on as Next does (through the queue, then the library) without playing; the
+     * new head is returned, or null if there is nowhere to go.
+     */
+    private Song advanceToNext() {
+        if (!queueSongs.isEmpty()) syncCurrentIndexToSong(queueSongs.get(0));
+        if (queueSongs.size() > 1) return queueSongs.advanceHead();
 
-        AudioAttributes attrs = null;
+        LibrarySnapshot librarySongs = libraryRepository.getSnapshot();
+        if (librarySongs.isEmpty()) return null;
+        currentIndex = stepLibraryIndex(librarySongs.size(), 1);
+        Song s = librarySongs.get(currentIndex);
+        setQueueToSingleSong(s);
+        return s;
+    }
 
-        if (Build.VERSION.SDK_INT >= 21) {
-            attrs = new AudioAttributes.Builder()
-                    .setUsage(AudioAttributes.USAGE_MEDIA)
-                    .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-                    .build();
-            mediaPlayer.setAudioAttributes(attrs);
+    private void applyShuffle(boolean enabled) {
+        if (enabled == (shuffle != null)) return;
+        if (enabled) {
+            int n = libraryRepository.getSnapshot().size();
+            int row = (currentIndex >= 0 && currentIndex < n) ? n - 1 - currentIndex : -1;
+            shuffle = ShuffleOrder.start(new Random().nextLong(), n, row);
         } else {
-            mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+            shuffle = null;
         }
+        saveShuffleState();
+        scheduleRearm();
+        mediaSession.setShuffleMode(enabled
+                ? PlaybackStateCompat.SHUFFLE_MODE_ALL : PlaybackStateCompat.SHUFFLE_MODE_NONE);
+        publishState();
+    }
 
+    /** Library index after ({@code step} 1) or before (-1) currentIndex, shuffled if shuffle is on. */
+    private int stepLibraryIndex(int n, int step) {
+        if (shuffle == null) return (currentIndex + step + n) % n;
+
+        // Shuffle rows count oldest first, so songs added later don't move anyone's place
+        int row = (step > 0) ? shuffle.next(n) : shuffle.previous(n);
+        saveShuffleState();
+        return n - 1 - row;
+    }
+
+    private void loadShuffleState() {
+        String saved = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getString(KEY_SHUFFLE, null);
+        if (saved == null) return;
         try {
-            mediaPlayer.setDataSource(this, s.uri);
-        } catch (IOException e) {
-            releasePlayer();
-            return;
+            String[] f = saved.split(" ");
+            int[] holes = new int[f.length - 4];
+            for (int i = 0; i < holes.length; i++) holes[i] = Integer.parseInt(f[4 + i]);
+            shuffle = new ShuffleOrder(Long.parseLong(f[0]), Integer.parseInt(f[1]),
+                    Long.parseLong(f[2]), Long.parseLong(f[3]), holes);
+            mediaSession.setShuffleMode(PlaybackStateCompat.SHUFFLE_MODE_ALL);
+        } catch (RuntimeException e) {
+            shuffle = null; // unreadable; start unshuffled
         }
+    }
 
-        final AudioAttributes finalAttrs = attrs;
+    private void saveShuffleState() {
+        String value = null;
+        if (shuffle != null) {
+            StringBuilder sb = new StringBuilder().append(shuffle.seed()).append(' ').append(shuffle.bits())
+                    .append(' ').append(shuffle.origin()).append(' ').append(shuffle.position());
+            for (int hole : shuffle.holes()) sb.append(' ').append(hole);
+            value = sb.toString();
+        }
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putString(KEY_SHUFFLE, value).apply();
+    }
 
-        mediaPlayer.setOnPreparedListener(mp -> {
+    // --------- Queue persistence ---------
+
+    /** Replays the journal once the library can resolve its song ids; the file is read off the main thread. */
+    private void restoreQueueWhenLoaded() {
+        if (restoreStarted || !libraryRepository.isLoaded()) return;
+        restoreStarted = true;
+        journal.restore(libraryRepository.getSnapshot(),
+                restored -> playbackHandler.post(() -> onQueueRestored(restored)));
+    }
+
+    private void onQueueRestored(QueueJournal.Restored restored) {
+        if (journal == null) return; // destroyed while the journal was being read
+
+        // Anything queued while the journal was being read wins over the restored queue
+        long positionMs = 0;
+        if (queueSongs.version() == 0 && !restored.songs.isEmpty()) {
+            queueSongs.replaceAll(restored.songs);
+            pendingSeekMs = restored.positionMs;
+            positionMs = restored.positionMs;
+            playSong(queueSongs.get(0), false);
+        } else if (mediaPlayer != null && isPrepared) {
+            positionMs = mediaPlayer.getCurrentPosition();
+        }
+
+        // Start the journal over from the live queue, then log every edit after it
+        journal.reset(queueSongs.copy(), positionMs);
+        queueSongs.setChangeListener(journal::record);
+
+        // Lets a bound activity seed the queue if there was nothing to restore
+        queueRestored = true;
+        publishState();
+    }
+
+    private void checkpointPosition() {
+        Song head = queueSongs.peekFirst();
+        if (head == null || journal == null) return;
+        long positionMs = (mediaPlayer != null && isPrepared) ? mediaPlayer.getCurrentPosition() : 0;
+        journal.checkpoint(head.id, positionMs);
+    }
+
+    // --------- Core playback ---------
+
+    private void playSong(Song s, boolean autoPlay) {
+        playbackHandler.removeCallbacks(prepareAfterSkips);
+        syncCurrentIndexToSong(s);
+        loadArtwork(s);
+        final long seekMs = pendingSeekMs;
+        pendingSeekMs = 0;
+        final long endedAtNs = trackEndedAtNs;
+        trackEndedAtNs = 0;
+
+        // A warm player (e.g. the chained successor, already playing) skips the prepare
+        MediaPlayer warm = pool.take(s);
+        releasePlayer();
+
+        if (warm != null) {
+            mediaPlayer = warm;
             isPrepared = true;
+            warm.setOnCompletionListener(completionListener);
+            onPlayerPrepared(warm, autoPlay, seekMs, endedAtNs);
+            return;
+        }
 
-            if (autoPlay) {
-                boolean focusGranted = requestAudioFocus(finalAttrs);
-                if (focusGranted) mp.start();
-            }
+        mediaPlayer = pool.obtain(s);
+        if (mediaPlayer == null) return;
 
-            updateNotification();
-            broadcastStateChanged();
+        mediaPlayer.setOnPreparedListener(mp -> {
+            isPrepared = true;
+            onPlayerPrepared(mp, autoPlay, seekMs, endedAtNs);
         });
+        mediaPlayer.setOnCompletionListener(completionListener);
+        mediaPlayer.prepareAsync();
+        updateNotification();
+        publishState();
+    }
 
-        mediaPlayer.setOnCompletionListener(mp -> {
-            if (queueSongs.size() > 1) {
-                queueSongs.remove(0);
-                Song next = queueSongs.get(0);
-                playSong(next, true);
-            } else {
-                playNext();
+    private void onPlayerPrepared(MediaPlayer mp, boolean autoPlay, long seekMs, long endedAtNs) {
+        if (seekMs > 0) mp.seekTo((int) seekMs);
+
+        if (mp.isPlaying()) {
+            // Started by the platform as the chained successor
+            measureGap(mp, endedAtNs, chainedGaps);
+        } else if (autoPlay) {
+            boolean focusGranted = requestAudioFocus(buildFocusAudioAttributesIfNeeded());
+            if (focusGranted) {
+                mp.start();
+                measureGap(mp, endedAtNs, unchainedGaps);
             }
-        });
+        }
 
-        mediaPlayer.prepareAsync();
+        scheduleRearm();
+        publishMetadata(queueSongs.peekFirst(), mp.getDuration());
         updateNotification();
-        broadcastStateChanged();
+        publishState();
+    }
+
+    private boolean playerIsPlaying() {
+        return mediaPlayer != null && isPrepared && mediaPlayer.isPlaying();
     }
 
     private void pauseInternal(boolean fromFocusLoss, boolean abandonFocus) {
         if (mediaPlayer != null && isPrepared && mediaPlayer.isPlaying()) {
             mediaPlayer.pause();
+            outputClock = null; // the pause isn't in it
+            checkpointPosition();
         }
         updateNotification();
-        broadcastStateChanged();
+        publishState();
 
         if (abandonFocus) abandonAudioFocus();
         if (!fromFocusLoss) resumeOnFocusGain = false;
@@ -361,15 +899,163 @@ public class PlaybackService extends Service {
 
         mediaPlayer.start();
         updateNotification();
-        broadcastStateChanged();
+        publishState();
     }
 
     private void releasePlayer() {
         if (mediaPlayer != null) {
-            try { mediaPlayer.release(); } catch (Exception ignored) {}
+            unchain();
+            pool.recycle(mediaPlayer);
             mediaPlayer = null;
         }
         isPrepared = false;
+        outputClock = null;
+    }
+
+    // --------- Warm players and gapless hand-over ---------
+
+    private void onTrackCompleted() {
+        trackEndedAtNs = outputEndNs();
+        Song chained = chainedSong;
+
+        Song head = advanceToNext();
+        if (chained != null && (head == null || !PlayerPool.matches(head, chained))) {
+            // The successor changed without a re-arm reaching it; silence the chained player
+            pool.recycle(pool.take(chained));
+        }
+        // playSong takes the chained player from the pool, already playing
+        if (head != null) playSong(head, true);
+    }
+
+    /**
+     * Keeps the songs after and before the head prepared in the pool and chains the next
+     * one behind the current player. Cheap when neither has changed, so call it after
+     * anything that might have changed them.
+     */
+    private void scheduleRearm() {
+        // Coalesced, so a burst of changes (or skips) warms players only for where it settles
+        playbackHandler.removeCallbacks(rearm);
+        playbackHandler.postDelayed(rearm, SKIP_SETTLE_MS);
+    }
+
+    private void rearmPlayers() {
+        if (mediaPlayer == null || !isPrepared) return;
+        if (outputClock == null && mediaPlayer.isPlaying()) sampleOutputClock();
+
+        long now = SystemClock.elapsedRealtime();
+        Song next = (now >= warmNextAfterMs) ? peekSuccessor() : null;
+        Song previous = (now >= warmPreviousAfterMs) ? peekPredecessor() : null;
+
+        if (chainedSong != null && (next == null || !PlayerPool.matches(chainedSong, next))) unchain();
+        pool.warmOnly(next, previous);
+        chainNext(next);
+    }
+
+    /** Chains the pool's player for {@code next} behind the current one, if it is prepared yet. */
+    private void chainNext(Song next) {
+        if (chainedSong != null || next == null) return;
+        MediaPlayer p = pool.peek(next);
+        if (p == null) return; // chained from onWarmPrepared once it is ready
+
+        mediaPlayer.setNextMediaPlayer(p);
+        chainedSong = next;
+    }
+
+    private void unchain() {
+        if (chainedSong == null) return;
+        chainedSong = null;
+        if (mediaPlayer != null && isPrepared) {
+            try { mediaPlayer.setNextMediaPlayer(null); } catch (Exception ignored) {}
+        }
+    }
+
+    private void onWarmPrepared(Song song, MediaPlayer player) {
+        if (mediaPlayer == null || !isPrepared) return;
+        Song next = peekSuccessor();
+        if (next != null && PlayerPool.matches(song, next)) chainNext(next);
+    }
+
+    /** What playNext would play after the head, without moving anything; null if nothing. */
+    private Song peekSuccessor() {
+        if (queueSongs.isEmpty()) return null;
+        if (queueSongs.size() > 1) return queueSongs.get(1);
+
+        LibrarySnapshot librarySongs = libraryRepository.getSnapshot();
+        int n = librarySongs.size();
+        if (n == 0) return null;
+        int index = (shuffle == null) ? (currentIndex + 1 + n) % n : n - 1 - shuffle.peekNext(n);
+        return librarySongs.get(index);
+    }
+
+    /** What playPrevious would play, without moving anything; null if nothing. */
+    private Song peekPredecessor() {
+        LibrarySnapshot librarySongs = libraryRepository.getSnapshot();
+        int n = librarySongs.size();
+        if (n == 0) return null;
+        int index = (shuffle == null) ? (currentIndex - 1 + n) % n : n - 1 - shuffle.peekPrevious(n);
+        return librarySongs.get(index);
+    }
+
+    // --------- Gap measurement (playback thread) ---------
+
+    /** Keeps a sample of the playing player's output clock, to extrapolate when its audio ends. */
+    private void sampleOutputClock() {
+        MediaTimestamp ts = mediaPlayer.getTimestamp();
+        if (ts == null || ts.getMediaClockRate() <= 0) return;
+        outputClock = ts;
+        outputClockDurationMs = mediaPlayer.getDuration();
+    }
+
+    /** When the current track's last sample played, from the clock sample; 0 if there is none. */
+    private long outputEndNs() {
+        MediaTimestamp ts = outputClock;
+        outputClock = null;
+        if (ts == null || outputClockDurationMs <= 0) return 0;
+        long remainingUs = outputClockDurationMs * 1000 - ts.getAnchorMediaTimeUs();
+        return ts.getAnchorSystemNanoTime() + (long) (remainingUs * 1000 / ts.getMediaClockRate());
+    }
+
+    /**
+     * Records the gap from {@code endedAtNs} (0: not a track change, or unknown) to where
+     * {@code player}'s output clock puts its first sample, read once the clock has settled.
+     * Negative means the tracks overlapped.
+     */
+    private void measureGap(MediaPlayer player, long endedAtNs, GapStats stats) {
+        if (endedAtNs == 0) return;
+        playbackHandler.postDelayed(() -> {
+            if (player != mediaPlayer || !playerIsPlaying()) return;
+            MediaTimestamp ts = player.getTimestamp();
+            if (ts == null || ts.getMediaClockRate() <= 0) return;
+            long startedAtNs = ts.getAnchorSystemNanoTime()
+                    - (long) (ts.getAnchorMediaTimeUs() * 1000 / ts.getMediaClockRate());
+            stats.add((startedAtNs - endedAtNs) / 1_000_000.0);
+            outputClock = ts;
+            outputClockDurationMs = player.getDuration();
+        }, GAP_SAMPLE_DELAY_MS);
+    }
+
+    /** Running count / mean / min / max of inter-track gaps; each one is logged in debug builds. */
+    private static final class GapStats {
+        private final String label;
+        private int count;
+        private double totalMs;
+        private double minMs = Double.MAX_VALUE;
+        private double maxMs = -Double.MAX_VALUE;
+
+        GapStats(String label) {
+            this.label = label;
+        }
+
+        void add(double gapMs) {
+            count++;
+            totalMs += gapMs;
+            minMs = Math.min(minMs, gapMs);
+            maxMs = Math.max(maxMs, gapMs);
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, String.format(Locale.US, "gap %s: %.1f ms (n=%d, mean=%.1f, min=%.1f, max=%.1f ms)",
+                        label, gapMs, count, totalMs / count, minMs, maxMs));
+            }
+        }
     }
 
     // --------- Audio focus helpers ---------
@@ -422,133 +1108,181 @@ public class PlaybackService extends Service {
 
     // --------- Queue/library helpers ---------
 
+    /** Replaces the queue with {@code songs} (not empty) and plays the first. */
+    private void playSongs(List<Song> songs) {
+        queueSongs.replaceAll(songs);
+        playSong(songs.get(0), true);
+    }
+
     private void setQueueToSingleSong(Song s) {
-        queueSongs.clear();
-        queueSongs.add(s);
+        queueSongs.replaceAll(Collections.singletonList(s));
         syncCurrentIndexToSong(s);
         updateNotification();
-        broadcastStateChanged();
+        publishState();
     }
 
     private void syncCurrentIndexToSong(Song s) {
         if (s == null) return;
-        for (int i = 0; i < librarySongs.size(); i++) {
-            if (librarySongs.get(i).id == s.id) {
-                currentIndex = i;
-                return;
-            }
-        }
+        // The library snapshot may have changed since currentIndex was computed
+        int i = libraryRepository.getSnapshot().indexOfId(s.id);
+        if (i >= 0) currentIndex = i;
     }
 
-    private Song findInLibraryById(long id) {
-        for (Song s : librarySongs) if (s.id == id) return s;
-        return null;
+    /**
+     * Drops deleted files from the upcoming queue (the head keeps playing) and swaps
+     * edited rows for their new Song objects.
+     */
+    private void onLibraryRowsChanged(LibrarySnapshot snapshot, LibraryDelta delta) {
+        if (shuffle != null && delta.removed.length > 0) {
+            // Shuffle rows count oldest first, so ascending old positions remove the highest rows first
+            int oldSize = snapshot.size() - delta.inserted.length + delta.removed.length;
+            for (int position : delta.removed) shuffle.remove(oldSize - 1 - position);
+            saveShuffleState();
+        }
+        if (queueSongs.isEmpty()) return;
+
+        // One pass over the segments, O(log) per run of surviving rows. Even when nothing
+        // queued changed it leaves them on the new snapshot, so the old one can be collected
+        queueSongs.rebase(snapshot, delta);
+
+        syncCurrentIndexToSong(queueSongs.get(0));
+        scheduleRearm(); // the library successor may be a new row
+        publishState(); // also drops the published copy's hold on the old snapshot
     }
 
     // --------- Notification / lock screen controls ---------
 
+    /** Cheap to call after any change: the publisher coalesces and skips unchanged states. */
     private void updateNotification() {
-        Song current = queueSongs.isEmpty() ? null : queueSongs.get(0);
+        Song current = queueSongs.peekFirst();
         String title = (current == null) ? "Nothing loaded" : current.name;
-
-        boolean playing = isPlaying();
-
-        Intent openApp = new Intent(this, MainActivity.class);
-        PendingIntent contentPi = PendingIntent.getActivity(
-                this, 0, openApp,
-                PendingIntent.FLAG_UPDATE_CURRENT | (Build.VERSION.SDK_INT >= 23 ? PendingIntent.FLAG_IMMUTABLE : 0)
-        );
-
-        PendingIntent prevPi = actionPi(ACTION_PREV, 1);
-        PendingIntent togglePi = actionPi(ACTION_TOGGLE, 2);
-        PendingIntent nextPi = actionPi(ACTION_NEXT, 3);
-
-        NotificationCompat.Builder b = new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setSmallIcon(R.drawable.ic_launcher_foreground)
-                .setContentTitle(title)
-                .setContentText(playing ? "Playing" : "Paused")
-                .setContentIntent(contentPi)
-                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-                .setOngoing(playing)
-                .addAction(android.R.drawable.ic_media_previous, "Prev", prevPi)
-                .addAction(playing ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play,
-                        playing ? "Pause" : "Play", togglePi)
-                .addAction(android.R.drawable.ic_media_next, "Next", nextPi)
-                .setStyle(new MediaStyle()
-                        .setMediaSession(mediaSession.getSessionToken())
-                        .setShowActionsInCompactView(0, 1, 2));
-
-        Notification notif = b.build();
-        startForeground(NOTIF_ID, notif);
-    }
-
-    private PendingIntent actionPi(String action, int reqCode) {
-        Intent i = new Intent(this, PlaybackService.class);
-        i.setAction(action);
-        return PendingIntent.getService(
-                this, reqCode, i,
-                PendingIntent.FLAG_UPDATE_CURRENT | (Build.VERSION.SDK_INT >= 23 ? PendingIntent.FLAG_IMMUTABLE : 0)
-        );
+        Bitmap art = null;
+        if (current != null) {
+            // The session's large artwork once it has loaded, the list thumbnail until then
+            art = (artworkSong != null && PlayerPool.matches(artworkSong, current))
+                    ? artwork : ArtworkCache.get(this).peek(current);
+        }
+        notifications.update(title, playerIsPlaying(), art);
     }
 
-    private void createNotificationChannel() {
-        if (Build.VERSION.SDK_INT < 26) return;
-        NotificationChannel ch = new NotificationChannel(
-                CHANNEL_ID,
-                "Music playback",
-                NotificationManager.IMPORTANCE_LOW
-        );
-        NotificationManager nm = getSystemService(NotificationManager.class);
-        if (nm != null) nm.createNotificationChannel(ch);
-    }
+    // --------- MediaSession metadata (playback thread) ---------
 
-    // --------- Library load fallback ---------
+    /** Starts loading {@code s}'s session artwork unless it is the track already loaded. */
+    private void loadArtwork(Song s) {
+        if (artworkSong != null && PlayerPool.matches(artworkSong, s)) return;
+        artworkSong = s;
+        artwork = null;
+        ArtworkCache.get(this).loadLarge(s,
+                (song, bitmap) -> playbackHandler.post(() -> onArtworkLoaded(song, bitmap)));
+    }
 
-    private void loadLibraryNewestFirst() {
-        librarySongs.clear();
+    private void onArtworkLoaded(Song song, Bitmap bitmap) {
+        if (song != artworkSong) return; // skipped past it meanwhile
+        artwork = bitmap;
+        if (bitmap == null) return;
 
-        String[] projection = {
-                MediaStore.Audio.Media._ID,
-                MediaStore.Audio.Media.DISPLAY_NAME,
-                MediaStore.Audio.Media.DATE_ADDED
-        };
+        if (metadataSong != null && PlayerPool.matches(metadataSong, song) && !metadataHasArtwork
+                && mediaPlayer != null && isPrepared) {
+            publishMetadata(queueSongs.peekFirst(), mediaPlayer.getDuration());
+        }
+        updateNotification();
+    }
 
-        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
-        String sortOrder = MediaStore.Audio.Media.DATE_ADDED + " DESC";
+    /** Republishes the session metadata if the tags of the track it describes have just arrived. */
+    private void onMetadataAvailable(List<TrackMetadata> batch) {
+        if (metadataSong == null || metadataHasTags || mediaPlayer == null || !isPrepared) return;
+        for (TrackMetadata m : batch) {
+            if (m.songId == metadataSong.id) {
+                publishMetadata(queueSongs.peekFirst(), mediaPlayer.getDuration());
+                return;
+            }
+        }
+    }
 
-        try (Cursor cursor = getContentResolver().query(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                projection,
-                selection,
-                null,
-                sortOrder
-        )) {
-            if (cursor == null || !cursor.moveToFirst()) return;
+    /**
+     * Sets the session's metadata for {@code head}, unless it has already been set for this
+     * track (with its artwork and tags, if it has them). Called once the track is prepared,
+     * so a skip burst only describes where it ends, and again as artwork or tags arrive.
+     */
+    private void publishMetadata(Song head, long durationMs) {
+        if (head == null) return;
+        boolean haveArtwork = artwork != null && PlayerPool.matches(artworkSong, head);
+        TrackMetadata tags = metadataExtractor.peek(head);
+        boolean sameTrack = metadataSong != null && PlayerPool.matches(metadataSong, head);
+        if (sameTrack && (metadataHasArtwork || !haveArtwork) && (metadataHasTags || tags == null)) return;
+        if (tags == null) metadataExtractor.request(head, MetadataExtractor.PRIORITY_VISIBLE);
+
+        MediaMetadataCompat.Builder b = new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, String.valueOf(head.id))
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, head.name)
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, Math.max(0, durationMs));
+        if (tags != null) {
+            if (tags.artist != null) b.putString(MediaMetadataCompat.METADATA_KEY_ARTIST, tags.artist);
+            if (tags.album != null) b.putString(MediaMetadataCompat.METADATA_KEY_ALBUM, tags.album);
+            if (tags.trackNumber > 0) b.putLong(MediaMetadataCompat.METADATA_KEY_TRACK_NUMBER, tags.trackNumber);
+        }
+        if (haveArtwork) b.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, artwork);
 
-            int idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-            int nameCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DISPLAY_NAME);
-            int dateCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED);
+        mediaSession.setMetadata(b.build());
+        metadataSong = head;
+        metadataHasArtwork = haveArtwork;
+        metadataHasTags = tags != null;
+    }
 
-            do {
-                long id = cursor.getLong(idCol);
-                String name = cursor.getString(nameCol);
-                long dateAddedMillis = cursor.getLong(dateCol) * 1000L;
+    // --------- State publication ---------
+
+    /**
+     * Publishes the current state to readers on other threads. Observers are notified on
+     * the main thread, once for however many publishes happened before it got there.
+     */
+    private void publishState() {
+        Song head = queueSongs.peekFirst();
+        long positionMs = (mediaPlayer != null && isPrepared) ? mediaPlayer.getCurrentPosition() : 0;
+        PlaybackState playback = new PlaybackState(
+                (head == null) ? PlaybackState.NO_SONG : head.id,
+                playerIsPlaying(),
+                positionMs,
+                SystemClock.elapsedRealtime(),
+                queueSongs.version(),
+                shuffle != null,
+                queueRestored);
+        state = new State(queueSongs.snapshot(), playback);
+        publishSessionState(playback);
+
+        if (dispatchPending.compareAndSet(false, true)) mainHandler.post(dispatchState);
+    }
 
-                Uri uri = Uri.withAppendedPath(
-                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                        String.valueOf(id)
-                );
+    /**
+     * Sets the session's playback state if this is a transition: another state code or
+     * another track. In between, controllers extrapolate from the last position, its
+     * update time and the speed (1 while playing, 0 otherwise), so nothing is set per tick.
+     */
+    private void publishSessionState(PlaybackState playback) {
+        int code;
+        if (playback.songId == PlaybackState.NO_SONG) code = PlaybackStateCompat.STATE_NONE;
+        else if (playback.isPlaying) code = PlaybackStateCompat.STATE_PLAYING;
+        else if (mediaPlayer != null && isPrepared) code = PlaybackStateCompat.STATE_PAUSED;
+        else if (mediaPlayer != null || SystemClock.elapsedRealtime() < skipBurstUntilMs) {
+            code = PlaybackStateCompat.STATE_BUFFERING; // preparing, or about to once the skips settle
+        } else {
+            code = PlaybackStateCompat.STATE_STOPPED;
+        }
+        if (code == sessionStateCode && playback.songId == sessionSongId) return;
+        sessionStateCode = code;
+        sessionSongId = playback.songId;
 
-                librarySongs.add(new Song(id, name, uri, dateAddedMillis));
-            } while (cursor.moveToNext());
-        } catch (Exception ignored) {}
+        mediaSession.setPlaybackState(sessionState
+                .setState(code, playback.positionMs, playback.isPlaying ? 1f : 0f, playback.positionAtMs)
+                .build());
     }
 
-    // --------- Broadcast to Activity ---------
+    private void dispatchState() {
+        dispatchPending.set(false);
+        PlaybackState now = state.playback;
+        if (now.sameAs(delivered)) return;
+        delivered = now;
 
-    private void broadcastStateChanged() {
-        Intent i = new Intent(ACTION_STATE_CHANGED);
-        i.setPackage(getPackageName());
-        sendBroadcast(i);
+        // Other processes follow the media session, which publishSessionState keeps current
+        for (StateListener l : new ArrayList<>(stateListeners)) l.onPlaybackStateChanged(now);
     }
 }
@@ -0,0 +1,61 @@
+package com.example.musicapp;
+
+import android.os.SystemClock;
+
+/**
+ * What in-process observers of {@link PlaybackService} see: an immutable value, delivered
+ * on the main looper only when it differs from the previous one. The queue itself is not
+ * included; a changed {@link #queueVersion} means it is worth pulling the queue's changes.
+ */
+public final class PlaybackState {
+
+    /** {@link #songId} when nothing is loaded. */
+    public static final long NO_SONG = -1L;
+
+    public static final PlaybackState NONE =
+            new PlaybackState(NO_SONG, false, 0, 0, VersionedQueue.NO_VERSION, false, false);
+
+    public final long songId;
+    public final boolean isPlaying;
+    /** Position when the state was captured; see {@link #currentPositionMs}. */
+    public final long positionMs;
+    /** {@link SystemClock#elapsedRealtime} when {@link #positionMs} was read. */
+    public final long positionAtMs;
+    public final long queueVersion;
+    public final boolean shuffleEnabled;
+    /**
+     * False until the service has replayed its queue journal. Until then an empty queue
+     * may just not be restored yet, so callers should not seed it.
+     */
+    public final boolean queueRestored;
+
+    PlaybackState(long songId, boolean isPlaying, long positionMs, long positionAtMs,
+                  long queueVersion, boolean shuffleEnabled, boolean queueRestored) {
+        this.songId = songId;
+        this.isPlaying = isPlaying;
+        this.positionMs = positionMs;
+        this.positionAtMs = positionAtMs;
+        this.queueVersion = queueVersion;
+        this.shuffleEnabled = shuffleEnabled;
+        this.queueRestored = queueRestored;
+    }
+
+    /** The position now, assuming playback continued at normal speed since it was captured. */
+    public long currentPositionMs() {
+        return isPlaying ? positionMs + (SystemClock.elapsedRealtime() - positionAtMs) : positionMs;
+    }
+
+    /**
+     * Same song, play/pause state, queue version, shuffle and restore state. The position is left out: it
+     * moves on every capture while playing, and listeners extrapolate it from the last
+     * state they were given ({@link #currentPositionMs}).
+     */
+    public boolean sameAs(PlaybackState other) {
+        return other != null
+                && songId == other.songId
+                && isPlaying == other.isPlaying
+                && queueVersion == other.queueVersion
+                && shuffleEnabled == other.shuffleEnabled
+                && queueRestored == other.queueRestored;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.musicapp;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.os.Build;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * The service's spare MediaPlayers: a few "warm" ones already prepared for the songs
+ * predicted to play next (e.g. the songs after and before the current one), plus idle
+ * ones kept after {@link MediaPlayer#reset} so a new track doesn't pay for allocating a
+ * native player. Both are bounded; {@link #trim} gives everything back under memory
+ * pressure and callers simply fall back to preparing on demand.
+ *
+ * Playback thread only: players are created there, so their callbacks arrive there too.
+ */
+final class PlayerPool {
+
+    static final int MAX_WARM = 2;
+    private static final int MAX_IDLE = 1;
+
+    interface Listener {
+        /** A warm player finished preparing; it stays in the pool until {@link #take}n. */
+        void onWarmPrepared(Song song, MediaPlayer player);
+    }
+
+    private static final class Warm {
+        final Song song;
+        final MediaPlayer player;
+        boolean prepared;
+
+        Warm(Song song, MediaPlayer player) {
+            this.song = song;
+            this.player = player;
+        }
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private final ArrayList<Warm> warm = new ArrayList<>(MAX_WARM);
+    private final ArrayDeque<MediaPlayer> idle = new ArrayDeque<>(MAX_IDLE);
+
+    PlayerPool(Context context, Listener listener) {
+        this.context = context;
+        this.listener = listener;
+    }
+
+    /** An unprepared player (reused if one is idle) with {@code s} as its source; null if it can't be opened. */
+    MediaPlayer obtain(Song s) {
+        MediaPlayer p = idle.pollFirst();
+        if (p == null) p = new MediaPlayer();
+
+        // Attributes don't reliably survive reset(), so set them every time
+        if (Build.VERSION.SDK_INT >= 21) {
+            p.setAudioAttributes(new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_MEDIA)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                    .build());
+        } else {
+            p.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        }
+
+        try {
+            p.setDataSource(context, s.getUri());
+        } catch (IOException | IllegalStateException e) {
+            recycle(p);
+            return null;
+        }
+        return p;
+    }
+
+    /** Takes back a player that is no longer needed: reset for reuse, or released if enough are idle. */
+    void recycle(MediaPlayer p) {
+        if (p == null) return;
+        try {
+            p.setOnPreparedListener(null);
+            p.setOnCompletionListener(null);
+            p.setOnInfoListener(null);
+            p.setOnErrorListener(null);
+            p.reset();
+        } catch (Exception e) {
+            p.release();
+            return;
+        }
+        if (idle.size() < MAX_IDLE) idle.addLast(p);
+        else p.release();
+    }
+
+    /**
+     * Makes the warm set exactly {@code songs} (nulls and repeats ignored, at most
+     * {@link #MAX_WARM}): players for songs no longer predicted are recycled and missing
+     * ones start preparing.
+     */
+    void warmOnly(Song... songs) {
+        for (int i = warm.size() - 1; i >= 0; i--) {
+            Warm w = warm.get(i);
+            if (!contains(songs, w.song)) {
+                warm.remove(i);
+                recycle(w.player);
+            }
+        }
+
+        for (Song s : songs) {
+            if (s == null || find(s) != null || warm.size() >= MAX_WARM) continue;
+            MediaPlayer p = obtain(s);
+            if (p == null) continue;
+
+            Warm w = new Warm(s, p);
+            warm.add(w);
+            p.setOnPreparedListener(mp -> {
+                w.prepared = true;
+                listener.onWarmPrepared(w.song, mp);
+            });
+            p.setOnErrorListener((mp, what, extra) -> {
+                if (warm.remove(w)) recycle(mp);
+                return true;
+            });
+            p.prepareAsync();
+        }
+    }
+
+    /** The prepared warm player for {@code s}, left in the pool; null if there isn't one (yet). */
+    MediaPlayer peek(Song s) {
+        Warm w = find(s);
+        return (w != null && w.prepared) ? w.player : null;
+    }
+
+    /** Removes and returns the prepared warm player for {@code s}; null if there isn't one (yet). */
+    MediaPlayer take(Song s) {
+        Warm w = find(s);
+        if (w == null || !w.prepared) return null;
+        warm.remove(w);
+        w.player.setOnPreparedListener(null);
+        w.player.setOnErrorListener(null);
+        return w.player;
+    }
+
+    /** Releases idle players, and warm ones other than {@code keep}'s (all of them if it is null). */
+    void trim(Song keep) {
+        while (!idle.isEmpty()) idle.pollFirst().release();
+        for (int i = warm.size() - 1; i >= 0; i--) {
+            Warm w = warm.get(i);
+            if (keep != null && matches(w.song, keep)) continue;
+            warm.remove(i);
+            w.player.release();
+        }
+    }
+
+    void release() {
+        trim(null);
+    }
+
+    private Warm find(Song s) {
+        if (s == null) return null;
+        for (Warm w : warm) {
+            if (matches(w.song, s)) return w;
+        }
+        return null;
+    }
+
+    private static boolean contains(Song[] songs, Song s) {
+        for (Song candidate : songs) {
+            if (candidate != null && matches(candidate, s)) return true;
+        }
+        return false;
+    }
+
+    /** Same file in the same state (an edited file needs a fresh prepare). */
+    static boolean matches(Song a, Song b) {
+        return a.id == b.id && a.sameRowAs(b);
+    }
+}
@@ -1,13 +1,18 @@
 package com.example.musicapp;
 
+/** Immutable, so lists of them can be diffed; a new count is a new Playlist ({@link #withSongCount}). */
 public class Playlist {
     public final long id;
     public final String name;
-    public int songCount;
+    public final int songCount;
 
     public Playlist(long id, String name, int songCount) {
         this.id = id;
         this.name = name;
         this.songCount = songCount;
     }
+
+    public Playlist withSongCount(int count) {
+        return (count == songCount) ? this : new Playlist(id, name, count);
+    }
 }
@@ -0,0 +1,114 @@
+package com.example.musicapp;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The user's playlists and their song ids, kept as one JSON document in shared
+ * preferences. MainActivity edits them; the playback service's browse tree reads them.
+ * Main thread (the preferences are cached in memory after the first read).
+ */
+final class PlaylistStore {
+
+    private static final String PREFS_NAME = "musicapp_prefs";
+    private static final String KEY_PLAYLISTS_STATE = "playlists_state_v1";
+
+    /** Playlists in display order (song counts not filled in), and each one's song ids. */
+    static final class Contents {
+        final ArrayList<Playlist> playlists = new ArrayList<>();
+        final Map<Long, ArrayList<Long>> songIds = new HashMap<>();
+    }
+
+    private PlaylistStore() {}
+
+    /** What was last saved; empty if nothing was, or it can't be read. */
+    static Contents load(Context context) {
+        return parse(read(context));
+    }
+
+    /** The saved document as is (null if none), for callers that keep a parsed copy. */
+    static String read(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(KEY_PLAYLISTS_STATE, null);
+    }
+
+    static Contents parse(String json) {
+        Contents contents = new Contents();
+        if (json == null || json.trim().isEmpty()) return contents;
+
+        try {
+            JSONObject root = new JSONObject(json);
+            JSONArray pls = root.optJSONArray("playlists");
+            JSONObject map = root.optJSONObject("songsByPlaylist");
+
+            if (pls != null) {
+                for (int i = 0; i < pls.length(); i++) {
+                    JSONObject po = pls.optJSONObject(i);
+                    if (po == null) continue;
+                    long id = po.optLong("id", -1);
+                    String name = po.optString("name", "");
+                    if (id == -1 || name.isEmpty()) continue;
+
+                    contents.playlists.add(new Playlist(id, name, 0));
+                }
+            }
+
+            if (map != null) {
+                for (Playlist p : contents.playlists) {
+                    JSONArray songIdsArr = map.optJSONArray(String.valueOf(p.id));
+                    ArrayList<Long> ids = new ArrayList<>();
+                    if (songIdsArr != null) {
+                        for (int j = 0; j < songIdsArr.length(); j++) {
+                            long sid = songIdsArr.optLong(j, -1);
+                            if (sid != -1) ids.add(sid);
+                        }
+                    }
+                    contents.songIds.put(p.id, ids);
+                }
+            }
+        } catch (JSONException e) {
+            // Bad JSON: start empty
+            return new Contents();
+        }
+        return contents;
+    }
+
+    static void save(Context context, List<Playlist> playlists, Map<Long, ArrayList<Long>> songIds) {
+        JSONObject root = new JSONObject();
+        JSONArray pls = new JSONArray();
+        JSONObject map = new JSONObject();
+
+        try {
+            for (Playlist p : playlists) {
+                JSONObject po = new JSONObject();
+                po.put("id", p.id);
+                po.put("name", p.name);
+                pls.put(po);
+
+                ArrayList<Long> ids = songIds.get(p.id);
+                JSONArray songIdsArr = new JSONArray();
+                if (ids != null) {
+                    for (Long sid : ids) songIdsArr.put(sid);
+                }
+                map.put(String.valueOf(p.id), songIdsArr);
+            }
+
+            root.put("playlists", pls);
+            root.put("songsByPlaylist", map);
+
+        } catch (JSONException ignored) {}
+
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_PLAYLISTS_STATE, root.toString())
+                .apply();
+    }
+}
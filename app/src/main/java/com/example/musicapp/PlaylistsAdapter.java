@@ -10,18 +10,41 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
 
+/** The playlists list; rows come from immutable {@link #submit}ted lists, item ids are playlist ids. */
 public class PlaylistsAdapter extends RecyclerView.Adapter<PlaylistsAdapter.VH> {
 
+    private static final ListDiffer.ItemCallback<Playlist> ROWS = new ListDiffer.ItemCallback<Playlist>() {
+        @Override
+        public long idOf(Playlist playlist) {
+            return playlist.id;
+        }
+
+        @Override
+        public boolean sameContents(Playlist a, Playlist b) {
+            return a.songCount == b.songCount && a.name.equals(b.name);
+        }
+    };
+
     public interface OnPlaylistClickListener {
         void onPlaylistClick(int position, Playlist playlist);
     }
 
-    private final List<Playlist> playlists;
+    private final ListDiffer<Playlist> differ = new ListDiffer<>(this, ROWS);
     private final OnPlaylistClickListener listener;
 
-    public PlaylistsAdapter(List<Playlist> playlists, OnPlaylistClickListener listener) {
-        this.playlists = playlists;
+    public PlaylistsAdapter(OnPlaylistClickListener listener) {
         this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    /** Shows {@code playlists}, which must not change afterwards; diffed against the current list. */
+    public void submit(List<Playlist> playlists) {
+        differ.submit(playlists);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getList().get(position).id;
     }
 
     @NonNull
@@ -33,7 +56,7 @@ public class PlaylistsAdapter extends RecyclerView.Adapter<PlaylistsAdapter.VH>
 
     @Override
     public void onBindViewHolder(@NonNull VH holder, int position) {
-        Playlist p = playlists.get(position);
+        Playlist p = differ.getList().get(position);
 
         holder.txtSongName.setText(p.name);
 
@@ -43,7 +66,7 @@ public class PlaylistsAdapter extends RecyclerView.Adapter<PlaylistsAdapter.VH>
         holder.itemView.setOnClickListener(v -> {
             int pos = holder.getBindingAdapterPosition();
             if (pos != RecyclerView.NO_POSITION && listener != null) {
-                listener.onPlaylistClick(pos, playlists.get(pos));
+                listener.onPlaylistClick(pos, differ.getList().get(pos));
             }
         });
 
@@ -52,7 +75,7 @@ public class PlaylistsAdapter extends RecyclerView.Adapter<PlaylistsAdapter.VH>
 
     @Override
     public int getItemCount() {
-        return playlists.size();
+        return differ.getList().size();
     }
 
     static class VH extends RecyclerView.ViewHolder {
@@ -4,6 +4,7 @@ import android.content.ClipData;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -11,12 +12,50 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
 
+/**
+ * The play queue. Rows come from immutable copies of the queue, {@link #submit}ted with
+ * the queue edits that produced them (or diffed in the background if those aren't known).
+ * No stable ids: a song may be queued more than once, so song ids aren't unique here.
+ */
 public class QueueAdapter extends RecyclerView.Adapter<QueueAdapter.VH> {
 
-    private final List<Song> items;
+    private static final ListDiffer.ItemCallback<Song> ROWS = new ListDiffer.ItemCallback<Song>() {
+        @Override
+        public long idOf(Song song) {
+            return song.id;
+        }
+
+        @Override
+        public boolean sameContents(Song a, Song b) {
+            return a.sameRowAs(b);
+        }
+    };
+
+    private final ListDiffer<Song> differ = new ListDiffer<>(this, ROWS);
+    private MetadataCache metadataCache;
+    private ArtworkCache artworkCache;
+
+    /** Rows show artist/album/duration once it is in this cache. */
+    public void setMetadataCache(MetadataCache cache) {
+        this.metadataCache = cache;
+    }
+
+    /** Rows show album art through this cache (requests are cancelled when rows are recycled). */
+    public void setArtworkCache(ArtworkCache cache) {
+        this.artworkCache = cache;
+    }
+
+    public Song getItem(int position) {
+        return differ.getList().get(position);
+    }
 
-    public QueueAdapter(List<Song> items) {
-        this.items = items;
+    /**
+     * Shows {@code queue} (a {@link SongQueue#frozenCopy}, or another list that won't
+     * change and is safe to read from the diff thread); {@code changes} take the last
+     * submitted queue to it, or null to diff.
+     */
+    public void submit(List<Song> queue, ListDiffer.Changes changes) {
+        differ.submit(queue, changes);
     }
 
     @NonNull
@@ -29,7 +68,7 @@ public class QueueAdapter extends RecyclerView.Adapter<QueueAdapter.VH> {
 
     @Override
     public void onBindViewHolder(@NonNull VH holder, int position) {
-        Song s = items.get(position);
+        Song s = getItem(position);
 
         holder.txtSongName.setText(s.name);
 
@@ -37,38 +76,50 @@ public class QueueAdapter extends RecyclerView.Adapter<QueueAdapter.VH> {
         // Remove this line and set text if you want date shown in queue too.
         holder.txtSongDate.setVisibility(View.GONE);
 
-        // First item = currently playing -> cannot be dragged/removed
-        if (position == 0) {
-            holder.itemView.setOnLongClickListener(null);
-        } else {
-            holder.itemView.setOnLongClickListener(v -> {
-                int pos = holder.getBindingAdapterPosition();
-                if (pos == RecyclerView.NO_POSITION) return false;
-
-                Song song = items.get(pos);
-                DragData dragData = new DragData(DragData.SOURCE_QUEUE, pos, song);
-
-                ClipData clip = ClipData.newPlainText("queue_song", song.name);
-                View.DragShadowBuilder shadow = new View.DragShadowBuilder(v);
-                v.startDragAndDrop(clip, shadow, dragData, 0);
-                return true;
-            });
-        }
+        TrackMetadata m = (metadataCache == null) ? null : metadataCache.get(s);
+        String summary = (m == null) ? "" : m.summary();
+        holder.txtSongMeta.setVisibility(summary.isEmpty() ? View.GONE : View.VISIBLE);
+        holder.txtSongMeta.setText(summary);
+        if (artworkCache != null) artworkCache.bind(holder.imgArt, s);
+
+        // First item = currently playing -> cannot be dragged/removed. Checked on press:
+        // rows move up as the head advances without being rebound
+        holder.itemView.setOnLongClickListener(v -> {
+            int pos = holder.getBindingAdapterPosition();
+            if (pos == RecyclerView.NO_POSITION || pos == 0) return false;
+
+            Song song = getItem(pos);
+            DragData dragData = new DragData(DragData.SOURCE_QUEUE, pos, song);
+
+            ClipData clip = ClipData.newPlainText("queue_song", song.name);
+            View.DragShadowBuilder shadow = new View.DragShadowBuilder(v);
+            v.startDragAndDrop(clip, shadow, dragData, 0);
+            return true;
+        });
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull VH holder) {
+        if (artworkCache != null) artworkCache.cancel(holder.imgArt);
     }
 
     @Override
     public int getItemCount() {
-        return items.size();
+        return differ.getList().size();
     }
 
     static class VH extends RecyclerView.ViewHolder {
         TextView txtSongName;
         TextView txtSongDate;
+        TextView txtSongMeta;
+        ImageView imgArt;
 
         VH(@NonNull View itemView) {
             super(itemView);
+            imgArt = itemView.findViewById(R.id.imgArt);
             txtSongName = itemView.findViewById(R.id.txtSongName);
             txtSongDate = itemView.findViewById(R.id.txtSongDate);
+            txtSongMeta = itemView.findViewById(R.id.txtSongMeta);
         }
     }
 }
@@ -0,0 +1,156 @@
+package com.example.musicapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of queue edits applied together by {@link PlaybackService#applyQueueBatch}:
+ * either every edit applies or none does, and the service updates its notification and
+ * publishes its state once for the whole batch rather than once per edit.
+ *
+ * Positions refer to the queue as left by the edits before them. A batch whose positions
+ * were read from a mirror of the queue is stamped with that mirror's version
+ * ({@link #basedOn}) and dropped if the queue has had other edits since. Only the songs being
+ * added travel with the batch, never the library. Lists of songs are referenced rather
+ * than copied (see {@link SongQueue}), so they must not change once passed in: use a
+ * library snapshot or sorted view, a playlist list that is replaced rather than edited,
+ * or a SongQueue. A SongQueue is taken as a {@link SongQueue#frozenCopy} when added, on
+ * the caller's thread, since the batch is applied on the playback thread.
+ */
+public final class QueueBatch {
+
+    private static final int ENQUEUE = 1;
+    private static final int INSERT = 2;
+    private static final int MOVE = 3;
+    private static final int REMOVE = 4;
+    private static final int REPLACE = 5;
+
+    private static final class Op {
+        final int type;
+        final int a;
+        final int b;
+        final List<Song> songs;
+
+        Op(int type, int a, int b, List<Song> songs) {
+            this.type = type;
+            this.a = a;
+            this.b = b;
+            this.songs = (songs instanceof SongQueue) ? ((SongQueue) songs).frozenCopy() : songs;
+        }
+    }
+
+    private final ArrayList<Op> ops = new ArrayList<>();
+    private long baseVersion = VersionedQueue.NO_VERSION;
+
+    public QueueBatch enqueue(Song song) {
+        return enqueue(Collections.singletonList(song));
+    }
+
+    public QueueBatch enqueue(List<Song> songs) {
+        ops.add(new Op(ENQUEUE, 0, 0, songs));
+        return this;
+    }
+
+    public QueueBatch insertAt(int index, List<Song> songs) {
+        ops.add(new Op(INSERT, index, 0, songs));
+        return this;
+    }
+
+    /** Moves the song at {@code from} so it ends up at {@code to}. */
+    public QueueBatch move(int from, int to) {
+        ops.add(new Op(MOVE, from, to, null));
+        return this;
+    }
+
+    public QueueBatch removeRange(int from, int count) {
+        ops.add(new Op(REMOVE, from, count, null));
+        return this;
+    }
+
+    public QueueBatch replaceAll(List<Song> songs) {
+        ops.add(new Op(REPLACE, 0, 0, songs));
+        return this;
+    }
+
+    /**
+     * Replaces the queue with {@code playlist} played from {@code start}, wrapping around
+     * to its top. O(1): the queue references the list instead of copying it.
+     */
+    public QueueBatch replaceFromPlaylistAt(List<Song> playlist, int start) {
+        return replaceAll(SongQueue.Range.wrapping(playlist, start));
+    }
+
+    /**
+     * The positions in this batch were read from the queue at {@code version}; it applies
+     * only to that version. Without this (or with NO_VERSION) it applies to any queue it fits.
+     */
+    public QueueBatch basedOn(long version) {
+        baseVersion = version;
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    /** {@link #fits(int)}, and the queue is still at the version the batch is {@link #basedOn}. */
+    boolean fits(long version, int size) {
+        return (baseVersion == VersionedQueue.NO_VERSION || baseVersion == version) && fits(size);
+    }
+
+    /** Whether every edit is in range for a queue that starts with {@code size} songs. */
+    boolean fits(int size) {
+        for (Op op : ops) {
+            switch (op.type) {
+                case ENQUEUE:
+                    size += op.songs.size();
+                    break;
+                case INSERT:
+                    if (op.a < 0 || op.a > size) return false;
+                    size += op.songs.size();
+                    break;
+                case MOVE:
+                    if (op.a < 0 || op.a >= size || op.b < 0 || op.b >= size) return false;
+                    break;
+                case REMOVE:
+                    if (op.a < 0 || op.b < 0 || op.a + op.b > size) return false;
+                    size -= op.b;
+                    break;
+                case REPLACE:
+                    size = op.songs.size();
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /** Applies the edits to the service queue, recording each one. Check {@link #fits} first. */
+    void applyTo(VersionedQueue queue) {
+        for (Op op : ops) {
+            switch (op.type) {
+                case ENQUEUE: queue.insert(queue.size(), op.songs); break;
+                case INSERT: queue.insert(op.a, op.songs); break;
+                case MOVE: queue.move(op.a, op.b); break;
+                case REMOVE: queue.remove(op.a, op.b); break;
+                case REPLACE: queue.replaceAll(op.songs); break;
+            }
+        }
+    }
+
+    /** Applies the edits to a local queue (used while no service is bound). Check {@link #fits} first. */
+    void applyTo(SongQueue queue) {
+        for (Op op : ops) {
+            switch (op.type) {
+                case ENQUEUE: queue.insertRange(queue.size(), op.songs); break;
+                case INSERT: queue.insertRange(op.a, op.songs); break;
+                case MOVE: queue.move(op.a, op.b); break;
+                case REMOVE: queue.removeRange(op.a, op.a + op.b); break;
+                case REPLACE:
+                    queue.clear();
+                    queue.insertRange(0, op.songs);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.musicapp;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One edit to the play queue, stamped with the queue version it produces. A client that
+ * mirrors the queue replays the changes after its own version instead of copying the
+ * whole queue (see {@link VersionedQueue#changesSince}).
+ */
+public final class QueueChange {
+
+    /** {@link #songs} were inserted at {@link #position}. */
+    public static final int INSERTED = 1;
+    /** {@link #count} songs were removed starting at {@link #position}. */
+    public static final int REMOVED = 2;
+    /** The song at {@link #position} moved to {@link #toPosition}. */
+    public static final int MOVED = 3;
+    /** {@link #count} songs were dropped from the head (playback moved on). */
+    public static final int HEAD_ADVANCED = 4;
+    /** The song at {@link #position} was replaced by {@code songs.get(0)} (its file was edited). */
+    public static final int CHANGED = 5;
+
+    public final int type;
+    public final long version;
+    public final int position;
+    public final int toPosition;
+    public final int count;
+    /** Inserted or replacement songs (shared with the service's queue, never modified); empty for the other types. */
+    public final List<Song> songs;
+
+    private QueueChange(int type, long version, int position, int toPosition, int count, List<Song> songs) {
+        this.type = type;
+        this.version = version;
+        this.position = position;
+        this.toPosition = toPosition;
+        this.count = count;
+        this.songs = songs;
+    }
+
+    static QueueChange inserted(long version, int position, List<Song> songs) {
+        return new QueueChange(INSERTED, version, position, position, songs.size(), songs);
+    }
+
+    static QueueChange removed(long version, int position, int count) {
+        return new QueueChange(REMOVED, version, position, position, count, Collections.emptyList());
+    }
+
+    static QueueChange moved(long version, int from, int to) {
+        return new QueueChange(MOVED, version, from, to, 1, Collections.emptyList());
+    }
+
+    static QueueChange headAdvanced(long version, int count) {
+        return new QueueChange(HEAD_ADVANCED, version, 0, 0, count, Collections.emptyList());
+    }
+
+    static QueueChange changed(long version, int position, Song song) {
+        return new QueueChange(CHANGED, version, position, position, 1, Collections.singletonList(song));
+    }
+
+    /** Applies this change to a mirror of the queue at {@code version - 1}. */
+    public void applyTo(SongQueue queue) {
+        switch (type) {
+            case INSERTED: queue.insertRange(position, songs); break;
+            case REMOVED: queue.removeRange(position, position + count); break;
+            case MOVED: queue.move(position, toPosition); break;
+            case HEAD_ADVANCED: queue.removeRange(0, count); break;
+            case CHANGED: queue.set(position, songs.get(0)); break;
+        }
+    }
+
+    /** Replays this change as a range event on a list showing the queue. */
+    public void dispatchTo(ListUpdateCallback callback) {
+        switch (type) {
+            case INSERTED: callback.onInserted(position, count); break;
+            case REMOVED:
+            case HEAD_ADVANCED: callback.onRemoved(position, count); break;
+            case MOVED: callback.onMoved(position, toPosition); break;
+            case CHANGED: callback.onChanged(position, 1, null); break;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.musicapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the service's queue edits and playback position, so the queue and
+ * seek position survive the process being killed. Each {@link QueueChange} becomes one
+ * small record, so an edit costs a few bytes however long the queue is; when the log has
+ * grown well past the queue it describes, it is compacted into a single insert plus the
+ * last checkpoint.
+ *
+ * All file work happens on a single "queue-journal" thread. The writer keeps its own
+ * {@link SongQueue} mirror (changes only carry immutable lists, so replaying them there
+ * is safe) and compacts from that rather than from the live queue.
+ *
+ * Layout (big endian): int magic 'MQJ1', int format version, then records of
+ * <pre>
+ *   int length, byte type, byte[length - 1] payload, int CRC32(type + payload)
+ * </pre>
+ * Replay stops at the first short or corrupt record, which is what a write cut off by
+ * the process dying leaves behind.
+ */
+public final class QueueJournal {
+
+    private static final int MAGIC = 0x4D514A31; // "MQJ1"
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "queue.journal";
+
+    // Record types; the queue ones match QueueChange
+    private static final byte CHECKPOINT = 16;
+
+    private static final int HEADER_BYTES = 8;
+    private static final long COMPACT_MIN_BYTES = 256 * 1024;
+
+    /** What the journal held, resolved against the library; songs no longer there are dropped. */
+    public static final class Restored {
+        public final List<Song> songs;
+        /** Where to resume the head, or 0 if the checkpoint was for a song no longer at the head. */
+        public final long positionMs;
+
+        Restored(List<Song> songs, long positionMs) {
+            this.songs = songs;
+            this.positionMs = positionMs;
+        }
+    }
+
+    public interface RestoreCallback {
+        /** Called on the journal thread; hand the result over to the thread that owns the queue. */
+        void onRestored(Restored restored);
+    }
+
+    private final File file;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "queue-journal"));
+
+    // Writer thread only
+    private final SongQueue mirror = new SongQueue();
+    private final CRC32 crc = new CRC32();
+    private FileOutputStream out;
+    private long length;
+    private long compactedLength;
+    private long checkpointId = -1L;
+    private long checkpointMs;
+
+    public QueueJournal(File dir) {
+        this.file = new File(dir, FILE_NAME);
+    }
+
+    // -----------------------
+    // Public API (any thread; work is queued in call order)
+    // -----------------------
+
+    /** Reads the journal and resolves it against {@code library} off the main thread. */
+    public void restore(LibrarySnapshot library, RestoreCallback callback) {
+        executor.execute(() -> callback.onRestored(read(library)));
+    }
+
+    /**
+     * Starts a fresh journal holding {@code queue} (which must not change afterwards, e.g.
+     * {@link VersionedQueue#copy}); later {@link #record}s are relative to it.
+     */
+    public void reset(List<Song> queue, long positionMs) {
+        executor.execute(() -> {
+            mirror.setAll(queue);
+            Song head = mirror.peekFirst();
+            checkpointId = (head == null) ? -1L : head.id;
+            checkpointMs = positionMs;
+            compact();
+        });
+    }
+
+    public void record(QueueChange change) {
+        executor.execute(() -> {
+            if (out == null) return; // not reset yet
+            change.applyTo(mirror);
+            append(encode(change));
+        });
+    }
+
+    /** Records that the song {@code songId} (the head) is at {@code positionMs}. */
+    public void checkpoint(long songId, long positionMs) {
+        executor.execute(() -> {
+            if (out == null || (songId == checkpointId && positionMs == checkpointMs)) return;
+            checkpointId = songId;
+            checkpointMs = positionMs;
+            append(encodeCheckpoint(songId, positionMs));
+        });
+    }
+
+    public void close() {
+        executor.execute(this::closeQuietly);
+        executor.shutdown();
+    }
+
+    // -----------------------
+    // Writing (journal thread)
+    // -----------------------
+
+    private void append(byte[] record) {
+        try {
+            // One write per record, so a kill leaves at most one torn record at the tail
+            out.write(record);
+            length += record.length;
+        } catch (IOException e) {
+            closeQuietly();
+            return;
+        }
+        if (length > COMPACT_MIN_BYTES && length > 2 * compactedLength) compact();
+    }
+
+    /** Rewrites the journal as the mirror plus the last checkpoint (temp file, then rename). */
+    private void compact() {
+        closeQuietly();
+        File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        long written;
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT_VERSION);
+            if (!mirror.isEmpty()) data.write(encode(QueueChange.inserted(0, 0, mirror)));
+            if (checkpointId != -1L) data.write(encodeCheckpoint(checkpointId, checkpointMs));
+            data.flush();
+            written = data.size();
+            // The rename is only atomic if the new contents are on disk first
+            fos.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+
+        try {
+            out = new FileOutputStream(file, true);
+            length = written;
+            compactedLength = written;
+        } catch (IOException e) {
+            out = null;
+        }
+    }
+
+    private void closeQuietly() {
+        if (out == null) return;
+        try { out.close(); } catch (IOException ignored) {}
+        out = null;
+    }
+
+    private byte[] encode(QueueChange c) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 8 * c.songs.size());
+        DataOutputStream data = new DataOutputStream(bytes);
+        try {
+            data.writeByte(c.type);
+            switch (c.type) {
+                case QueueChange.INSERTED:
+                    data.writeInt(c.position);
+                    data.writeInt(c.songs.size());
+                    for (Song s : c.songs) data.writeLong(s.id);
+                    break;
+                case QueueChange.REMOVED:
+                case QueueChange.HEAD_ADVANCED:
+                    data.writeInt(c.position);
+                    data.writeInt(c.count);
+                    break;
+                case QueueChange.MOVED:
+                    data.writeInt(c.position);
+                    data.writeInt(c.toPosition);
+                    break;
+                case QueueChange.CHANGED:
+                    data.writeInt(c.position);
+                    data.writeLong(c.songs.get(0).id);
+                    break;
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e); // in-memory stream
+        }
+        return frame(bytes.toByteArray());
+    }
+
+    private byte[] encodeCheckpoint(long songId, long positionMs) {
+        byte[] body = new byte[17];
+        body[0] = CHECKPOINT;
+        putLong(body, 1, songId);
+        putLong(body, 9, positionMs);
+        return frame(body);
+    }
+
+    /** length + body + CRC, as one array. */
+    private byte[] frame(byte[] body) {
+        crc.reset();
+        crc.update(body, 0, body.length);
+        byte[] record = new byte[body.length + 8];
+        putInt(record, 0, body.length);
+        System.arraycopy(body, 0, record, 4, body.length);
+        putInt(record, 4 + body.length, (int) crc.getValue());
+        return record;
+    }
+
+    // -----------------------
+    // Reading (journal thread)
+    // -----------------------
+
+    private Restored read(LibrarySnapshot library) {
+        ArrayList<Long> ids = new ArrayList<>();
+        long headId = -1L;
+        long positionMs = 0;
+
+        long remaining = file.length() - HEADER_BYTES;
+        if (file.isFile() && remaining >= 0) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+                if (in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION) {
+                    byte[] body;
+                    while ((body = readRecord(in, remaining)) != null) {
+                        remaining -= body.length + 8;
+                        if (body[0] == CHECKPOINT) {
+                            if (body.length != 17) break;
+                            headId = getLong(body, 1);
+                            positionMs = getLong(body, 9);
+                        } else if (!replay(body, ids)) {
+                            break;
+                        }
+                    }
+                }
+            } catch (IOException ignored) {
+                // Keep whatever replayed before the damage
+            }
+        }
+
+        ArrayList<Song> songs = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Song s = library.findById(ids.get(i));
+            if (s != null) songs.add(s);
+        }
+        boolean sameHead = !songs.isEmpty() && songs.get(0).id == headId;
+        return new Restored(songs, sameHead ? positionMs : 0);
+    }
+
+    /**
+     * The next intact record's body, or null at the end or at a torn or corrupt record.
+     * {@code remaining} is what is left of the file, so a damaged length can't make us
+     * allocate more than the file holds.
+     */
+    private byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        int len;
+        try {
+            len = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (len <= 0 || len > remaining - 8) return null;
+        byte[] body = new byte[len];
+        try {
+            in.readFully(body);
+            int stored = in.readInt();
+            crc.reset();
+            crc.update(body, 0, len);
+            return (stored == (int) crc.getValue()) ? body : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /** Applies one queue record to {@code ids}; false if it doesn't fit (stop replaying). */
+    private static boolean replay(byte[] body, ArrayList<Long> ids) {
+        if (body.length < 9) return false;
+        int a = getInt(body, 1);
+        int n = ids.size();
+        switch (body[0]) {
+            case QueueChange.INSERTED: {
+                int count = getInt(body, 5);
+                if (a < 0 || a > n || count < 0 || body.length != 9 + 8 * count) return false;
+                ArrayList<Long> added = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) added.add(getLong(body, 9 + 8 * i));
+                ids.addAll(a, added);
+                return true;
+            }
+            case QueueChange.REMOVED:
+            case QueueChange.HEAD_ADVANCED: {
+                int count = getInt(body, 5);
+                if (a < 0 || count < 0 || a + count > n) return false;
+                ids.subList(a, a + count).clear();
+                return true;
+            }
+            case QueueChange.MOVED: {
+                int to = getInt(body, 5);
+                if (a < 0 || a >= n || to < 0 || to >= n) return false;
+                ids.add(to, ids.remove(a));
+                return true;
+            }
+            case QueueChange.CHANGED: {
+                if (body.length != 13 || a < 0 || a >= n) return false;
+                ids.set(a, getLong(body, 5));
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    // -----------------------
+    // Byte helpers
+    // -----------------------
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        putInt(b, off + 4, (int) v);
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] b, int off) {
+        return ((long) getInt(b, off) << 32) | (getInt(b, off + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.musicapp;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * In-memory full-text index over library rows.
+ *
+ * Text is folded (lower case, accents stripped, punctuation to spaces) and every row is
+ * posted under each distinct trigram it contains, plus one- and two-character word
+ * prefixes so short queries are answered from the index too. Grams are packed into a
+ * long and mapped to posting slots through a {@link LongIntMap}; posting lists are
+ * plain int arrays of row numbers in ascending order, because rows are added in order.
+ * After a library change, {@link #remapped} renumbers the postings and folds in only the
+ * rows that were added or edited, instead of folding every name again.
+ *
+ * Not thread-safe; {@link LibrarySearch} confines it to its search thread.
+ */
+public final class SearchIndex {
+
+    private static final long PREFIX_MARK = 1L << 62;
+
+    private final LongIntMap gramSlots = new LongIntMap(4096);
+    private int[][] postings = new int[1024][];
+    private int[] postingSizes = new int[1024];
+    private long[] slotGrams = new long[1024];
+    private int slotCount = 0;
+    private int rowCount = 0;
+
+    public int rowCount() {
+        return rowCount;
+    }
+
+    /** Adds the next row; rows must be added in ascending order starting at 0. */
+    public void addRow(int row, String text) {
+        if (row != rowCount) throw new IllegalArgumentException("expected row " + rowCount + " got " + row);
+        rowCount++;
+        postRow(row, text);
+    }
+
+    /**
+     * A new index over {@code newRowCount} rows: row r of this one becomes row
+     * {@code newRow[r]} (ascending where not -1; -1 drops it), and each of {@code addedRows}
+     * (ascending) is posted with its {@code addedTexts} entry. This index is left as it was,
+     * so it can keep answering queries until the new one replaces it.
+     */
+    public SearchIndex remapped(int[] newRow, int newRowCount, int[] addedRows, String[] addedTexts) {
+        SearchIndex added = new SearchIndex();
+        for (int i = 0; i < addedRows.length; i++) added.postRow(addedRows[i], addedTexts[i]);
+
+        SearchIndex out = new SearchIndex();
+        out.rowCount = newRowCount;
+        for (int slot = 0; slot < slotCount; slot++) {
+            long gram = slotGrams[slot];
+            int[] list = postings[slot];
+            int n = postingSizes[slot];
+            int[] kept = new int[n];
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int r = newRow[list[i]];
+                if (r >= 0) kept[k++] = r;
+            }
+            int[] merged = merge(kept, k, added.postingsFor(gram));
+            if (merged.length > 0) out.putPostings(gram, merged);
+        }
+        for (int slot = 0; slot < added.slotCount; slot++) {
+            long gram = added.slotGrams[slot];
+            if (gramSlots.get(gram) == LongIntMap.MISSING) {
+                out.putPostings(gram, Arrays.copyOf(added.postings[slot], added.postingSizes[slot]));
+            }
+        }
+        return out;
+    }
+
+    /** Posts {@code row} under every gram of {@code text}; rows must come in ascending order. */
+    private void postRow(int row, String text) {
+        String folded = fold(text);
+        int len = folded.length();
+        for (int i = 0; i < len; i++) {
+            char c = folded.charAt(i);
+            if (c == ' ') continue;
+
+            boolean wordStart = (i == 0 || folded.charAt(i - 1) == ' ');
+            if (wordStart) {
+                post(PREFIX_MARK | c, row);
+                if (i + 1 < len && folded.charAt(i + 1) != ' ') {
+                    post(PREFIX_MARK | ((long) c << 16) | folded.charAt(i + 1), row);
+                }
+            }
+            if (i + 2 < len) {
+                long g = trigram(folded, i);
+                if (g != -1) post(g, row);
+            }
+        }
+    }
+
+    /**
+     * Rows that may match every word of {@code query}, ascending. Short words are matched
+     * as word prefixes, longer ones as substrings; callers verify and rank candidates.
+     * Returns an empty array for a blank query.
+     */
+    public int[] candidates(String query) {
+        String[] words = fold(query).trim().split(" +");
+        int[] result = null;
+
+        for (String w : words) {
+            if (w.isEmpty()) continue;
+
+            if (w.length() <= 2) {
+                long g = (w.length() == 1)
+                        ? (PREFIX_MARK | w.charAt(0))
+                        : (PREFIX_MARK | ((long) w.charAt(0) << 16) | w.charAt(1));
+                result = intersect(result, postingsFor(g));
+            } else {
+                for (int i = 0; i + 2 < w.length(); i++) {
+                    result = intersect(result, postingsFor(trigram(w, i)));
+                    if (result.length == 0) return result;
+                }
+            }
+            if (result.length == 0) return result;
+        }
+        return (result == null) ? new int[0] : result;
+    }
+
+    /** Lower case, no diacritics, letters and digits only (everything else becomes a space). */
+    public static String fold(String s) {
+        if (s == null) return "";
+        String d = Normalizer.normalize(s, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(d.length());
+        boolean lastSpace = true;
+        for (int i = 0; i < d.length(); i++) {
+            char c = d.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+                lastSpace = false;
+            } else if (!lastSpace) {
+                sb.append(' ');
+                lastSpace = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long trigram(String s, int i) {
+        char a = s.charAt(i), b = s.charAt(i + 1), c = s.charAt(i + 2);
+        if (a == ' ' || b == ' ' || c == ' ') return -1;
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    private void post(long gram, int row) {
+        int slot = gramSlots.get(gram);
+        if (slot == LongIntMap.MISSING) slot = newSlot(gram, new int[4], 0);
+
+        int n = postingSizes[slot];
+        int[] list = postings[slot];
+        if (n > 0 && list[n - 1] == row) return; // gram repeats within the same row
+        if (n == list.length) postings[slot] = list = Arrays.copyOf(list, n * 2);
+        list[n] = row;
+        postingSizes[slot] = n + 1;
+    }
+
+    private void putPostings(long gram, int[] rows) {
+        newSlot(gram, rows, rows.length);
+    }
+
+    private int newSlot(long gram, int[] list, int size) {
+        int slot = slotCount++;
+        if (slot == postings.length) {
+            postings = Arrays.copyOf(postings, slot * 2);
+            postingSizes = Arrays.copyOf(postingSizes, slot * 2);
+            slotGrams = Arrays.copyOf(slotGrams, slot * 2);
+        }
+        postings[slot] = list;
+        postingSizes[slot] = size;
+        slotGrams[slot] = gram;
+        gramSlots.put(gram, slot);
+        return slot;
+    }
+
+    /** The ascending union of {@code a[0..na)} and {@code b}, which share no rows. */
+    private static int[] merge(int[] a, int na, int[] b) {
+        if (b.length == 0) return (na == a.length) ? a : Arrays.copyOf(a, na);
+        int[] out = new int[na + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < na && j < b.length) out[n++] = (a[i] < b[j]) ? a[i++] : b[j++];
+        while (i < na) out[n++] = a[i++];
+        while (j < b.length) out[n++] = b[j++];
+        return out;
+    }
+
+    private int[] postingsFor(long gram) {
+        int slot = (gram == -1) ? LongIntMap.MISSING : gramSlots.get(gram);
+        if (slot == LongIntMap.MISSING) return new int[0];
+        return Arrays.copyOf(postings[slot], postingSizes[slot]);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        if (a == null) return b;
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.musicapp;
+
+import java.util.Arrays;
+
+/**
+ * A shuffled order over rows {@code 0..n-1} that is never materialized: position p of a
+ * cycle plays row E(p), where E is a keyed Feistel permutation of the 2^bits integers
+ * (2^bits >= n). Positions whose image is >= n are walked past, which is O(1) on average
+ * since fewer than 3/4 of the domain is ever skipped. Memory is a few longs whatever n is.
+ *
+ * A cycle starts just after {@link #origin} and ends back at it, so every row plays once
+ * before any repeats. The next cycle gets a new key derived from the old one and starts
+ * from the row that just played, so it isn't repeated straight away either.
+ *
+ * The whole state is {@link #seed}, {@link #bits}, {@link #origin} and {@link #position};
+ * persisting those reproduces the order exactly. Rows should be numbered so that new items
+ * get the highest numbers (for the library, oldest first): growth within the domain then
+ * leaves everyone's place in the order unchanged and new rows simply join the cycle.
+ * Outgrowing the domain starts a new cycle over a bigger one.
+ *
+ * The cycle itself runs over slots, not rows: a row {@link #remove}d mid-cycle leaves its
+ * slot behind as a hole, so rows after it keep their slots (and whether they have played
+ * this cycle) even though their row numbers drop by one. Holes are walked past like
+ * out-of-range images and dropped when the next cycle starts, so they cost an int per
+ * removal for at most one cycle.
+ */
+public final class ShuffleOrder {
+
+    private static final int ROUNDS = 4;
+    private static final int MIN_BITS = 2;
+
+    private long seed;
+    private int bits;
+    private long origin;
+    private long position;
+    private int[] holes; // slots removed this cycle, ascending; replaced, never written to
+
+    /** A new order over {@code n} rows whose cycle begins after {@code currentRow} (or anywhere if it is -1). */
+    public static ShuffleOrder start(long seed, int n, int currentRow) {
+        ShuffleOrder o = new ShuffleOrder(seed, bitsFor(n), 0, 0);
+        o.restartAt(currentRow);
+        return o;
+    }
+
+    /** Restores a persisted order. */
+    public ShuffleOrder(long seed, int bits, long origin, long position) {
+        this(seed, bits, origin, position, new int[0]);
+    }
+
+    /** Restores a persisted order that had rows removed mid-cycle ({@link #holes}). */
+    public ShuffleOrder(long seed, int bits, long origin, long position, int[] holes) {
+        this.seed = seed;
+        this.bits = bits;
+        this.origin = origin;
+        this.position = position;
+        this.holes = holes;
+    }
+
+    public long seed() { return seed; }
+    public int bits() { return bits; }
+    public long origin() { return origin; }
+    public long position() { return position; }
+    /** Slots removed in this cycle, ascending; persist alongside the rest. */
+    public int[] holes() { return holes.clone(); }
+
+    /** The row after the current one, in shuffled order; -1 if {@code n} is 0. */
+    public int next(int n) {
+        if (n <= 0) return -1;
+        if (n == 1) return 0;
+        fitDomain(n);
+        long mask = (1L << bits) - 1;
+        while (true) {
+            long p = (position + 1) & mask;
+            if (p == origin) {
+                // Cycle complete: re-key and start the next one from the row just played
+                int last = currentRow(n);
+                rekey();
+                restartAt(last);
+                continue;
+            }
+            position = p;
+            int row = rowAt(p, n);
+            if (row >= 0) return row;
+        }
+    }
+
+    /** The row {@link #next} would return, without moving there. */
+    public int peekNext(int n) {
+        return new ShuffleOrder(seed, bits, origin, position, holes).next(n);
+    }
+
+    /** The row {@link #previous} would return, without moving there. */
+    public int peekPrevious(int n) {
+        return new ShuffleOrder(seed, bits, origin, position, holes).previous(n);
+    }
+
+    /** The row before the current one in this cycle (wrapping to its end); -1 if {@code n} is 0. */
+    public int previous(int n) {
+        if (n <= 0) return -1;
+        fitDomain(n);
+        long mask = (1L << bits) - 1;
+        for (long steps = 0; steps <= mask; steps++) {
+            position = (position - 1) & mask;
+            int row = rowAt(position, n);
+            if (row >= 0) return row;
+        }
+        return -1;
+    }
+
+    /** The row at the current position, or -1 if that isn't a valid row for {@code n}. */
+    public int currentRow(int n) {
+        return rowAt(position, n);
+    }
+
+    /**
+     * Row {@code row} was removed, so every row after it moves down by one. Rows that
+     * haven't played this cycle still will, and rows that have won't play again before it
+     * ends. To remove several rows, go from the highest to the lowest.
+     */
+    public void remove(int row) {
+        if (row < 0) return;
+        long slot = row;
+        int at = 0;
+        // The row's slot is past every hole at or before it
+        while (at < holes.length && holes[at] <= slot) {
+            slot++;
+            at++;
+        }
+        if (slot >= (1L << bits)) return; // not in this cycle's domain
+        int[] grown = new int[holes.length + 1];
+        System.arraycopy(holes, 0, grown, 0, at);
+        grown[at] = (int) slot;
+        System.arraycopy(holes, at, grown, at + 1, holes.length - at);
+        holes = grown;
+    }
+
+    // -----------------------
+    // Permutation
+    // -----------------------
+
+    /** The row in the slot at position {@code p}, or -1 if that slot is a hole or past {@code n} rows. */
+    private int rowAt(long p, int n) {
+        long slot = permute(p);
+        int before = Arrays.binarySearch(holes, (int) slot);
+        if (before >= 0) return -1;
+        long row = slot - (-before - 1);
+        return (row < n) ? (int) row : -1;
+    }
+
+    /**
+     * Positions the order at {@code row}, so the cycle runs through every other row first.
+     * A new cycle numbers slots by the current rows again, so holes are dropped.
+     */
+    private void restartAt(int row) {
+        holes = new int[0];
+        origin = (row >= 0 && row < (1L << bits)) ? unpermute(row) : 0;
+        position = origin;
+    }
+
+    private void fitDomain(int n) {
+        if (n + (long) holes.length <= (1L << bits)) return;
+        int row = currentRow(Integer.MAX_VALUE);
+        bits = bitsFor(n);
+        rekey();
+        restartAt(row);
+    }
+
+    /** Balanced Feistel network over {@code bits} (an even number) bits. */
+    long permute(long x) {
+        int half = bits / 2;
+        long mask = (1L << half) - 1;
+        long l = x >>> half;
+        long r = x & mask;
+        for (int round = 0; round < ROUNDS; round++) {
+            long t = l ^ (roundFunction(r, round) & mask);
+            l = r;
+            r = t;
+        }
+        return (l << half) | r;
+    }
+
+    long unpermute(long y) {
+        int half = bits / 2;
+        long mask = (1L << half) - 1;
+        long l = y >>> half;
+        long r = y & mask;
+        for (int round = ROUNDS - 1; round >= 0; round--) {
+            long t = r ^ (roundFunction(l, round) & mask);
+            r = l;
+            l = t;
+        }
+        return (l << half) | r;
+    }
+
+    private void rekey() {
+        seed = mix(seed + 0x9E3779B97F4A7C15L);
+    }
+
+    private long roundFunction(long half, int round) {
+        return mix(half ^ (seed + round * 0x9E3779B97F4A7C15L));
+    }
+
+    /** SplitMix64 finalizer. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Smallest even bit count whose domain holds {@code n} rows. */
+    static int bitsFor(int n) {
+        int b = MIN_BITS;
+        while ((1L << b) < n) b += 2;
+        return b;
+    }
+}
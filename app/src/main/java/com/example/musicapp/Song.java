@@ -1,17 +1,37 @@
 package com.example.musicapp;
 
 import android.net.Uri;
+import android.provider.MediaStore;
 
+/**
+ * One library row. The library itself is stored column-wise in {@link LibrarySnapshot};
+ * Song objects are short-lived views created on demand, so the Uri is only built if
+ * someone actually asks for it.
+ */
 public class Song {
     public final long id;
     public final String name;
-    public final Uri uri;
     public final long dateAddedMillis;
+    public final long dateModifiedSeconds; // MediaStore DATE_MODIFIED, used to detect changed files
 
-    public Song(long id, String name, Uri uri, long dateAddedMillis) {
+    private Uri uri;
+
+    public Song(long id, String name, long dateAddedMillis, long dateModifiedSeconds) {
         this.id = id;
         this.name = name;
-        this.uri = uri;
         this.dateAddedMillis = dateAddedMillis;
+        this.dateModifiedSeconds = dateModifiedSeconds;
+    }
+
+    public Uri getUri() {
+        if (uri == null) {
+            uri = Uri.withAppendedPath(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, String.valueOf(id));
+        }
+        return uri;
+    }
+
+    /** Same MediaStore row, unchanged since {@code other} was read. */
+    public boolean sameRowAs(Song other) {
+        return other != null && id == other.id && dateModifiedSeconds == other.dateModifiedSeconds;
     }
 }
@@ -0,0 +1,554 @@
+package com.example.musicapp;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The play queue as a list of segments, each a {@link Range} over a list that never
+ * changes: a library snapshot or sorted view, a playlist, or a few songs the user added.
+ * Queueing "this playlist from song i, wrapping" or "the library from row j" is one
+ * segment, so it costs O(1) however long the collection is; songs are only looked up
+ * as positions are read.
+ *
+ * User edits are overlays on those segments: inserting, removing or replacing inside a
+ * segment splits it at the edit and puts a small segment in between, so an edit costs
+ * O(segments), not O(songs). Advancing the head ({@link #pollFirst}) just skips into the
+ * first segment. Appended songs go into a growing buffer owned by this queue, so a run
+ * of appends stays one segment.
+ *
+ * Lists handed to {@link #insertRange} (and Ranges passed to addAll) are referenced, not
+ * copied, and must not change afterwards; other collections are copied. Another
+ * SongQueue's segments can always be shared, since segments themselves never change;
+ * copying one seals its append buffer, so its later appends start a new one.
+ *
+ * Not thread-safe; the service and the activity each keep their own on the main thread.
+ * A {@link #frozenCopy} is the exception: it can't be edited and reads write nothing, so
+ * other threads may read it once it has been handed over.
+ */
+public final class SongQueue extends AbstractList<Song> implements RandomAccess {
+
+    /**
+     * {@code count} songs of {@code source} starting at {@code start}, wrapping past its
+     * end back to its top. Immutable, as long as {@code source} is.
+     */
+    public static final class Range extends AbstractList<Song> implements RandomAccess {
+        final List<Song> source;
+        final int start;
+        final int count;
+
+        private Range(List<Song> source, int start, int count) {
+            this.source = source;
+            this.start = start;
+            this.count = count;
+        }
+
+        /** {@code source} from {@code start} to its end and then from its top up to {@code start}. */
+        public static Range wrapping(List<Song> source, int start) {
+            int n = source.size();
+            return new Range(source, (n == 0) ? 0 : Math.floorMod(start, n), n);
+        }
+
+        /** All of {@code source}, which must not change afterwards. */
+        public static Range of(List<Song> source) {
+            return new Range(source, 0, source.size());
+        }
+
+        @Override
+        public Song get(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + count);
+            }
+            int i = start + index;
+            int n = source.size();
+            return source.get(i >= n ? i - n : i);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        Range sub(int from, int length) {
+            int i = start + from;
+            int n = source.size();
+            return new Range(source, i >= n ? i - n : i, length);
+        }
+    }
+
+    /** Sees the edits {@link #rebase} makes, in order, at positions in the queue as it is at that point. */
+    public interface RebaseListener {
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, Song song);
+    }
+
+    private final ArrayList<Range> segments = new ArrayList<>();
+    private int skip = 0;   // songs already dropped from the front of segments[0]
+    private int size = 0;
+
+    // Cumulative end of each segment (ignoring skip); rebuilt lazily after structural edits
+    private int[] ends = new int[8];
+    private boolean endsValid = true;
+    private int lastSegment = 0;
+
+    // Append-only buffer for songs added one at a time; earlier entries never change, and
+    // once a copy shares it (sealed: set to null here) nothing is added to it again
+    private ArrayList<Song> appended;
+
+    // Set by frozenCopy: no edits, and ends is complete so reads write no caches
+    private final boolean frozen;
+
+    public SongQueue() {
+        frozen = false;
+    }
+
+    public SongQueue(Collection<? extends Song> songs) {
+        frozen = false;
+        addAll(songs);
+    }
+
+    /** A copy of {@code source}'s segments with the index built; see {@link #frozenCopy}. */
+    private SongQueue(SongQueue source, boolean frozen) {
+        this.frozen = frozen;
+        source.seal();
+        segments.addAll(source.segments);
+        size = source.size;
+        rebuildEnds();
+    }
+
+    /**
+     * A read-only copy that shares this queue's segments, in O(segments), and may be read
+     * from any thread once handed over (through a volatile field, a Handler post, an
+     * executor): its segment index is built up front and reads write nothing.
+     */
+    public SongQueue frozenCopy() {
+        return frozen ? this : new SongQueue(this, true);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Song get(int index) {
+        checkIndex(index, size);
+        int v = index + skip;
+        int k = segmentAt(v);
+        return segments.get(k).get(v - segmentStart(k));
+    }
+
+    @Override
+    public Song set(int index, Song song) {
+        checkMutable();
+        checkIndex(index, size);
+        Song old = get(index);
+        int k = split(index);
+        split(index + 1);
+        segments.set(k, Range.of(Collections.singletonList(song)));
+        edited();
+        return old;
+    }
+
+    /** The head, or null if the queue is empty. */
+    public Song peekFirst() {
+        return (size == 0) ? null : get(0);
+    }
+
+    /** Removes and returns the head in O(1), or null if the queue is empty. */
+    public Song pollFirst() {
+        checkMutable();
+        if (size == 0) return null;
+        Song s = get(0);
+        skip++;
+        size--;
+        if (skip == segments.get(0).count) {
+            segments.remove(0);
+            skip = 0;
+            endsValid = false;
+        }
+        modCount++;
+        return s;
+    }
+
+    /** Appends in amortized O(1), extending the last segment when it ends the append buffer. */
+    @Override
+    public boolean add(Song song) {
+        checkMutable();
+        if (appended == null) appended = new ArrayList<>();
+        appended.add(song);
+
+        int last = segments.size() - 1;
+        Range tail = (last >= 0) ? segments.get(last) : null;
+        if (tail != null && tail.source == appended && tail.start + tail.count == appended.size() - 1) {
+            segments.set(last, new Range(appended, tail.start, tail.count + 1));
+        } else {
+            segments.add(new Range(appended, appended.size() - 1, 1));
+        }
+        size++;
+        endsValid = false;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, Song song) {
+        if (index == size) add(song);
+        else insertRange(index, Collections.singletonList(song));
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Song> songs) {
+        return addAll(size, songs);
+    }
+
+    /** Inserts {@code songs} at {@code index}; Ranges and SongQueues are shared, anything else is copied. */
+    @Override
+    public boolean addAll(int index, Collection<? extends Song> songs) {
+        checkMutable();
+        checkIndex(index, size + 1);
+        if (songs.isEmpty()) return false;
+        if (songs instanceof SongQueue) {
+            SongQueue other = (SongQueue) songs;
+            other.seal();
+            int k = split(index);
+            segments.addAll(k, new ArrayList<>(other.segments));
+            size += other.size;
+            edited();
+            return true;
+        }
+        if (songs instanceof Range) {
+            insertSegment(index, (Range) songs);
+        } else {
+            insertSegment(index, Range.of(new ArrayList<Song>(songs)));
+        }
+        return true;
+    }
+
+    /** Inserts all of {@code source} at {@code index} without copying it; it must not change afterwards. */
+    public void insertRange(int index, List<Song> source) {
+        checkMutable();
+        checkIndex(index, size + 1);
+        if (source.isEmpty()) return;
+        if (source instanceof SongQueue) {
+            addAll(index, source);
+            return;
+        }
+        insertSegment(index, (source instanceof Range) ? (Range) source : Range.of(source));
+    }
+
+    @Override
+    public Song remove(int index) {
+        Song removed = get(index);
+        removeRange(index, index + 1);
+        return removed;
+    }
+
+    /** Removes {@code [from, to)}, dropping or trimming the segments it covers. */
+    @Override
+    public void removeRange(int from, int to) {
+        checkMutable();
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range: [" + from + ", " + to + "), size: " + size);
+        }
+        if (from == to) return;
+        if (from == 0 && skip + to < segments.get(0).count) {
+            // Still inside the first segment: just skip further into it
+            skip += to;
+            size -= to;
+            modCount++;
+            return;
+        }
+        int a = split(from);
+        int b = split(to);
+        segments.subList(a, b).clear();
+        size -= to - from;
+        edited();
+    }
+
+    /** Moves the song at {@code from} so it ends up at {@code to}, as remove-then-insert would. */
+    public void move(int from, int to) {
+        checkIndex(from, size);
+        checkIndex(to, size);
+        if (from == to) return;
+        Song moving = remove(from);
+        add(to, moving);
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        segments.clear();
+        skip = 0;
+        size = 0;
+        appended = null;
+        edited();
+    }
+
+    /** Replaces the whole content with {@code songs} (shared as in {@link #addAll(int, Collection)}). */
+    public void setAll(Collection<? extends Song> songs) {
+        if (songs == this) return;
+        clear();
+        addAll(songs);
+    }
+
+    /**
+     * Re-points the queue at library snapshot {@code now}, which {@code delta} led to: songs
+     * no longer in the library are dropped, edited rows are picked up, and afterwards every
+     * segment but the head's is a Range over {@code now}, so older snapshots aren't kept
+     * alive. The head is left as it is (it may be playing).
+     *
+     * One pass over the segments. A segment over the snapshot {@code delta} started from
+     * costs O(log) per run of surviving rows; any other segment is checked song by song.
+     */
+    public void rebase(LibrarySnapshot now, LibraryDelta delta, RebaseListener listener) {
+        checkMutable();
+        if (size <= 1) return;
+        split(1);
+
+        Rebase r = new Rebase(now, delta, listener);
+        Range head = segments.get(0);
+        r.out.add((head.source == now) ? head : Range.of(Collections.singletonList(head.get(0))));
+        r.position = 1;
+        for (int k = 1; k < segments.size(); k++) r.add(segments.get(k));
+        r.flushRemoved();
+
+        segments.clear();
+        segments.addAll(r.out);
+        size = r.position;
+        edited();
+    }
+
+    /** Number of segments; the cost of edits and copies grows with this, not with size(). */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    // -----------------------
+    // Segment helpers
+    // -----------------------
+
+    private void insertSegment(int index, Range range) {
+        int k = split(index);
+        segments.add(k, range);
+        size += range.count;
+        edited();
+    }
+
+    /**
+     * Makes {@code index} fall on a segment boundary, splitting the segment that spans it,
+     * and returns the number of the segment that now starts there (segments.size() at the end).
+     */
+    private int split(int index) {
+        normalize();
+        if (index == size) return segments.size();
+        int k = segmentAt(index);
+        int start = segmentStart(k);
+        if (index == start) return k;
+
+        Range r = segments.get(k);
+        int left = index - start;
+        segments.set(k, r.sub(0, left));
+        segments.add(k + 1, r.sub(left, r.count - left));
+        endsValid = false;
+        return k + 1;
+    }
+
+    /** Readies the segments to be shared: skip folded in, and the append buffer left to the copy. */
+    private void seal() {
+        if (frozen) return; // already sealed, and may be shared with other threads
+        normalize();
+        appended = null;
+    }
+
+    /** Folds {@code skip} into the first segment so positions map straight onto segments. */
+    private void normalize() {
+        if (skip == 0) return;
+        Range first = segments.get(0);
+        segments.set(0, first.sub(skip, first.count - skip));
+        skip = 0;
+        endsValid = false;
+    }
+
+    private void edited() {
+        endsValid = false;
+        modCount++;
+    }
+
+    /** Segment holding virtual position {@code v} (a position counted before skip is applied). */
+    private int segmentAt(int v) {
+        if (!endsValid) rebuildEnds();
+        // Reads are mostly sequential (adapter binds), so try the last segment hit first
+        int k = lastSegment;
+        if (k < segments.size() && segmentStart(k) <= v && v < ends[k]) return k;
+
+        int lo = 0;
+        int hi = segments.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= v) lo = mid + 1;
+            else hi = mid;
+        }
+        if (!frozen) lastSegment = lo;
+        return lo;
+    }
+
+    private int segmentStart(int k) {
+        if (!endsValid) rebuildEnds();
+        return (k == 0) ? 0 : ends[k - 1];
+    }
+
+    private void rebuildEnds() {
+        int n = segments.size();
+        if (ends.length < n) ends = new int[Math.max(n, ends.length * 2)];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            total += segments.get(i).count;
+            ends[i] = total;
+        }
+        endsValid = true;
+        lastSegment = 0;
+    }
+
+    /** State of one {@link #rebase} pass: the segments built so far and the removals not yet reported. */
+    private static final class Rebase {
+        final LibrarySnapshot now;
+        final LibraryDelta delta;
+        final RebaseListener listener;
+        final ArrayList<Range> out = new ArrayList<>();
+        int position;  // queue position of the next song kept
+        int removed;   // songs dropped at position, not reported yet
+
+        Rebase(LibrarySnapshot now, LibraryDelta delta, RebaseListener listener) {
+            this.now = now;
+            this.delta = delta;
+            this.listener = listener;
+        }
+
+        void add(Range segment) {
+            if (segment.source == now) {
+                keep(segment);
+            } else if (segment.source instanceof LibrarySnapshot && !delta.reordered
+                    && ((LibrarySnapshot) segment.source).version == delta.fromVersion) {
+                // Wrapping segments are at most two runs of old rows
+                int n = segment.source.size();
+                int first = Math.min(segment.count, n - segment.start);
+                addOldRows(segment.start, segment.start + first);
+                addOldRows(0, segment.count - first);
+            } else {
+                for (int i = 0; i < segment.count; i++) addSong(segment, i);
+            }
+        }
+
+        /** Old rows {@code [from, to)}, mapped through the delta a run of survivors at a time. */
+        private void addOldRows(int from, int to) {
+            int[] gone = delta.removed;
+            int[] added = delta.inserted;
+            int i = from;
+            while (i < to) {
+                int g = lowerBound(gone, i);
+                if (g < gone.length && gone[g] == i) {
+                    removed++;
+                    i++;
+                    continue;
+                }
+                int p = newPosition(i - g);
+                int nextGone = (g < gone.length) ? gone[g] : Integer.MAX_VALUE;
+                int a = lowerBound(added, p + 1);
+                int nextAdded = (a < added.length) ? added[a] : Integer.MAX_VALUE;
+                int length = Math.min(to - i, Math.min(nextGone - i, nextAdded - p));
+                keepRows(p, length);
+                i += length;
+            }
+        }
+
+        /** Where the survivor ranked {@code rank} among the old rows is in {@code now}. */
+        private int newPosition(int rank) {
+            // inserted[j] - j never decreases; count the insertions placed before the survivor
+            int[] added = delta.inserted;
+            int lo = 0;
+            int hi = added.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (added[mid] - mid <= rank) lo = mid + 1;
+                else hi = mid;
+            }
+            return rank + lo;
+        }
+
+        /** Keeps rows {@code [p, p + length)} of {@code now}, reporting the updated ones. */
+        private void keepRows(int p, int length) {
+            int at = position;
+            keep(new Range(now, p, length));
+            int[] updated = delta.updated;
+            for (int u = lowerBound(updated, p); u < updated.length && updated[u] < p + length; u++) {
+                listener.onChanged(at + updated[u] - p, now.get(updated[u]));
+            }
+        }
+
+        private void addSong(Range segment, int i) {
+            long id;
+            long dateModified;
+            int row = segment.start + i;
+            if (segment.source instanceof LibrarySnapshot) {
+                LibrarySnapshot src = (LibrarySnapshot) segment.source;
+                if (row >= src.size()) row -= src.size();
+                id = src.idAt(row);
+                dateModified = src.dateModifiedAt(row);
+            } else {
+                Song s = segment.get(i);
+                id = s.id;
+                dateModified = s.dateModifiedSeconds;
+            }
+
+            int p = now.indexOfId(id);
+            if (p < 0) {
+                removed++;
+                return;
+            }
+            int at = position;
+            keep(new Range(now, p, 1));
+            if (now.dateModifiedAt(p) != dateModified) listener.onChanged(at, now.get(p));
+        }
+
+        /** Appends {@code range}, extending the last segment when it continues it. */
+        private void keep(Range range) {
+            flushRemoved();
+            int last = out.size() - 1;
+            Range tail = (last >= 0) ? out.get(last) : null;
+            if (tail != null && tail.source == range.source && tail.start + tail.count == range.start
+                    && range.start + range.count <= range.source.size()) {
+                out.set(last, new Range(range.source, tail.start, tail.count + range.count));
+            } else {
+                out.add(range);
+            }
+            position += range.count;
+        }
+
+        void flushRemoved() {
+            if (removed == 0) return;
+            listener.onRemoved(position, removed);
+            removed = 0;
+        }
+
+        private static int lowerBound(int[] a, int value) {
+            int i = Arrays.binarySearch(a, value);
+            return (i >= 0) ? i : -i - 1;
+        }
+    }
+
+    private void checkMutable() {
+        if (frozen) throw new UnsupportedOperationException("frozen queue");
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + bound);
+        }
+    }
+}
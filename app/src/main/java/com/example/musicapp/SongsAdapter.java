@@ -3,6 +3,7 @@ package com.example.musicapp;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -13,8 +14,25 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
+/**
+ * A list of songs (the library, search results, a playlist). Rows come from an immutable
+ * list that is {@link #submit}ted whole and diffed in the background, so an update only
+ * rebinds the rows that changed; item ids are song ids.
+ */
 public class SongsAdapter extends RecyclerView.Adapter<SongsAdapter.VH> {
 
+    private static final ListDiffer.ItemCallback<Song> ROWS = new ListDiffer.ItemCallback<Song>() {
+        @Override
+        public long idOf(Song song) {
+            return song.id;
+        }
+
+        @Override
+        public boolean sameContents(Song a, Song b) {
+            return a.sameRowAs(b);
+        }
+    };
+
     private final SimpleDateFormat dateFmt = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
 
     public interface OnSongClickListener {
@@ -22,19 +40,59 @@ public class SongsAdapter extends RecyclerView.Adapter<SongsAdapter.VH> {
     }
 
     public interface OnSongLongPressListener {
-        void onSongLongPress(Song song);
+        void onSongLongPress(int position, Song song);
     }
 
-    private final List<Song> songs;
+    private final ListDiffer<Song> differ = new ListDiffer<>(this, ROWS);
+    private MetadataCache metadataCache;
+    private ArtworkCache artworkCache;
     private final OnSongClickListener clickListener;
     private final OnSongLongPressListener longPressListener;
 
-    public SongsAdapter(List<Song> songs,
-                        OnSongClickListener clickListener,
+    public SongsAdapter(OnSongClickListener clickListener,
                         OnSongLongPressListener longPressListener) {
-        this.songs = songs;
         this.clickListener = clickListener;
         this.longPressListener = longPressListener;
+        setHasStableIds(true);
+    }
+
+    /** Rows show artist/album/duration once it is in this cache. */
+    public void setMetadataCache(MetadataCache cache) {
+        this.metadataCache = cache;
+    }
+
+    /** Rows show album art through this cache (requests are cancelled when rows are recycled). */
+    public void setArtworkCache(ArtworkCache cache) {
+        this.artworkCache = cache;
+    }
+
+    public Song getItem(int position) {
+        return differ.getList().get(position);
+    }
+
+    /** The list on screen; immutable. */
+    public List<Song> getSongs() {
+        return differ.getList();
+    }
+
+    /** Shows {@code songs}, which must not change afterwards; see {@link ListDiffer#submit}. */
+    public void submit(List<Song> songs) {
+        differ.submit(songs);
+    }
+
+    /** As {@link #submit(List)}, with the changes since the last submission already known. */
+    public void submit(List<Song> songs, ListDiffer.Changes changes) {
+        differ.submit(songs, changes);
+    }
+
+    /** Shows a different list at once, without diffing against this one. */
+    public void replace(List<Song> songs) {
+        differ.replace(songs);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
     }
 
     @NonNull
@@ -46,17 +104,19 @@ public class SongsAdapter extends RecyclerView.Adapter<SongsAdapter.VH> {
 
     @Override
     public void onBindViewHolder(@NonNull VH holder, int position) {
-        Song s = songs.get(position);
+        Song s = getItem(position);
 
         holder.txtSongName.setText(s.name);
         holder.txtSongDate.setVisibility(View.VISIBLE);
         holder.txtSongDate.setText(dateFmt.format(new Date(s.dateAddedMillis)));
+        holder.bindMetadata(metadataCache == null ? null : metadataCache.get(s));
+        if (artworkCache != null) artworkCache.bind(holder.imgArt, s);
 
         // Click -> play
         holder.itemView.setOnClickListener(v -> {
             int pos = holder.getBindingAdapterPosition();
             if (pos != RecyclerView.NO_POSITION && clickListener != null) {
-                clickListener.onSongClick(pos, songs.get(pos));
+                clickListener.onSongClick(pos, getItem(pos));
             }
         });
 
@@ -66,25 +126,39 @@ public class SongsAdapter extends RecyclerView.Adapter<SongsAdapter.VH> {
             if (pos == RecyclerView.NO_POSITION) return false;
 
             if (longPressListener != null) {
-                longPressListener.onSongLongPress(songs.get(pos));
+                longPressListener.onSongLongPress(pos, getItem(pos));
                 return true; // consume
             }
             return false;
         });
     }
 
+    @Override
+    public void onViewRecycled(@NonNull VH holder) {
+        if (artworkCache != null) artworkCache.cancel(holder.imgArt);
+    }
+
     @Override
     public int getItemCount() {
-        return songs.size();
+        return differ.getList().size();
     }
 
     static class VH extends RecyclerView.ViewHolder {
-        TextView txtSongName, txtSongDate;
+        TextView txtSongName, txtSongDate, txtSongMeta;
+        ImageView imgArt;
 
         public VH(View itemView) {
             super(itemView);
+            imgArt = itemView.findViewById(R.id.imgArt);
             txtSongName = itemView.findViewById(R.id.txtSongName);
             txtSongDate = itemView.findViewById(R.id.txtSongDate);
+            txtSongMeta = itemView.findViewById(R.id.txtSongMeta);
+        }
+
+        void bindMetadata(TrackMetadata m) {
+            String summary = (m == null) ? "" : m.summary();
+            txtSongMeta.setVisibility(summary.isEmpty() ? View.GONE : View.VISIBLE);
+            txtSongMeta.setText(summary);
         }
     }
 }
@@ -0,0 +1,53 @@
+package com.example.musicapp;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A {@link LibrarySnapshot} seen through a sort permutation. Building one is O(1): the
+ * permutation is shared, so flipping direction or going back to a key sorted before is
+ * just a new view (see {@link LibrarySorter}).
+ *
+ * {@code order} lists snapshot rows in ascending key order, with the rows whose key is
+ * unknown (no metadata yet) after the first {@code known} entries; those stay at the end
+ * in either direction. A null order means the snapshot's own order, which is newest
+ * first.
+ */
+public final class SortedLibrary extends AbstractList<Song> implements RandomAccess {
+
+    public final LibrarySnapshot snapshot;
+    public final int key;
+    public final boolean descending;
+    private final int[] order;
+    private final int known;
+
+    SortedLibrary(LibrarySnapshot snapshot, int key, boolean descending, int[] order, int known) {
+        this.snapshot = snapshot;
+        this.key = key;
+        this.descending = descending;
+        this.order = order;
+        this.known = known;
+    }
+
+    /** The same rows in the opposite direction. */
+    public SortedLibrary reversed() {
+        return new SortedLibrary(snapshot, key, !descending, order, known);
+    }
+
+    /** Snapshot row shown at {@code position}. */
+    public int rowAt(int position) {
+        if (order == null) return descending ? position : snapshot.size() - 1 - position;
+        if (position >= known) return order[position];
+        return descending ? order[known - 1 - position] : order[position];
+    }
+
+    @Override
+    public Song get(int position) {
+        return snapshot.get(rowAt(position));
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size();
+    }
+}
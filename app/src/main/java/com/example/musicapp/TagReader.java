@@ -0,0 +1,276 @@
+package com.example.musicapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pure-Java reader for audio tags: ID3v1, ID3v2.2/2.3/2.4 (MP3), Vorbis comments in
+ * FLAC and Ogg (Vorbis/Opus), and MP4/M4A {@code ilst} atoms, plus the stream info
+ * (duration, sample rate, bitrate) found in the same headers.
+ *
+ * Only header regions are touched: small structures are read through a reused buffer
+ * and tag blocks are memory-mapped, so the audio data is never decoded or copied.
+ * Results are streamed to a {@link Visitor}; text values are decoded into a reused
+ * CharBuffer and are only valid for the duration of the callback, so parsing does no
+ * per-frame allocation beyond what the visitor chooses to keep.
+ *
+ * An instance is not thread-safe; use one per thread.
+ */
+public final class TagReader {
+
+    public static final int FIELD_TITLE = 1;
+    public static final int FIELD_ARTIST = 2;
+    public static final int FIELD_ALBUM = 3;
+    public static final int FIELD_ALBUM_ARTIST = 4;
+    public static final int FIELD_TRACK = 5;
+    public static final int FIELD_YEAR = 6;
+    public static final int FIELD_GENRE = 7;
+
+    public static final int FORMAT_UNKNOWN = 0;
+    public static final int FORMAT_MP3 = 1;
+    public static final int FORMAT_FLAC = 2;
+    public static final int FORMAT_OGG = 3;
+    public static final int FORMAT_MP4 = 4;
+
+    public interface Visitor {
+        /** A text field. {@code value} is only valid during this call. */
+        void onTextField(int field, CharSequence value);
+
+        /** Stream properties; any of them may be 0 if the headers don't say. */
+        void onStreamInfo(long durationMs, int sampleRate, int bitrate);
+
+        /**
+         * Embedded cover art. {@code data} is positioned at the image bytes (remaining() =
+         * length) and is only valid during this call.
+         */
+        void onPicture(String mimeType, ByteBuffer data);
+    }
+
+    // Reused between calls
+    private final ByteBuffer header = ByteBuffer.allocate(64);
+    private byte[] scratch = new byte[1024];
+    private ByteBuffer scratchBuf = ByteBuffer.wrap(scratch);
+    private ByteBuffer packetBuf = ByteBuffer.allocate(4096);
+    private CharBuffer chars = CharBuffer.allocate(256);
+    private final StringBuilder number = new StringBuilder(12);
+    private final CharsetDecoder latin1 = newDecoder(StandardCharsets.ISO_8859_1);
+    private final CharsetDecoder utf8 = newDecoder(StandardCharsets.UTF_8);
+    private final CharsetDecoder utf16 = newDecoder(StandardCharsets.UTF_16);
+    private final CharsetDecoder utf16be = newDecoder(StandardCharsets.UTF_16BE);
+
+    /** Reads tags and stream info from {@code ch}; returns the detected FORMAT_* constant. */
+    public int read(FileChannel ch, Visitor visitor) throws IOException {
+        long size = ch.size();
+        if (size < 12) return FORMAT_UNKNOWN;
+
+        ByteBuffer h = readAt(ch, 0, 12);
+        if (h == null) return FORMAT_UNKNOWN;
+
+        if (h.get(0) == 'f' && h.get(1) == 'L' && h.get(2) == 'a' && h.get(3) == 'C') {
+            VorbisTagParser.readFlac(this, ch, 4, visitor);
+            return FORMAT_FLAC;
+        }
+        if (h.get(0) == 'O' && h.get(1) == 'g' && h.get(2) == 'g' && h.get(3) == 'S') {
+            VorbisTagParser.readOgg(this, ch, visitor);
+            return FORMAT_OGG;
+        }
+        if (h.get(4) == 'f' && h.get(5) == 't' && h.get(6) == 'y' && h.get(7) == 'p') {
+            Mp4TagParser.read(this, ch, visitor);
+            return FORMAT_MP4;
+        }
+
+        long audioStart = 0;
+        boolean hasV2 = false;
+        if (h.get(0) == 'I' && h.get(1) == 'D' && h.get(2) == '3') {
+            long tagEnd = Id3TagParser.readV2(this, ch, visitor);
+            if (tagEnd > 0) {
+                audioStart = tagEnd;
+                hasV2 = true;
+            }
+
+            // FLAC files sometimes carry a leading ID3v2 tag
+            ByteBuffer after = readAt(ch, audioStart, 4);
+            if (after != null && after.get(0) == 'f' && after.get(1) == 'L' && after.get(2) == 'a' && after.get(3) == 'C') {
+                VorbisTagParser.readFlac(this, ch, audioStart + 4, visitor);
+                return FORMAT_FLAC;
+            }
+        }
+
+        boolean hasV1 = Id3TagParser.readV1(this, ch, hasV2 ? null : visitor);
+        boolean isMpeg = Id3TagParser.readMpegStreamInfo(this, ch, audioStart, size - (hasV1 ? 128 : 0), visitor);
+        return (hasV2 || hasV1 || isMpeg) ? FORMAT_MP3 : FORMAT_UNKNOWN;
+    }
+
+    /** Convenience: reads into a new {@link Tags}, keeping the first value of each field. */
+    public Tags readTags(FileChannel ch) throws IOException {
+        Tags tags = new Tags();
+        tags.format = read(ch, tags);
+        return tags;
+    }
+
+    /** A visitor that keeps the first value of every field as a String (pictures are skipped). */
+    public static class Tags implements Visitor {
+        public int format;
+        public String title;
+        public String artist;
+        public String album;
+        public String albumArtist;
+        public String track;
+        public String year;
+        public String genre;
+        public long durationMs;
+        public int sampleRate;
+        public int bitrate;
+        public boolean hasPicture;
+
+        @Override
+        public void onTextField(int field, CharSequence value) {
+            String s = value.toString().trim();
+            if (s.isEmpty()) return;
+            switch (field) {
+                case FIELD_TITLE: if (title == null) title = s; break;
+                case FIELD_ARTIST: if (artist == null) artist = s; break;
+                case FIELD_ALBUM: if (album == null) album = s; break;
+                case FIELD_ALBUM_ARTIST: if (albumArtist == null) albumArtist = s; break;
+                case FIELD_TRACK: if (track == null) track = s; break;
+                case FIELD_YEAR: if (year == null) year = s; break;
+                case FIELD_GENRE: if (genre == null) genre = s; break;
+            }
+        }
+
+        @Override
+        public void onStreamInfo(long durationMs, int sampleRate, int bitrate) {
+            this.durationMs = durationMs;
+            this.sampleRate = sampleRate;
+            this.bitrate = bitrate;
+        }
+
+        @Override
+        public void onPicture(String mimeType, ByteBuffer data) {
+            hasPicture = true;
+        }
+    }
+
+    // -----------------------
+    // Shared helpers for the format parsers
+    // -----------------------
+
+    /**
+     * Reads {@code len} (max 64) bytes at {@code pos} into the shared header buffer,
+     * big-endian, positioned at 0. Returns null at end of file.
+     */
+    ByteBuffer readAt(FileChannel ch, long pos, int len) throws IOException {
+        header.clear();
+        header.order(ByteOrder.BIG_ENDIAN);
+        header.limit(len);
+        while (header.hasRemaining()) {
+            int n = ch.read(header, pos + header.position());
+            if (n < 0) return null;
+        }
+        header.flip();
+        return header;
+    }
+
+    MappedByteBuffer map(FileChannel ch, long pos, long len) throws IOException {
+        long avail = Math.max(0, ch.size() - pos);
+        return ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(len, avail));
+    }
+
+    /** A reusable scratch buffer of at least {@code len} bytes, positioned at 0 with limit len. */
+    ByteBuffer scratch(int len) {
+        if (scratch.length < len) {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+            scratchBuf = ByteBuffer.wrap(scratch);
+        }
+        scratchBuf.clear();
+        scratchBuf.limit(len);
+        return scratchBuf;
+    }
+
+    /**
+     * A second reusable buffer for data that must survive {@link #decode} calls, such as
+     * reassembled Ogg packets; positioned at 0 with limit len.
+     */
+    ByteBuffer packet(int len) {
+        if (packetBuf.capacity() < len) packetBuf = ByteBuffer.allocate(Math.max(len, packetBuf.capacity() * 2));
+        packetBuf.clear();
+        packetBuf.limit(len);
+        return packetBuf;
+    }
+
+    /** Decodes {@code len} bytes of {@code src} at absolute {@code pos} into the shared CharBuffer. */
+    CharSequence decode(ByteBuffer src, int pos, int len, Charset charset) {
+        ByteBuffer in = scratch(len);
+        int savedPos = src.position();
+        src.position(pos);
+        src.get(scratch, 0, len);
+        src.position(savedPos);
+
+        CharsetDecoder dec = decoderFor(charset);
+        dec.reset();
+        if (chars.capacity() < len) chars = CharBuffer.allocate(Math.max(len, chars.capacity() * 2));
+        chars.clear();
+        dec.decode(in, chars, true);
+        dec.flush(chars);
+        chars.flip();
+        return chars;
+    }
+
+    /** Formats {@code value} into a reused builder (for numeric fields such as the MP4 track number). */
+    CharSequence number(int value) {
+        number.setLength(0);
+        number.append(value);
+        return number;
+    }
+
+    private CharsetDecoder decoderFor(Charset cs) {
+        if (cs == StandardCharsets.UTF_8) return utf8;
+        if (cs == StandardCharsets.UTF_16) return utf16;
+        if (cs == StandardCharsets.UTF_16BE) return utf16be;
+        return latin1;
+    }
+
+    private static CharsetDecoder newDecoder(Charset cs) {
+        return cs.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    static int u8(ByteBuffer b, int pos) {
+        return b.get(pos) & 0xFF;
+    }
+
+    static int u16be(ByteBuffer b, int pos) {
+        return ((b.get(pos) & 0xFF) << 8) | (b.get(pos + 1) & 0xFF);
+    }
+
+    static long u32be(ByteBuffer b, int pos) {
+        return ((long) (b.get(pos) & 0xFF) << 24) | ((b.get(pos + 1) & 0xFF) << 16)
+                | ((b.get(pos + 2) & 0xFF) << 8) | (b.get(pos + 3) & 0xFF);
+    }
+
+    static long u32le(ByteBuffer b, int pos) {
+        return ((long) (b.get(pos + 3) & 0xFF) << 24) | ((b.get(pos + 2) & 0xFF) << 16)
+                | ((b.get(pos + 1) & 0xFF) << 8) | (b.get(pos) & 0xFF);
+    }
+
+    static long u64le(ByteBuffer b, int pos) {
+        return (u32le(b, pos + 4) << 32) | u32le(b, pos);
+    }
+
+    static boolean matches(ByteBuffer b, int pos, String ascii) {
+        if (pos < 0 || pos + ascii.length() > b.limit()) return false;
+        for (int i = 0; i < ascii.length(); i++) {
+            if (b.get(pos + i) != (byte) ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.musicapp;
+
+/**
+ * Tag and stream information for one track, as extracted by {@link MetadataExtractor}.
+ * Valid for the file version identified by {@code dateModifiedSeconds}.
+ */
+public final class TrackMetadata {
+    public final long songId;
+    public final long dateModifiedSeconds;
+
+    public final String artist;     // null if unknown
+    public final String album;      // null if unknown
+    public final long durationMs;   // 0 if unknown
+    public final int trackNumber;   // 0 if unknown
+    public final int bitrate;       // bits per second, 0 if unknown
+    public final int sampleRate;    // Hz, 0 if unknown
+
+    public TrackMetadata(long songId, long dateModifiedSeconds, String artist, String album,
+                         long durationMs, int trackNumber, int bitrate, int sampleRate) {
+        this.songId = songId;
+        this.dateModifiedSeconds = dateModifiedSeconds;
+        this.artist = artist;
+        this.album = album;
+        this.durationMs = durationMs;
+        this.trackNumber = trackNumber;
+        this.bitrate = bitrate;
+        this.sampleRate = sampleRate;
+    }
+
+    /** "Artist · Album · 3:45" with unknown parts left out. */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        if (artist != null) sb.append(artist);
+        if (album != null) {
+            if (sb.length() > 0) sb.append(" · ");
+            sb.append(album);
+        }
+        if (durationMs > 0) {
+            if (sb.length() > 0) sb.append(" · ");
+            long secs = durationMs / 1000;
+            sb.append(secs / 60).append(':');
+            if (secs % 60 < 10) sb.append('0');
+            sb.append(secs % 60);
+        }
+        return sb.toString();
+    }
+}
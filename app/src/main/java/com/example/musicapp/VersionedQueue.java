@@ -0,0 +1,202 @@
+package com.example.musicapp;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The service's play queue: a {@link SongQueue} whose every edit bumps a version and is
+ * recorded as a {@link QueueChange}. The list view is read-only; edit through the
+ * methods below so nothing goes unrecorded.
+ *
+ * The most recent {@link #LOG_CAPACITY} changes are kept, so a client that fell further
+ * behind (or never synced) gets null from {@link #changesSince} and copies the queue
+ * once instead.
+ */
+public final class VersionedQueue extends AbstractList<Song> implements RandomAccess {
+
+    /** A version no queue has; mirrors start here so their first sync is a full copy. */
+    public static final long NO_VERSION = -1L;
+
+    static final int LOG_CAPACITY = 64;
+
+    /** Sees every change as it is recorded (e.g. to persist it). */
+    public interface ChangeListener {
+        void onQueueChange(QueueChange change);
+    }
+
+    private final SongQueue songs = new SongQueue();
+    private final ArrayDeque<QueueChange> log = new ArrayDeque<>();
+    private long version = 0;
+    private ChangeListener listener;
+
+    public void setChangeListener(ChangeListener listener) {
+        this.listener = listener;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public int size() {
+        return songs.size();
+    }
+
+    @Override
+    public Song get(int index) {
+        return songs.get(index);
+    }
+
+    public Song peekFirst() {
+        return songs.peekFirst();
+    }
+
+    /** A copy that shares this queue's segments, so it costs O(segments) rather than O(songs). */
+    public SongQueue copy() {
+        return new SongQueue(songs);
+    }
+
+    /** An immutable view of the queue and its change log as of now, safe to hand to other threads. */
+    public Snapshot snapshot() {
+        return new Snapshot(songs.frozenCopy(), version, new ArrayList<>(log));
+    }
+
+    /**
+     * Changes that take a mirror at {@code since} to the current version, oldest first:
+     * empty if it is current, null if the log no longer reaches back that far.
+     */
+    public List<QueueChange> changesSince(long since) {
+        if (since == version) return Collections.emptyList();
+        if (since > version || since < version - log.size()) return null;
+
+        ArrayList<QueueChange> out = new ArrayList<>((int) (version - since));
+        Iterator<QueueChange> it = log.descendingIterator();
+        while (it.hasNext()) {
+            QueueChange c = it.next();
+            if (c.version <= since) break;
+            out.add(c);
+        }
+        Collections.reverse(out);
+        return out;
+    }
+
+    // -----------------------
+    // Edits (each one is recorded)
+    // -----------------------
+
+    public void append(Song song) {
+        insert(songs.size(), Collections.singletonList(song));
+    }
+
+    /** Inserts {@code added} by reference (see {@link SongQueue#insertRange}); it must not change afterwards. */
+    public void insert(int index, List<Song> added) {
+        if (added.isEmpty()) return;
+        // A SongQueue may still be edited by its owner, and the record is read on other threads
+        // (journal, activity), so it keeps a frozen copy of its segments
+        List<Song> shared = (added instanceof SongQueue) ? ((SongQueue) added).frozenCopy() : added;
+        songs.insertRange(index, shared);
+        record(QueueChange.inserted(version + 1, index, shared));
+    }
+
+    public void remove(int index, int count) {
+        if (count <= 0) return;
+        songs.removeRange(index, index + count);
+        record(QueueChange.removed(version + 1, index, count));
+    }
+
+    public void move(int from, int to) {
+        if (from == to) return;
+        songs.move(from, to);
+        record(QueueChange.moved(version + 1, from, to));
+    }
+
+    /** Drops the head; the new head is returned (null if the queue is now empty). */
+    public Song advanceHead() {
+        if (songs.isEmpty()) return null;
+        songs.pollFirst();
+        record(QueueChange.headAdvanced(version + 1, 1));
+        return songs.peekFirst();
+    }
+
+    public void replace(int index, Song song) {
+        songs.set(index, song);
+        record(QueueChange.changed(version + 1, index, song));
+    }
+
+    /**
+     * Re-points the queue at a changed library in one pass (see {@link SongQueue#rebase});
+     * each run of songs dropped and each song edited is recorded.
+     */
+    public void rebase(LibrarySnapshot now, LibraryDelta delta) {
+        songs.rebase(now, delta, new SongQueue.RebaseListener() {
+            @Override
+            public void onRemoved(int position, int count) {
+                record(QueueChange.removed(version + 1, position, count));
+            }
+
+            @Override
+            public void onChanged(int position, Song song) {
+                record(QueueChange.changed(version + 1, position, song));
+            }
+        });
+    }
+
+    /** Replaces the whole queue (recorded as a removal of everything plus an insertion). */
+    public void replaceAll(List<Song> newSongs) {
+        remove(0, songs.size());
+        insert(0, newSongs);
+    }
+
+    /**
+     * The queue at one version, with the changes that led up to it. The songs are a
+     * {@link SongQueue#frozenCopy}, so nothing is written after construction, not even by
+     * reads: it can be published through a volatile field and read without locks.
+     */
+    public static final class Snapshot {
+        private final SongQueue songs;
+        private final long version;
+        private final List<QueueChange> log;
+
+        Snapshot(SongQueue songs, long version, List<QueueChange> log) {
+            this.songs = songs;
+            this.version = version;
+            this.log = log;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        public int size() {
+            return songs.size();
+        }
+
+        public Song peekFirst() {
+            return songs.peekFirst();
+        }
+
+        /** A copy the caller may edit; shares segments with this snapshot. */
+        public SongQueue copy() {
+            return new SongQueue(songs);
+        }
+
+        /** As {@link VersionedQueue#changesSince}, up to this snapshot's version. */
+        public List<QueueChange> changesSince(long since) {
+            if (since == version) return Collections.emptyList();
+            if (since > version || since < version - log.size()) return null;
+            return Collections.unmodifiableList(log.subList(log.size() - (int) (version - since), log.size()));
+        }
+    }
+
+    private void record(QueueChange change) {
+        version = change.version;
+        log.addLast(change);
+        if (log.size() > LOG_CAPACITY) log.removeFirst();
+        if (listener != null) listener.onQueueChange(change);
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.musicapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Vorbis comments, as found in FLAC metadata blocks and in the second header packet of
+ * Ogg Vorbis and Ogg Opus streams, plus the stream info carried next to them
+ * (FLAC STREAMINFO, the Vorbis/Opus identification header). Used by {@link TagReader}.
+ */
+final class VorbisTagParser {
+
+    private static final int FLAC_STREAMINFO = 0;
+    private static final int FLAC_VORBIS_COMMENT = 4;
+    private static final int FLAC_PICTURE = 6;
+
+    // Ogg header packets are usually a few KB; cover art embedded in the comment
+    // packet can make it larger, in which case only what fits is parsed.
+    private static final int OGG_HEADER_WINDOW = 256 * 1024;
+    private static final int OGG_TAIL_WINDOW = 64 * 1024;
+
+    private static final String[] KEYS = {
+            "TITLE", "ARTIST", "ALBUM", "ALBUMARTIST", "TRACKNUMBER", "DATE", "GENRE",
+    };
+    private static final int[] KEY_FIELDS = {
+            TagReader.FIELD_TITLE, TagReader.FIELD_ARTIST, TagReader.FIELD_ALBUM,
+            TagReader.FIELD_ALBUM_ARTIST, TagReader.FIELD_TRACK, TagReader.FIELD_YEAR,
+            TagReader.FIELD_GENRE,
+    };
+
+    private VorbisTagParser() {}
+
+    // -----------------------
+    // FLAC
+    // -----------------------
+
+    /** Walks the FLAC metadata blocks starting at {@code pos} (just past "fLaC"). */
+    static void readFlac(TagReader r, FileChannel ch, long pos, TagReader.Visitor v) throws IOException {
+        long size = ch.size();
+        long totalSamples = 0;
+        int sampleRate = 0;
+
+        boolean last = false;
+        while (!last && pos + 4 <= size) {
+            ByteBuffer h = r.readAt(ch, pos, 4);
+            if (h == null) return;
+            int type = TagReader.u8(h, 0) & 0x7F;
+            last = (TagReader.u8(h, 0) & 0x80) != 0;
+            int len = (TagReader.u8(h, 1) << 16) | TagReader.u16be(h, 2);
+            long body = pos + 4;
+            if (body + len > size) return;
+
+            if (type == FLAC_STREAMINFO && len >= 18) {
+                ByteBuffer s = r.readAt(ch, body, 18);
+                if (s == null) return;
+                // 20 bits sample rate, 3 bits channels, 5 bits depth, 36 bits total samples
+                sampleRate = (TagReader.u16be(s, 10) << 4) | (TagReader.u8(s, 12) >> 4);
+                totalSamples = ((long) (TagReader.u8(s, 13) & 0x0F) << 32) | TagReader.u32be(s, 14);
+            } else if (type == FLAC_VORBIS_COMMENT) {
+                ByteBuffer b = r.map(ch, body, len);
+                readComments(r, b, 0, b.limit(), v);
+            } else if (type == FLAC_PICTURE) {
+                readFlacPicture(r.map(ch, body, len), v);
+            }
+            pos = body + len;
+        }
+
+        long durationMs = (sampleRate > 0) ? totalSamples * 1000 / sampleRate : 0;
+        int bitrate = (durationMs > 0) ? (int) ((size - pos) * 8000 / durationMs) : 0;
+        v.onStreamInfo(durationMs, sampleRate, bitrate);
+    }
+
+    private static void readFlacPicture(ByteBuffer b, TagReader.Visitor v) {
+        int end = b.limit();
+        int pos = 4; // picture type
+        if (pos + 4 > end) return;
+        int mimeLen = (int) TagReader.u32be(b, pos);
+        pos += 4;
+        if (mimeLen < 0 || pos + mimeLen + 4 > end) return;
+        StringBuilder mime = new StringBuilder(mimeLen);
+        for (int i = 0; i < mimeLen; i++) mime.append((char) TagReader.u8(b, pos + i));
+        pos += mimeLen;
+        int descLen = (int) TagReader.u32be(b, pos);
+        pos += 4 + descLen + 16; // description, width, height, depth, colours
+        if (descLen < 0 || pos + 4 > end) return;
+        long dataLen = TagReader.u32be(b, pos);
+        pos += 4;
+        if (pos + dataLen > end) return;
+
+        b.limit(pos + (int) dataLen).position(pos);
+        v.onPicture(mime.length() > 0 ? mime.toString() : "image/jpeg", b);
+    }
+
+    // -----------------------
+    // Ogg
+    // -----------------------
+
+    /**
+     * Reassembles the first two packets of the first logical stream (identification and
+     * comment headers) from the pages at the start of the file, then reads the last
+     * page's granule position for the duration.
+     */
+    static void readOgg(TagReader r, FileChannel ch, TagReader.Visitor v) throws IOException {
+        long size = ch.size();
+        ByteBuffer b = r.map(ch, 0, Math.min(size, OGG_HEADER_WINDOW));
+        int end = b.limit();
+
+        // Packets are copied into the reader's packet buffer: [0, idLen) then the comment packet
+        ByteBuffer packets = r.packet(end);
+        int filled = 0;
+        int idLen = -1;
+        int commentLen = -1;
+        long serial = -1;
+
+        int pos = 0;
+        while (commentLen < 0 && pos + 27 <= end && TagReader.matches(b, pos, "OggS")) {
+            long pageSerial = TagReader.u32le(b, pos + 14);
+            int segments = TagReader.u8(b, pos + 26);
+            int data = pos + 27 + segments;
+            if (data > end) break;
+            if (serial == -1) serial = pageSerial;
+
+            for (int i = 0; i < segments && commentLen < 0; i++) {
+                int lace = TagReader.u8(b, pos + 27 + i);
+                if (data + lace > end) { data = end; break; }
+                if (pageSerial == serial) {
+                    for (int k = 0; k < lace; k++) packets.put(filled++, b.get(data + k));
+                    if (lace < 255) {
+                        // Packet boundary
+                        if (idLen < 0) idLen = filled;
+                        else commentLen = filled - idLen;
+                    }
+                }
+                data += lace;
+            }
+            pos = data;
+        }
+        if (idLen < 0) return;
+        // A comment packet cut off by the window still yields the entries before the cut
+        if (commentLen < 0) commentLen = filled - idLen;
+
+        int sampleRate = 0;
+        int nominalBitrate = 0;
+        int granuleRate = 0;
+        long preSkip = 0;
+        boolean opus = TagReader.matches(packets, 0, "OpusHead");
+        if (opus && idLen >= 19) {
+            preSkip = (packets.get(10) & 0xFF) | ((packets.get(11) & 0xFF) << 8);
+            sampleRate = (int) TagReader.u32le(packets, 12);
+            granuleRate = 48000; // Opus granules always count 48 kHz samples
+        } else if (packets.get(0) == 1 && TagReader.matches(packets, 1, "vorbis") && idLen >= 30) {
+            sampleRate = (int) TagReader.u32le(packets, 12);
+            nominalBitrate = (int) TagReader.u32le(packets, 20);
+            granuleRate = sampleRate;
+        }
+
+        if (commentLen > 0) {
+            int c = idLen;
+            if (opus && TagReader.matches(packets, c, "OpusTags")) {
+                readComments(r, packets, c + 8, c + commentLen, v);
+            } else if (packets.get(c) == 3 && TagReader.matches(packets, c + 1, "vorbis")) {
+                readComments(r, packets, c + 7, c + commentLen, v);
+            }
+        }
+
+        long durationMs = 0;
+        long granule = lastGranule(r, ch, serial);
+        if (granule > preSkip && granuleRate > 0) durationMs = (granule - preSkip) * 1000 / granuleRate;
+        int bitrate = (nominalBitrate > 0) ? nominalBitrate
+                : (durationMs > 0) ? (int) (size * 8000 / durationMs) : 0;
+        v.onStreamInfo(durationMs, sampleRate, bitrate);
+    }
+
+    /** Granule position of the last page of stream {@code serial}, or 0. */
+    private static long lastGranule(TagReader r, FileChannel ch, long serial) throws IOException {
+        long size = ch.size();
+        long start = Math.max(0, size - OGG_TAIL_WINDOW);
+        ByteBuffer t = r.map(ch, start, size - start);
+        for (int pos = t.limit() - 27; pos >= 0; pos--) {
+            if (t.get(pos) == 'O' && TagReader.matches(t, pos, "OggS") && TagReader.u32le(t, pos + 14) == serial) {
+                return TagReader.u64le(t, pos + 6);
+            }
+        }
+        return 0;
+    }
+
+    // -----------------------
+    // Comment list
+    // -----------------------
+
+    /** Parses a comment list (vendor string, count, "KEY=value" entries) in [pos, end). */
+    private static void readComments(TagReader r, ByteBuffer b, int pos, int end, TagReader.Visitor v) {
+        if (pos + 4 > end) return;
+        long vendorLen = TagReader.u32le(b, pos);
+        pos += 4;
+        if (vendorLen > end - pos - 4) return;
+        pos += (int) vendorLen;
+        long count = TagReader.u32le(b, pos);
+        pos += 4;
+
+        for (long i = 0; i < count && pos + 4 <= end; i++) {
+            long len = TagReader.u32le(b, pos);
+            pos += 4;
+            if (len > end - pos) return;
+            int entryEnd = pos + (int) len;
+
+            int eq = pos;
+            while (eq < entryEnd && b.get(eq) != '=') eq++;
+            int field = (eq < entryEnd) ? fieldFor(b, pos, eq - pos) : 0;
+            if (field != 0 && entryEnd > eq + 1) {
+                v.onTextField(field, r.decode(b, eq + 1, entryEnd - eq - 1, StandardCharsets.UTF_8));
+            }
+            pos = entryEnd;
+        }
+    }
+
+    /** Maps a comment key (ASCII, case-insensitive) to a FIELD_* constant without decoding it. */
+    private static int fieldFor(ByteBuffer b, int pos, int len) {
+        for (int k = 0; k < KEYS.length; k++) {
+            String key = KEYS[k];
+            if (key.length() != len) continue;
+            int i = 0;
+            while (i < len && Character.toUpperCase((char) (b.get(pos + i) & 0xFF)) == key.charAt(i)) i++;
+            if (i == len) return KEY_FIELDS[k];
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BrowseTreeTest {
+
+    @Test
+    public void oversizedPagesAreClampedWithoutSkippingRows() {
+        int total = 2_300;
+        int size = BrowseTree.pageSize(0, 1000);
+        assertEquals(BrowseTree.MAX_PAGE_SIZE, size);
+
+        // Each page starts where the one before ended, until every row has been served
+        long next = 0;
+        for (int page = 0; next < total; page++) {
+            long from = BrowseTree.pageStart(page, BrowseTree.pageSize(page, 1000));
+            assertEquals(next, from);
+            next = Math.min(total, from + size);
+        }
+        assertEquals(total, next);
+    }
+
+    @Test
+    public void unpagedRequestsGetTheFirstPage() {
+        assertEquals(BrowseTree.MAX_PAGE_SIZE, BrowseTree.pageSize(-1, -1));
+        assertEquals(0, BrowseTree.pageStart(-1, BrowseTree.pageSize(-1, -1)));
+        assertEquals(BrowseTree.MAX_PAGE_SIZE, BrowseTree.pageSize(2, 0));
+        assertEquals(40, BrowseTree.pageSize(3, 40));
+        assertEquals(120, BrowseTree.pageStart(3, 40));
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LibrarySnapshotTest {
+
+    @Test
+    public void streamingSnapshotsShareTheBuildersIndexOnlyUpToTheirSize() throws Exception {
+        LibrarySnapshot.Builder b = new LibrarySnapshot.Builder();
+        for (int i = 0; i < 10; i++) b.add(song(100 + i));
+        LibrarySnapshot page1 = b.snapshot(1, false);
+        for (int i = 10; i < 20; i++) b.add(song(100 + i));
+        LibrarySnapshot page2 = b.snapshot(2, false);
+
+        assertEquals(9, page1.indexOfId(109));
+        assertEquals(-1, page1.indexOfId(115)); // appended after page1 was taken
+        assertEquals(15, page2.indexOfId(115));
+
+        // Another thread gets an index of its own, bounded the same way
+        AtomicInteger seen = new AtomicInteger();
+        Thread t = new Thread(() -> seen.set(page1.indexOfId(109) * 100 + page1.indexOfId(115)));
+        t.start();
+        t.join();
+        assertEquals(9 * 100 - 1, seen.get());
+
+        LibrarySnapshot done = b.snapshot(3, true);
+        assertEquals(19, done.indexOfId(119));
+        assertNull(done.findById(99));
+    }
+
+    private static Song song(long id) {
+        return new Song(id, "song" + id, 0, 0);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LibrarySorterTest {
+
+    @Test
+    public void sortRows_isStableAcrossRunsAndMerges() {
+        int n = 10_000;
+        int[] keys = new int[n];
+        Random rnd = new Random(42);
+        for (int i = 0; i < n; i++) keys[i] = rnd.nextInt(50);
+
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) rows[i] = i;
+        LibrarySorter.sortRows(rows, n, (a, b) -> Integer.compare(keys[a], keys[b]));
+
+        for (int i = 1; i < n; i++) {
+            int a = rows[i - 1], b = rows[i];
+            assertTrue(keys[a] < keys[b] || (keys[a] == keys[b] && a < b));
+        }
+    }
+
+    @Test
+    public void sortedLibrary_reversesKnownRowsAndKeepsUnknownLast() {
+        LibrarySnapshot.Builder b = new LibrarySnapshot.Builder();
+        for (int i = 0; i < 5; i++) b.add(new Song(100 + i, "s" + i + ".mp3", 0, 0));
+        LibrarySnapshot snap = b.snapshot(1, true);
+
+        // Rows 3, 1, 4 have keys in that ascending order; rows 0 and 2 have none
+        SortedLibrary asc = new SortedLibrary(snap, LibrarySorter.KEY_ARTIST, false, new int[]{3, 1, 4, 0, 2}, 3);
+        SortedLibrary desc = asc.reversed();
+
+        int[] expectedAsc = {3, 1, 4, 0, 2};
+        int[] expectedDesc = {4, 1, 3, 0, 2};
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expectedAsc[i], asc.rowAt(i));
+            assertEquals(expectedDesc[i], desc.rowAt(i));
+        }
+        assertEquals(104, desc.get(0).id);
+
+        // Natural order: date added descending is the snapshot itself
+        SortedLibrary newest = new SortedLibrary(snap, LibrarySorter.KEY_DATE_ADDED, true, null, 5);
+        assertEquals(0, newest.rowAt(0));
+        assertEquals(4, newest.reversed().rowAt(0));
+    }
+
+    @Test
+    public void compareKeys_unsignedAndMissingLast() {
+        assertTrue(LibrarySorter.compareKeys(new byte[]{(byte) 0x80}, new byte[]{0x7F}) > 0);
+        assertTrue(LibrarySorter.compareKeys(new byte[]{1}, new byte[]{1, 0}) < 0);
+        assertTrue(LibrarySorter.compareKeys(null, new byte[]{1}) > 0);
+        assertEquals(0, LibrarySorter.compareKeys(null, null));
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class LibraryStoreTest {
+
+    @Test
+    public void longNamesAreCutOnACodePointBoundary() {
+        // "é" is two bytes, so a 5-byte limit would otherwise split the third one
+        byte[] name = "ééé".getBytes(StandardCharsets.UTF_8);
+        assertEquals(4, LibraryStore.utf8Prefix(name, 0, name.length, 5));
+        assertEquals(6, LibraryStore.utf8Prefix(name, 0, name.length, 6));
+        assertEquals("éé", new String(name, 0, LibraryStore.utf8Prefix(name, 0, name.length, 5), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void rowCountPastTheEndOfTheFileIsRejected() throws IOException {
+        File dir = Files.createTempDirectory("library").toFile();
+        File file = new File(dir, "library.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x4D4C4942); // "MLIB"
+            out.writeInt(1);
+            out.writeUTF("");
+            out.writeInt(Integer.MAX_VALUE); // no rows follow
+        }
+        try {
+            assertNull(new LibraryStore(dir).read());
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void writtenLibraryReadsBack() throws IOException {
+        File dir = Files.createTempDirectory("library").toFile();
+        LibrarySnapshot.Builder b = new LibrarySnapshot.Builder();
+        b.add(new Song(7, "Ünïcode", 1000, 2));
+        b.add(new Song(8, "", 3000, 4));
+        LibraryStore store = new LibraryStore(dir);
+        store.write(b.snapshot(1, true), "fp");
+        try {
+            LibraryStore.Cached cached = store.read();
+            assertNotNull(cached);
+            assertEquals("fp", cached.fingerprint);
+            assertEquals(2, cached.songs.size());
+            assertEquals("Ünïcode", cached.songs.nameAt(0));
+            assertEquals(8, cached.songs.idAt(1));
+        } finally {
+            new File(dir, "library.bin").delete();
+            dir.delete();
+        }
+    }
+}
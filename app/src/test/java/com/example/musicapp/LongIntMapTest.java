@@ -0,0 +1,43 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongIntMapTest {
+
+    @Test
+    public void putAndGet_survivesResize() {
+        LongIntMap map = new LongIntMap(4);
+        for (int i = 0; i < 50_000; i++) map.put(1000L + i, i);
+
+        assertEquals(50_000, map.size());
+        for (int i = 0; i < 50_000; i++) assertEquals(i, map.get(1000L + i));
+        assertEquals(LongIntMap.MISSING, map.get(999L));
+        assertEquals(LongIntMap.MISSING, map.get(1000L + 50_000));
+    }
+
+    @Test
+    public void put_overwritesExistingKey() {
+        LongIntMap map = new LongIntMap();
+        map.put(Long.MAX_VALUE, 1);
+        map.put(Long.MAX_VALUE, 2);
+        map.put(0L, 3);
+        map.put(-7L, 4);
+
+        assertEquals(3, map.size());
+        assertEquals(2, map.get(Long.MAX_VALUE));
+        assertEquals(3, map.get(0L));
+        assertEquals(4, map.get(-7L));
+    }
+
+    @Test
+    public void clear_removesEverything() {
+        LongIntMap map = new LongIntMap();
+        map.put(5L, 1);
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(5L));
+    }
+}
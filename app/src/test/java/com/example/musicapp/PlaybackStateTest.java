@@ -0,0 +1,25 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackStateTest {
+
+    @Test
+    public void finishingTheJournalRestoreIsAStateChange() {
+        // Cold launch with the activity in front: it binds while the journal is still being
+        // read and sees an empty, unrestored queue, which it must not seed
+        PlaybackState bound = new PlaybackState(PlaybackState.NO_SONG, false, 0, 0, 0, false, false);
+        assertFalse(bound.queueRestored);
+
+        // The restore found nothing to replay: same song, version and all, but it must
+        // still be delivered so the activity seeds the queue then
+        PlaybackState restoredEmpty = new PlaybackState(PlaybackState.NO_SONG, false, 0, 0, 0, false, true);
+        assertFalse(restoredEmpty.sameAs(bound));
+
+        // Position alone is still not a change
+        PlaybackState later = new PlaybackState(PlaybackState.NO_SONG, false, 500, 10, 0, false, true);
+        assertTrue(later.sameAs(restoredEmpty));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.musicapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class QueueJournalTest {
+
+    private File dir;
+    private LibrarySnapshot library;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        LibrarySnapshot.Builder b = new LibrarySnapshot.Builder();
+        for (long id = 1; id <= 10; id++) b.add(song(id));
+        library = b.snapshot(1, true);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void replaysRecordedEditsAndTheLastCheckpoint() throws Exception {
+        QueueJournal journal = new QueueJournal(dir);
+        VersionedQueue q = new VersionedQueue();
+        q.replaceAll(Arrays.asList(song(1), song(2), song(3)));
+        journal.reset(q.copy(), 0);
+        q.setChangeListener(journal::record);
+
+        q.append(song(4));
+        q.move(3, 1);
+        q.remove(2, 1);
+        q.advanceHead();
+        q.replace(1, song(7));
+        journal.checkpoint(q.peekFirst().id, 1234);
+
+        QueueJournal.Restored restored = restore(journal);
+        assertEquals(Arrays.asList(4L, 7L), ids(restored.songs));
+        assertEquals(1234, restored.positionMs);
+        journal.close();
+
+        // A new process reads the same queue
+        QueueJournal reopened = new QueueJournal(dir);
+        assertEquals(Arrays.asList(4L, 7L), ids(restore(reopened).songs));
+        reopened.close();
+    }
+
+    @Test
+    public void compactsOnceTheLogOutgrowsTheQueue() throws Exception {
+        QueueJournal journal = new QueueJournal(dir);
+        journal.reset(Arrays.asList(song(5), song(6)), 0);
+        for (int i = 1; i <= 20000; i++) journal.checkpoint(5, i);
+
+        QueueJournal.Restored restored = restore(journal);
+        assertEquals(Arrays.asList(5L, 6L), ids(restored.songs));
+        assertEquals(20000, restored.positionMs);
+        // 20000 checkpoints are ~500 KB; compaction leaves the queue, one checkpoint and the tail
+        assertTrue(new File(dir, "queue.journal").length() < 300 * 1024);
+        journal.close();
+    }
+
+    @Test
+    public void stopsAtATornOrCorruptTail() throws Exception {
+        QueueJournal journal = new QueueJournal(dir);
+        journal.reset(Arrays.asList(song(1), song(2)), 0);
+        journal.checkpoint(1, 500);
+        restore(journal); // waits for the writes
+        journal.close();
+
+        File file = new File(dir, "queue.journal");
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            // A length far past the end of the file, then a few bytes of the record
+            out.write(new byte[]{0x0F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 2, 0, 0});
+        }
+
+        QueueJournal reopened = new QueueJournal(dir);
+        QueueJournal.Restored restored = restore(reopened);
+        assertEquals(Arrays.asList(1L, 2L), ids(restored.songs));
+        assertEquals(500, restored.positionMs);
+        reopened.close();
+    }
+
+    private QueueJournal.Restored restore(QueueJournal journal) throws InterruptedException {
+        ArrayBlockingQueue<QueueJournal.Restored> result = new ArrayBlockingQueue<>(1);
+        journal.restore(library, result::add);
+        QueueJournal.Restored restored = result.poll(10, TimeUnit.SECONDS);
+        assertNotNull(restored);
+        return restored;
+    }
+
+    private static List<Long> ids(List<Song> songs) {
+        List<Long> out = new ArrayList<>();
+        for (Song s : songs) out.add(s.id);
+        return out;
+    }
+
+    private static Song song(long id) {
+        return new Song(id, "song" + id, 0, 0);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+
+    @Test
+    public void postsTrigramsAndWordPrefixes() {
+        SearchIndex index = index("Blue Monday", "Café del Mar", "Monday Morning", "Blues");
+
+        assertArrayEquals(new int[]{0, 2}, index.candidates("monday"));
+        assertArrayEquals(new int[]{1}, index.candidates("CAFE")); // folded
+        assertArrayEquals(new int[]{0, 3}, index.candidates("bl")); // word prefix
+        assertArrayEquals(new int[]{2}, index.candidates("mo mor"));
+        assertArrayEquals(new int[0], index.candidates("xyz"));
+        assertArrayEquals(new int[0], index.candidates("  "));
+    }
+
+    @Test
+    public void remappingThroughADeltaMatchesARebuild() {
+        String[] oldNames = {"Alpha", "Bravo", "Charlie", "Delta", "Echo", "Foxtrot"};
+        LibrarySnapshot old = snapshot(1, new long[]{1, 2, 3, 4, 5, 6}, oldNames, new long[6]);
+        // Bravo and Echo removed, Golf added first and Hotel in the middle, Delta renamed
+        String[] newNames = {"Golf", "Alpha", "Charlie", "Hotel", "Delta Remix", "Foxtrot"};
+        LibrarySnapshot now = snapshot(2, new long[]{7, 1, 3, 8, 4, 6}, newNames, new long[]{0, 0, 0, 0, 9, 0});
+        LibraryDelta delta = LibraryDelta.compute(old, now);
+
+        int[] added = LibrarySearch.merge(delta.inserted, delta.updated);
+        String[] texts = new String[added.length];
+        for (int i = 0; i < added.length; i++) texts[i] = newNames[added[i]];
+        SearchIndex remapped = index(oldNames).remapped(
+                LibrarySearch.rowMapping(delta, old.size()), now.size(), added, texts);
+        SearchIndex rebuilt = index(newNames);
+
+        for (String q : new String[]{"alpha", "charlie", "delta", "remix", "golf", "hotel", "bravo", "echo", "o", "fo"}) {
+            assertArrayEquals(q, rebuilt.candidates(q), remapped.candidates(q));
+        }
+        assertEquals(now.size(), remapped.rowCount());
+    }
+
+    @Test
+    public void rankingKeepsTheBestRowsInOrder() {
+        assertEquals(0, LibrarySearch.rankOf("blue monday", "blue", new String[]{"blue"}));
+        assertEquals(1, LibrarySearch.rankOf("new blue monday", "blue mon", new String[]{"blue", "mon"}));
+        assertEquals(2, LibrarySearch.rankOf("true blues", "rue", new String[]{"rue"}));
+        assertEquals(-1, LibrarySearch.rankOf("true blues", "xyz", new String[]{"xyz"}));
+
+        // The best three of many, a better match late in the library included
+        LibrarySearch.Best best = new LibrarySearch.Best(3);
+        for (int row = 0; row < 100; row++) best.offer(2, row);
+        best.offer(0, 90);
+        best.offer(1, 95);
+        assertArrayEquals(new int[]{90, 95, 0}, best.rows());
+    }
+
+    private static SearchIndex index(String... names) {
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < names.length; i++) index.addRow(i, names[i]);
+        return index;
+    }
+
+    private static LibrarySnapshot snapshot(long version, long[] ids, String[] names, long[] modified) {
+        LibrarySnapshot.Builder b = new LibrarySnapshot.Builder();
+        for (int i = 0; i < ids.length; i++) b.add(new Song(ids[i], names[i], 0, modified[i]));
+        return b.snapshot(version, true);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ShuffleOrderTest {
+
+    @Test
+    public void everyRowPlaysOncePerCycle() {
+        int n = 1000;
+        ShuffleOrder order = ShuffleOrder.start(42, n, 17);
+
+        Set<Integer> seen = new HashSet<>();
+        seen.add(17);
+        for (int i = 1; i < n; i++) assertTrue(seen.add(order.next(n)));
+        assertEquals(n, seen.size());
+
+        // The next cycle starts without repeating the row that just played
+        int last = order.currentRow(n);
+        seen.clear();
+        seen.add(last);
+        for (int i = 1; i < n; i++) assertTrue(seen.add(order.next(n)));
+    }
+
+    @Test
+    public void restoredStateContinuesTheSameOrder() {
+        int n = 300;
+        ShuffleOrder a = ShuffleOrder.start(7, n, -1);
+        for (int i = 0; i < 50; i++) a.next(n);
+
+        ShuffleOrder b = new ShuffleOrder(a.seed(), a.bits(), a.origin(), a.position());
+        for (int i = 0; i < 500; i++) assertEquals(a.next(n), b.next(n));
+    }
+
+    @Test
+    public void previousRetracesNext() {
+        int n = 50;
+        ShuffleOrder order = ShuffleOrder.start(3, n, 0);
+        int[] rows = new int[10];
+        rows[0] = 0;
+        for (int i = 1; i < rows.length; i++) rows[i] = order.next(n);
+        for (int i = rows.length - 2; i >= 0; i--) assertEquals(rows[i], order.previous(n));
+    }
+
+    @Test
+    public void growingWithinTheDomainKeepsExistingRowsInPlace() {
+        // 200 and 250 rows share a 256-entry domain
+        ShuffleOrder small = ShuffleOrder.start(9, 200, -1);
+        ShuffleOrder grown = new ShuffleOrder(small.seed(), small.bits(), small.origin(), small.position());
+
+        int newRows = 0;
+        for (int matched = 0; matched < 199; ) {
+            int r = grown.next(250);
+            if (r >= 200) {
+                newRows++; // a new row joined the cycle
+                continue;
+            }
+            assertEquals(small.next(200), r);
+            matched++;
+        }
+        assertTrue(newRows > 0);
+    }
+
+    @Test
+    public void removingRowsMidCycleKeepsWhatHasPlayed() {
+        int n = 200;
+        List<Integer> tracks = new ArrayList<>(); // row -> stable track id
+        for (int i = 0; i < n; i++) tracks.add(i);
+        ShuffleOrder order = ShuffleOrder.start(11, n, 0);
+
+        Set<Integer> played = new HashSet<>();
+        played.add(0);
+        for (int i = 0; i < 80; i++) assertTrue(played.add(tracks.get(order.next(n))));
+
+        // Delete every seventh row, played or not, highest row first
+        for (int row = tracks.size() - 1; row >= 0; row -= 7) {
+            tracks.remove(row);
+            order.remove(row);
+        }
+        n = tracks.size();
+        ShuffleOrder restored = new ShuffleOrder(order.seed(), order.bits(), order.origin(),
+                order.position(), order.holes());
+
+        // The rest of the cycle plays each surviving unplayed track once, and nothing else
+        Set<Integer> left = new HashSet<>(tracks);
+        left.removeAll(played);
+        int remaining = left.size();
+        for (int i = 0; i < remaining; i++) {
+            int row = order.next(n);
+            assertEquals(row, restored.next(n));
+            assertTrue(left.remove(tracks.get(row)));
+        }
+        assertTrue(left.isEmpty());
+
+        // Then a new cycle over every surviving track
+        Set<Integer> seen = new HashSet<>();
+        seen.add(tracks.get(order.currentRow(n)));
+        for (int i = 1; i < n; i++) assertTrue(seen.add(tracks.get(order.next(n))));
+    }
+
+    @Test
+    public void singleRow() {
+        ShuffleOrder order = ShuffleOrder.start(1, 1, 0);
+        assertEquals(0, order.next(1));
+        assertEquals(0, order.next(1));
+        assertEquals(-1, order.next(0));
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SongQueueTest {
+
+    @Test
+    public void pollFirstAdvancesAcrossWraparound() {
+        SongQueue q = new SongQueue();
+        for (int i = 0; i < 10; i++) q.add(song(i));
+        for (int i = 0; i < 8; i++) assertEquals(i, q.pollFirst().id);
+        // Appends now wrap past the end of the ring and force a grow
+        for (int i = 10; i < 40; i++) q.add(song(i));
+
+        assertEquals(32, q.size());
+        for (int i = 0; i < 32; i++) assertEquals(i + 8, q.get(i).id);
+        assertEquals(8, q.peekFirst().id);
+    }
+
+    @Test
+    public void insertRemoveAndMoveMatchArrayList() {
+        Random r = new Random(7);
+        SongQueue q = new SongQueue();
+        List<Song> expected = new ArrayList<>();
+        for (int step = 0; step < 5000; step++) {
+            int op = r.nextInt(5);
+            if (op == 0 || expected.isEmpty()) {
+                int at = r.nextInt(expected.size() + 1);
+                Song s = song(step);
+                q.add(at, s);
+                expected.add(at, s);
+            } else if (op == 1) {
+                int at = r.nextInt(expected.size());
+                assertSame(expected.remove(at), q.remove(at));
+            } else if (op == 2) {
+                int from = r.nextInt(expected.size());
+                int to = r.nextInt(expected.size());
+                q.move(from, to);
+                expected.add(to, expected.remove(from));
+            } else if (op == 3) {
+                assertSame(expected.remove(0), q.pollFirst());
+            } else {
+                Song s = song(step);
+                q.add(s);
+                expected.add(s);
+            }
+            assertEquals(expected, q);
+        }
+    }
+
+    @Test
+    public void wrappingRangeIsOneSegmentWithEditOverlays() {
+        List<Song> library = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) library.add(song(i));
+
+        SongQueue q = new SongQueue();
+        q.insertRange(0, SongQueue.Range.wrapping(library, 99_998));
+        assertEquals(100_000, q.size());
+        assertEquals(1, q.segmentCount());
+        assertEquals(99_998, q.get(0).id);
+        assertEquals(0, q.get(2).id);
+        assertEquals(99_997, q.get(99_999).id);
+
+        q.pollFirst();
+        q.add(1, song(-1));
+        q.remove(50_000);
+        assertEquals(99_999, q.get(0).id);
+        assertEquals(-1, q.get(1).id);
+        assertEquals(0, q.get(2).id);
+        assertEquals(49_997, q.get(49_999).id);
+        assertEquals(49_999, q.get(50_000).id);
+        assertTrue(q.segmentCount() <= 4);
+
+        // A copy shares segments and is unaffected by later edits to the original
+        SongQueue copy = new SongQueue(q);
+        q.clear();
+        assertEquals(99_999, copy.size());
+        assertEquals(-1, copy.get(1).id);
+    }
+
+    @Test
+    public void frozenCopyIsSealedFromLaterAppends() {
+        SongQueue q = new SongQueue();
+        for (int i = 0; i < 5; i++) q.add(song(i));
+        q.pollFirst();
+        SongQueue frozen = q.frozenCopy();
+
+        // Appends go to a new buffer; the one the frozen copy reads is never written again
+        for (int i = 5; i < 100; i++) q.add(song(i));
+        assertEquals(4, frozen.size());
+        for (int i = 0; i < 4; i++) assertEquals(i + 1, frozen.get(i).id);
+        assertEquals(99, q.size());
+        assertEquals(99, q.get(98).id);
+
+        try {
+            frozen.add(song(-1));
+            fail("a frozen copy accepted an edit");
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertSame(frozen, frozen.frozenCopy());
+        SongQueue editable = new SongQueue(frozen);
+        editable.add(song(-1));
+        assertEquals(5, editable.size());
+        assertEquals(4, frozen.size());
+    }
+
+    @Test
+    public void emptyQueue() {
+        SongQueue q = new SongQueue();
+        assertNull(q.peekFirst());
+        assertNull(q.pollFirst());
+        q.add(song(1));
+        q.clear();
+        assertTrue(q.isEmpty());
+    }
+
+    private static Song song(long id) {
+        return new Song(id, "song" + id, 0, 0);
+    }
+}
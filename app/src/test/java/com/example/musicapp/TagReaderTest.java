@@ -0,0 +1,265 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TagReaderTest {
+
+    @Test
+    public void id3v23_utf16TextPictureAndCbrStream() throws IOException {
+        Bytes tag = new Bytes();
+        tag.bytes(id3v23Frame("TIT2", text16("Für Elise")));
+        tag.bytes(id3v23Frame("TPE1", text8("Beethoven")));
+        tag.bytes(id3v23Frame("TRCK", text8("7/12")));
+        tag.bytes(id3v23Frame("APIC", picture()));
+        tag.zeros(32); // padding
+
+        Bytes file = new Bytes();
+        file.ascii("ID3").u8(3).u8(0).u8(0).syncsafe(tag.size());
+        file.bytes(tag.toByteArray());
+        // Ten 128 kbps / 44.1 kHz MPEG-1 layer III frames of 417 bytes
+        for (int i = 0; i < 10; i++) {
+            file.u8(0xFF).u8(0xFB).u8(0x90).u8(0x00);
+            file.zeros(413);
+        }
+
+        TagReader.Tags tags = read(file);
+        assertEquals(TagReader.FORMAT_MP3, tags.format);
+        assertEquals("Für Elise", tags.title);
+        assertEquals("Beethoven", tags.artist);
+        assertEquals("7/12", tags.track);
+        assertTrue(tags.hasPicture);
+        assertEquals(44100, tags.sampleRate);
+        assertEquals(128000, tags.bitrate);
+        assertEquals(4170L * 8000 / 128000, tags.durationMs);
+    }
+
+    @Test
+    public void id3v24_syncsafeFrameSizesAndXingDuration() throws IOException {
+        Bytes tag = new Bytes();
+        tag.bytes(id3v24Frame("TALB", text8("Long Album ".repeat(20).trim())));
+        tag.bytes(id3v24Frame("TDRC", text8("2001")));
+
+        Bytes file = new Bytes();
+        file.ascii("ID3").u8(4).u8(0).u8(0).syncsafe(tag.size());
+        file.bytes(tag.toByteArray());
+        // MPEG-1 layer III stereo frame carrying a Xing header that says 1000 frames
+        file.u8(0xFF).u8(0xFB).u8(0x90).u8(0x00).zeros(32);
+        file.ascii("Xing").u32(1).u32(1000);
+        file.zeros(417 - 4 - 32 - 12);
+        file.u8(0xFF).u8(0xFB).u8(0x90).u8(0x00);
+
+        TagReader.Tags tags = read(file);
+        assertEquals("Long Album ".repeat(20).trim(), tags.album);
+        assertEquals("2001", tags.year);
+        assertEquals(1000L * 1152 * 1000 / 44100, tags.durationMs);
+    }
+
+    @Test
+    public void id3v1_onlyTag() throws IOException {
+        Bytes file = new Bytes();
+        file.zeros(1000);
+        file.ascii("TAG").padded("Song", 30).padded("Artist", 30).padded("Album", 30).padded("1999", 4);
+        file.padded("comment", 28).u8(0).u8(5).u8(17);
+
+        TagReader.Tags tags = read(file);
+        assertEquals(TagReader.FORMAT_MP3, tags.format);
+        assertEquals("Song", tags.title);
+        assertEquals("Artist", tags.artist);
+        assertEquals("Album", tags.album);
+        assertEquals("1999", tags.year);
+        assertEquals("5", tags.track);
+    }
+
+    @Test
+    public void flac_streamInfoAndVorbisComment() throws IOException {
+        Bytes info = new Bytes();
+        info.zeros(10);
+        // 48000 Hz, 2 channels, 16 bits, 480000 samples (10 s)
+        long packed = (48000L << 44) | (1L << 41) | (15L << 36) | 480000L;
+        info.u32((int) (packed >>> 32)).u32((int) packed);
+        info.zeros(16);
+
+        Bytes comments = vorbisComments("vendor", "title=Étude", "ARTIST=Chopin", "TrackNumber=3");
+
+        Bytes file = new Bytes();
+        file.ascii("fLaC");
+        file.u8(0).u24(info.size()).bytes(info.toByteArray());
+        file.u8(0x80 | 4).u24(comments.size()).bytes(comments.toByteArray());
+        file.zeros(100);
+
+        TagReader.Tags tags = read(file);
+        assertEquals(TagReader.FORMAT_FLAC, tags.format);
+        assertEquals("Étude", tags.title);
+        assertEquals("Chopin", tags.artist);
+        assertEquals("3", tags.track);
+        assertEquals(48000, tags.sampleRate);
+        assertEquals(10_000, tags.durationMs);
+    }
+
+    @Test
+    public void ogg_vorbisHeadersAcrossPages() throws IOException {
+        Bytes id = new Bytes();
+        id.u8(1).ascii("vorbis").le32(0).u8(2).le32(44100).le32(0).le32(160000).le32(0).u8(0xB8).u8(1);
+        Bytes comment = new Bytes();
+        comment.u8(3).ascii("vorbis").bytes(vorbisComments("v", "ALBUM=" + "x".repeat(300)).toByteArray()).u8(1);
+
+        Bytes file = new Bytes();
+        oggPage(file, 0, id.toByteArray());
+        // The comment packet spans two pages (one full 255-byte segment, then the rest)
+        byte[] c = comment.toByteArray();
+        oggPage(file, 0, java.util.Arrays.copyOfRange(c, 0, 255), 255);
+        oggPage(file, 0, java.util.Arrays.copyOfRange(c, 255, c.length));
+        oggPage(file, 441000, new byte[10]);
+
+        TagReader.Tags tags = read(file);
+        assertEquals(TagReader.FORMAT_OGG, tags.format);
+        assertEquals("x".repeat(300), tags.album);
+        assertEquals(44100, tags.sampleRate);
+        assertEquals(160000, tags.bitrate);
+        assertEquals(10_000, tags.durationMs);
+    }
+
+    @Test
+    public void mp4_ilstItemsAndMvhdDuration() throws IOException {
+        Bytes mvhd = new Bytes().u32(0).u32(0).u32(0).u32(1000).u32(215_000).zeros(80);
+        Bytes ilst = new Bytes();
+        ilst.bytes(atom("\u00A9nam", dataAtom(1, "Title".getBytes(StandardCharsets.UTF_8))));
+        ilst.bytes(atom("aART", dataAtom(1, "Band".getBytes(StandardCharsets.UTF_8))));
+        ilst.bytes(atom("trkn", dataAtom(0, new byte[]{0, 0, 0, 9, 0, 12, 0, 0})));
+        ilst.bytes(atom("covr", dataAtom(14, new byte[]{(byte) 0x89, 'P', 'N', 'G'})));
+        Bytes meta = new Bytes().u32(0).bytes(atom("hdlr", new byte[25])).bytes(atom("ilst", ilst.toByteArray()));
+        Bytes udta = new Bytes().bytes(atom("meta", meta.toByteArray()));
+        Bytes moov = new Bytes().bytes(atom("mvhd", mvhd.toByteArray())).bytes(atom("udta", udta.toByteArray()));
+
+        Bytes file = new Bytes();
+        file.bytes(atom("ftyp", "M4A \0\0\0\0".getBytes(StandardCharsets.ISO_8859_1)));
+        file.bytes(atom("mdat", new byte[4000]));
+        file.bytes(atom("moov", moov.toByteArray())); // moov after mdat, as from many encoders
+
+        CapturingTags tags = new CapturingTags();
+        tags.format = readWith(file, tags);
+        assertEquals(TagReader.FORMAT_MP4, tags.format);
+        assertEquals("Title", tags.title);
+        assertEquals("Band", tags.albumArtist);
+        assertEquals("9", tags.track);
+        assertEquals(215_000, tags.durationMs);
+        assertEquals("image/png", tags.pictureMime);
+        assertEquals(4, tags.pictureLength);
+    }
+
+    // -----------------------
+    // Fixture helpers
+    // -----------------------
+
+    private static class CapturingTags extends TagReader.Tags {
+        String pictureMime;
+        int pictureLength;
+
+        @Override
+        public void onPicture(String mimeType, ByteBuffer data) {
+            super.onPicture(mimeType, data);
+            pictureMime = mimeType;
+            pictureLength = data.remaining();
+        }
+    }
+
+    private static TagReader.Tags read(Bytes file) throws IOException {
+        TagReader.Tags tags = new TagReader.Tags();
+        tags.format = readWith(file, tags);
+        return tags;
+    }
+
+    private static int readWith(Bytes file, TagReader.Visitor visitor) throws IOException {
+        File f = File.createTempFile("tag", ".bin");
+        f.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(file.toByteArray());
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel ch = raf.getChannel()) {
+            return new TagReader().read(ch, visitor);
+        }
+    }
+
+    private static byte[] text8(String s) {
+        return new Bytes().u8(3).bytes(s.getBytes(StandardCharsets.UTF_8)).toByteArray();
+    }
+
+    private static byte[] text16(String s) {
+        return new Bytes().u8(1).bytes(s.getBytes(StandardCharsets.UTF_16)).u8(0).u8(0).toByteArray();
+    }
+
+    private static byte[] picture() {
+        return new Bytes().u8(0).ascii("image/jpeg").u8(0).u8(3).ascii("cover").u8(0)
+                .u8(0xFF).u8(0xD8).u8(0xFF).toByteArray();
+    }
+
+    private static byte[] id3v23Frame(String id, byte[] body) {
+        return new Bytes().ascii(id).u32(body.length).u16(0).bytes(body).toByteArray();
+    }
+
+    private static byte[] id3v24Frame(String id, byte[] body) {
+        return new Bytes().ascii(id).syncsafe(body.length).u16(0).bytes(body).toByteArray();
+    }
+
+    private static Bytes vorbisComments(String vendor, String... entries) {
+        Bytes b = new Bytes();
+        byte[] v = vendor.getBytes(StandardCharsets.UTF_8);
+        b.le32(v.length).bytes(v).le32(entries.length);
+        for (String e : entries) {
+            byte[] bytes = e.getBytes(StandardCharsets.UTF_8);
+            b.le32(bytes.length).bytes(bytes);
+        }
+        return b;
+    }
+
+    private static void oggPage(Bytes file, long granule, byte[] data, int... laces) {
+        if (laces.length == 0) {
+            int n = data.length / 255 + 1;
+            laces = new int[n];
+            for (int i = 0; i < n - 1; i++) laces[i] = 255;
+            laces[n - 1] = data.length % 255;
+        }
+        file.ascii("OggS").u8(0).u8(0).le32((int) granule).le32((int) (granule >>> 32)).le32(1).le32(0).le32(0);
+        file.u8(laces.length);
+        for (int l : laces) file.u8(l);
+        file.bytes(data);
+    }
+
+    private static byte[] atom(String type, byte[] body) {
+        return new Bytes().u32(body.length + 8).raw(type).bytes(body).toByteArray();
+    }
+
+    private static byte[] dataAtom(int type, byte[] payload) {
+        return atom("data", new Bytes().u32(type).u32(0).bytes(payload).toByteArray());
+    }
+
+    private static class Bytes extends ByteArrayOutputStream {
+        Bytes u8(int v) { write(v); return this; }
+        Bytes u16(int v) { return u8(v >> 8).u8(v); }
+        Bytes u24(int v) { return u8(v >> 16).u8(v >> 8).u8(v); }
+        Bytes u32(int v) { return u8(v >>> 24).u8(v >> 16).u8(v >> 8).u8(v); }
+        Bytes le32(int v) { return u8(v).u8(v >> 8).u8(v >> 16).u8(v >>> 24); }
+        Bytes syncsafe(int v) { return u8((v >> 21) & 0x7F).u8((v >> 14) & 0x7F).u8((v >> 7) & 0x7F).u8(v & 0x7F); }
+        Bytes zeros(int n) { for (int i = 0; i < n; i++) write(0); return this; }
+        Bytes bytes(byte[] b) { write(b, 0, b.length); return this; }
+        Bytes ascii(String s) { return bytes(s.getBytes(StandardCharsets.US_ASCII)); }
+        Bytes raw(String s) { return bytes(s.getBytes(StandardCharsets.ISO_8859_1)); }
+
+        Bytes padded(String s, int len) {
+            byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+            write(b, 0, Math.min(b.length, len));
+            return zeros(len - Math.min(b.length, len));
+        }
+    }
+}
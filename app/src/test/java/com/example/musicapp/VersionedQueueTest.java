@@ -0,0 +1,182 @@
+package com.example.musicapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VersionedQueueTest {
+
+    @Test
+    public void replayedChangesReproduceTheQueue() {
+        VersionedQueue q = new VersionedQueue();
+        SongQueue mirror = new SongQueue();
+        long mirrorVersion = q.version();
+
+        q.replaceAll(Arrays.asList(song(1), song(2), song(3), song(4)));
+        q.append(song(5));
+        q.move(4, 1);
+        q.remove(2, 2);
+        q.advanceHead();
+        q.replace(0, song(50));
+        q.insert(1, Arrays.asList(song(6), song(7)));
+
+        List<QueueChange> changes = q.changesSince(mirrorVersion);
+        assertNotNull(changes);
+        for (QueueChange c : changes) c.applyTo(mirror);
+        assertEquals(q, mirror);
+        assertEquals(50, mirror.get(0).id);
+
+        assertTrue(q.changesSince(q.version()).isEmpty());
+    }
+
+    @Test
+    public void changesOlderThanTheLogAreNotReplayed() {
+        VersionedQueue q = new VersionedQueue();
+        for (int i = 0; i < VersionedQueue.LOG_CAPACITY + 5; i++) q.append(song(i));
+
+        assertNull(q.changesSince(0));
+        assertNull(q.changesSince(VersionedQueue.NO_VERSION));
+        assertNull(q.changesSince(q.version() + 1));
+        assertEquals(3, q.changesSince(q.version() - 3).size());
+    }
+
+    @Test
+    public void snapshotIsUnaffectedByLaterEdits() {
+        VersionedQueue q = new VersionedQueue();
+        q.replaceAll(Arrays.asList(song(1), song(2), song(3)));
+        VersionedQueue.Snapshot snap = q.snapshot();
+
+        q.advanceHead();
+        q.append(song(4));
+
+        assertEquals(3, snap.size());
+        assertEquals(1, snap.peekFirst().id);
+        assertEquals(1, snap.changesSince(0).size());
+        assertNull(snap.changesSince(q.version()));
+
+        SongQueue mirror = new SongQueue();
+        for (QueueChange c : q.snapshot().changesSince(0)) c.applyTo(mirror);
+        assertEquals(q, mirror);
+    }
+
+    @Test
+    public void batchAppliesTheSameToServiceAndLocalQueues() {
+        List<Song> playlist = Arrays.asList(song(1), song(2), song(3), song(4));
+        QueueBatch batch = new QueueBatch()
+                .replaceFromPlaylistAt(playlist, 2)
+                .enqueue(song(9))
+                .move(4, 1)
+                .removeRange(2, 2)
+                .insertAt(1, Arrays.asList(song(7), song(8)));
+
+        VersionedQueue service = new VersionedQueue();
+        SongQueue local = new SongQueue();
+        assertTrue(batch.fits(0));
+        batch.applyTo(service);
+        batch.applyTo(local);
+
+        assertEquals(local, service);
+        assertEquals(Arrays.asList(3L, 7L, 8L, 9L, 2L), ids(local));
+    }
+
+    @Test
+    public void batchWithAnOutOfRangeEditDoesNotFit() {
+        QueueBatch batch = new QueueBatch().enqueue(song(1)).move(0, 1);
+        assertFalse(batch.fits(0));
+        assertTrue(batch.fits(1));
+        assertFalse(new QueueBatch().removeRange(0, 3).fits(2));
+    }
+
+    @Test
+    public void batchBasedOnAnOlderVersionDoesNotFit() {
+        VersionedQueue q = new VersionedQueue();
+        q.replaceAll(Arrays.asList(song(1), song(2), song(3)));
+        QueueBatch batch = new QueueBatch().move(2, 1).basedOn(q.version());
+        assertTrue(batch.fits(q.version(), q.size()));
+
+        q.advanceHead(); // positions read before this now point at other songs
+        assertFalse(batch.fits(q.version(), q.size()));
+        assertTrue(new QueueBatch().move(1, 0).fits(q.version(), q.size()));
+    }
+
+    @Test
+    public void insertedSongQueueIsRecordedAsAFrozenCopy() {
+        SongQueue source = new SongQueue(Arrays.asList(song(1), song(2)));
+        VersionedQueue q = new VersionedQueue();
+        q.insert(0, source);
+
+        List<Song> recorded = q.changesSince(0).get(0).songs;
+        source.add(song(3));
+        source.remove(0);
+
+        assertEquals(Arrays.asList(1L, 2L), ids(recorded));
+        try {
+            recorded.add(song(4));
+            fail("the recorded songs accepted an edit");
+        } catch (UnsupportedOperationException expected) {
+            // frozen
+        }
+    }
+
+    @Test
+    public void rebaseDropsAndUpdatesLikeASongBySongWalk() {
+        LibrarySnapshot.Builder b = new LibrarySnapshot.Builder();
+        for (long id = 1; id <= 20; id++) b.add(song(id));
+        LibrarySnapshot old = b.snapshot(1, true);
+
+        // Ids 8, 9 and 15 deleted, 30 and 31 added, 12 edited
+        LibrarySnapshot.Builder nb = new LibrarySnapshot.Builder();
+        nb.add(song(30));
+        for (long id = 1; id <= 20; id++) {
+            if (id == 8 || id == 9 || id == 15) continue;
+            if (id == 11) nb.add(song(31));
+            nb.add(id == 12 ? new Song(12, "song12", 0, 5) : song(id));
+        }
+        LibrarySnapshot now = nb.snapshot(2, true);
+        LibraryDelta delta = LibraryDelta.compute(old, now);
+
+        VersionedQueue q = new VersionedQueue();
+        q.insert(0, SongQueue.Range.wrapping(old, 5)); // the library from id 6, wrapping
+        q.insert(q.size(), Arrays.asList(song(3), song(99), song(8)));
+        q.insert(q.size(), SongQueue.Range.wrapping(old, 14)); // passes 15 at the start
+        long mirrorVersion = q.version();
+        SongQueue mirror = q.copy();
+
+        List<String> expected = new ArrayList<>();
+        expected.add(row(q.get(0)));
+        for (int i = 1; i < q.size(); i++) {
+            int p = now.indexOfId(q.get(i).id);
+            if (p >= 0) expected.add(row(now.get(p)));
+        }
+
+        q.rebase(now, delta);
+        assertEquals(expected, rows(q));
+
+        for (QueueChange c : q.changesSince(mirrorVersion)) c.applyTo(mirror);
+        assertEquals(expected, rows(mirror));
+    }
+
+    private static List<String> rows(List<Song> songs) {
+        List<String> out = new ArrayList<>();
+        for (Song s : songs) out.add(row(s));
+        return out;
+    }
+
+    private static String row(Song s) {
+        return s.id + "@" + s.dateModifiedSeconds;
+    }
+
+    private static List<Long> ids(List<Song> songs) {
+        List<Long> out = new ArrayList<>();
+        for (Song s : songs) out.add(s.id);
+        return out;
+    }
+
+    private static Song song(long id) {
+        return new Song(id, "song" + id, 0, 0);
+    }
+}